@@ -0,0 +1,75 @@
+package ru.spb.coverage.coverage;
+
+import org.jacoco.core.analysis.CoverageBuilder;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class analysis of a generated class tree, the same engine CoverageService uses for analyzing code
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AnalysisBenchmark {
+
+    private static final int METHODS_PER_CLASS = 20;
+
+    @Param({"100", "1000", "10000"})
+    private int classes;
+
+    @Param({"1", "4"})
+    private int workers;
+
+    private Path classesDir;
+    private Path cacheDir;
+    private ExecutionDataStore executionDataStore;
+
+    @Setup
+    public void setUp() throws Exception {
+        classesDir = Files.createTempDirectory("analysis-benchmark-classes");
+        cacheDir = Files.createTempDirectory("analysis-benchmark-cache");
+        BenchmarkFixtures.generateClasses(classesDir, classes, METHODS_PER_CLASS);
+        executionDataStore = new ExecutionDataStore();
+
+        // Fill the cache once, so warm cache benchmark measures only cache hits
+        new ParallelCodeAnalyzer(executionDataStore, workers, new AnalysisCache(cacheDir.toFile()))
+                .analyze(List.of(classesDir.toFile()));
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        BenchmarkFixtures.deleteRecursively(classesDir);
+        BenchmarkFixtures.deleteRecursively(cacheDir);
+    }
+
+    @Benchmark
+    public CoverageBuilder analyzeAll() {
+        return new ParallelCodeAnalyzer(executionDataStore, workers).analyze(List.of(classesDir.toFile()));
+    }
+
+    @Benchmark
+    public CoverageBuilder analyzeAllWithWarmCache() {
+        var analysisCache = new AnalysisCache(cacheDir.toFile());
+        return new ParallelCodeAnalyzer(executionDataStore, workers, analysisCache)
+                .analyze(List.of(classesDir.toFile()));
+    }
+}
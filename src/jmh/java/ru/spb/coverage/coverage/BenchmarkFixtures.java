@@ -0,0 +1,205 @@
+package ru.spb.coverage.coverage;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ISourceFileCoverage;
+import org.jacoco.core.internal.analysis.ClassCoverageImpl;
+import org.jacoco.core.internal.analysis.CounterImpl;
+import org.jacoco.core.internal.analysis.MethodCoverageImpl;
+import org.jacoco.core.internal.analysis.SourceFileCoverageImpl;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Generates benchmark fixtures locally: git repositories, class trees and source files
+ */
+final class BenchmarkFixtures {
+
+    static final String TARGET_BRANCH = "master";
+    static final String FEATURE_BRANCH = "feature";
+
+    private static final String SOURCE_ROOT = "src/main/java/";
+    private static final int FILES_PER_PACKAGE = 100;
+    private static final int FEATURE_COMMITS = 10;
+    private static final int TARGET_COMMITS_AFTER_FORK = 5;
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Creates repository with all files committed to the target branch
+     * and a feature branch which changes the first changedFiles files in several commits
+     */
+    static void createGitRepository(Path dir, int files, int changedFiles, int linesPerFile)
+            throws IOException, GitAPIException {
+        try (var git = Git.init().setDirectory(dir.toFile()).setInitialBranch(TARGET_BRANCH).call()) {
+            for (var i = 0; i < files; i++) {
+                writeSource(dir, i, sourceText(linesPerFile, 0));
+            }
+            commit(git, "Initial commit");
+
+            git.checkout().setCreateBranch(true).setName(FEATURE_BRANCH).call();
+            for (var commit = 1; commit <= FEATURE_COMMITS; commit++) {
+                for (var i = commit - 1; i < changedFiles; i += FEATURE_COMMITS) {
+                    writeSource(dir, i, sourceText(linesPerFile, commit));
+                }
+                commit(git, "Feature commit " + commit);
+            }
+
+            git.checkout().setName(TARGET_BRANCH).call();
+            for (var commit = 1; commit <= TARGET_COMMITS_AFTER_FORK; commit++) {
+                writeSource(dir, files - commit, sourceText(linesPerFile, -commit));
+                commit(git, "Target commit " + commit);
+            }
+
+            git.checkout().setName(FEATURE_BRANCH).call();
+        }
+    }
+
+    /**
+     * Generates class files with methods containing a branch each
+     */
+    static void generateClasses(Path dir, int classes, int methodsPerClass) throws IOException {
+        for (var i = 0; i < classes; i++) {
+            var className = packageName(i) + "/Generated" + i;
+            var classFile = dir.resolve(className + ".class");
+            Files.createDirectories(classFile.getParent());
+            Files.write(classFile, generateClass(className, "Generated" + i + ".java", methodsPerClass));
+        }
+    }
+
+    /**
+     * @return source text where every fourth line carries the given revision
+     */
+    static String sourceText(int lines, int revision) {
+        var text = new StringBuilder();
+        for (var line = 0; line < lines; line++) {
+            // Only every fourth line is changed between revisions to get several hunks per file
+            var lineRevision = line % 4 == 0 ? revision : 0;
+            text.append("    int field").append(line).append(" = ").append(lineRevision).append(";\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return source file coverage with uncovered, partly covered and covered lines
+     */
+    static ISourceFileCoverage sourceFileCoverage(int lines) {
+        var coverage = new SourceFileCoverageImpl("Generated.java", "bench");
+        for (var line = 1; line <= lines; line++) {
+            if (line % 3 == 0) {
+                coverage.increment(CounterImpl.getInstance(2, 0), CounterImpl.COUNTER_0_0, line);
+            } else if (line % 5 == 0) {
+                coverage.increment(CounterImpl.getInstance(1, 3), CounterImpl.getInstance(1, 1), line);
+            } else if (line % 7 != 0) {
+                coverage.increment(CounterImpl.getInstance(0, 2), CounterImpl.COUNTER_0_0, line);
+            }
+        }
+        return coverage;
+    }
+
+    /**
+     * @return class coverage with methods following each other, every method has its own line coverage pattern
+     */
+    static IClassCoverage classCoverage(int methods, int linesPerMethod) {
+        var classCoverage = new ClassCoverageImpl("bench/Generated", 1, false);
+        classCoverage.setSourceFileName("Generated.java");
+        for (var i = 0; i < methods; i++) {
+            var method = new MethodCoverageImpl("method" + i, "(I)I", null);
+            for (var line = i * linesPerMethod + 1; line <= (i + 1) * linesPerMethod; line++) {
+                var covered = (line + i) % 3 == 0;
+                method.increment(covered ? CounterImpl.getInstance(0, 2) : CounterImpl.getInstance(2, 0),
+                        CounterImpl.COUNTER_0_0, line);
+            }
+            method.incrementMethodCounter();
+            classCoverage.addMethod(method);
+        }
+        return classCoverage;
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (var path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static void writeSource(Path dir, int index, String text) throws IOException {
+        var sourceFile = dir.resolve(SOURCE_ROOT + packageName(index) + "/File" + index + ".java");
+        Files.createDirectories(sourceFile.getParent());
+        Files.writeString(sourceFile, text, StandardCharsets.UTF_8);
+    }
+
+    private static void commit(Git git, String message) throws GitAPIException {
+        git.add().addFilepattern(".").call();
+        git.commit()
+                .setMessage(message)
+                .setAuthor("benchmark", "benchmark@example.com")
+                .setCommitter("benchmark", "benchmark@example.com")
+                .setSign(false)
+                .call();
+    }
+
+    private static String packageName(int index) {
+        return "bench/pkg" + index / FILES_PER_PACKAGE;
+    }
+
+    private static byte[] generateClass(String className, String sourceFileName, int methods) {
+        var classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        classWriter.visit(Opcodes.V17, Opcodes.ACC_PUBLIC, className, null, "java/lang/Object", null);
+        classWriter.visitSource(sourceFileName, null);
+
+        var constructor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        var constructorStart = new Label();
+        constructor.visitLabel(constructorStart);
+        constructor.visitLineNumber(1, constructorStart);
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        for (var i = 0; i < methods; i++) {
+            var line = 3 + i * 5;
+            var method = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "method" + i, "(I)I", null, null);
+            method.visitCode();
+
+            var condition = new Label();
+            method.visitLabel(condition);
+            method.visitLineNumber(line, condition);
+            var negative = new Label();
+            method.visitVarInsn(Opcodes.ILOAD, 1);
+            method.visitLdcInsn(i);
+            method.visitJumpInsn(Opcodes.IF_ICMPLE, negative);
+
+            var positiveReturn = new Label();
+            method.visitLabel(positiveReturn);
+            method.visitLineNumber(line + 1, positiveReturn);
+            method.visitVarInsn(Opcodes.ILOAD, 1);
+            method.visitInsn(Opcodes.IRETURN);
+
+            method.visitLabel(negative);
+            method.visitLineNumber(line + 3, negative);
+            method.visitVarInsn(Opcodes.ILOAD, 1);
+            method.visitInsn(Opcodes.INEG);
+            method.visitInsn(Opcodes.IRETURN);
+
+            method.visitMaxs(0, 0);
+            method.visitEnd();
+        }
+
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+}
@@ -0,0 +1,70 @@
+package ru.spb.coverage.coverage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.spb.coverage.domain.GitDiff;
+import ru.spb.coverage.domain.GitDiffOptions;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Git diff between a feature branch and the target branch of a generated repository
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GitDiffBenchmark {
+
+    private static final String TARGET_REF = "refs/heads/" + BenchmarkFixtures.TARGET_BRANCH;
+    private static final int LINES_PER_FILE = 200;
+
+    @Param({"1000", "10000"})
+    private int files;
+
+    @Param({"10", "500"})
+    private int changedFiles;
+
+    @Param({"1", "4"})
+    private int workers;
+
+    private Path repositoryDir;
+    private String gitDir;
+
+    @Setup
+    public void setUp() throws Exception {
+        repositoryDir = Files.createTempDirectory("git-diff-benchmark");
+        BenchmarkFixtures.createGitRepository(repositoryDir, files, Math.min(changedFiles, files), LINES_PER_FILE);
+        gitDir = repositoryDir.resolve(".git").toString();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        BenchmarkFixtures.deleteRecursively(repositoryDir);
+    }
+
+    @Benchmark
+    public List<GitDiff> diffWithTargetBranchTip() {
+        return GitUtils.getChangesInNewBranch(TARGET_REF, gitDir, GitDiffOptions.builder().workers(workers).build());
+    }
+
+    @Benchmark
+    public List<GitDiff> diffWithMergeBase() {
+        return GitUtils.getChangesInNewBranch(TARGET_REF, gitDir, GitDiffOptions.builder().mergeBase(true).workers(workers).build());
+    }
+}
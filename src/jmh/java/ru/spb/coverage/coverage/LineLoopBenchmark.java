@@ -0,0 +1,72 @@
+package ru.spb.coverage.coverage;
+
+import org.jacoco.core.analysis.ISourceFileCoverage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.spb.coverage.domain.GitDiff;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-diff line loop over a single source file: coverage table, source lines and report objects
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LineLoopBenchmark {
+
+    private static final String FILE_NAME = "bench/Generated.java";
+
+    @Param({"1000", "20000"})
+    private int lines;
+
+    @Param({"5", "100"})
+    private int hunkSize;
+
+    private final CoverageService coverageService = new CoverageService("master");
+    private ISourceFileCoverage sourceFileCoverage;
+    private IndexedSourceFile sourceFile;
+    private List<GitDiff> gitDiffs;
+
+    @Setup
+    public void setUp() {
+        sourceFileCoverage = BenchmarkFixtures.sourceFileCoverage(lines);
+        sourceFile = IndexedSourceFile.of(BenchmarkFixtures.sourceText(lines, 1).getBytes(StandardCharsets.UTF_8));
+
+        gitDiffs = new ArrayList<>();
+        // Every other block of hunkSize lines is changed
+        for (var begin = 0; begin + hunkSize <= lines; begin += hunkSize * 2) {
+            gitDiffs.add(GitDiff.builder()
+                    .filePath(FILE_NAME)
+                    .changedFileName("Generated.java")
+                    .beginChanges(begin)
+                    .endChanges(begin + hunkSize)
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public void evaluateFile(Blackhole blackhole) {
+        var coverageTable = LineCoverageTable.of(sourceFileCoverage);
+        for (var diff : gitDiffs) {
+            blackhole.consume(coverageService.evaluateDiff(diff, coverageTable, FILE_NAME, sourceFile,
+                    SourceUnitIndex.EMPTY));
+        }
+    }
+}
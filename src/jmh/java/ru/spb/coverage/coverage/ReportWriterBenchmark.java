@@ -0,0 +1,95 @@
+package ru.spb.coverage.coverage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.spb.coverage.domain.report.CodeLine;
+import ru.spb.coverage.domain.report.CoverageBranchStats;
+import ru.spb.coverage.domain.report.CoverageChange;
+import ru.spb.coverage.domain.report.Report;
+import ru.spb.coverage.domain.report.ReportResults;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saving of a large generated report to report.txt
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReportWriterBenchmark {
+
+    @Param({"100", "10000"})
+    private int changes;
+
+    @Param({"10", "100"})
+    private int linesPerChange;
+
+    private Path reportFile;
+    private Report report;
+
+    @Setup
+    public void setUp() throws Exception {
+        reportFile = Files.createTempFile("report-benchmark", ".txt");
+
+        var coverageChanges = new ArrayList<CoverageChange>(changes);
+        var codeBlockLines = BenchmarkFixtures.sourceText(linesPerChange, 1).lines().toList();
+        for (var i = 0; i < changes; i++) {
+            var codeBlock = new StringBuilder();
+            var uncoveredLines = new ArrayList<CodeLine>();
+            for (var line = 0; line < linesPerChange; line++) {
+                codeBlock.append(line + 1).append(": ").append(codeBlockLines.get(line)).append("\n");
+                if (line % 2 == 0) {
+                    uncoveredLines.add(CodeLine.builder()
+                            .text(codeBlockLines.get(line))
+                            .lineNumber(line)
+                            .branch(CoverageBranchStats.builder().covered(1).missed(1).build())
+                            .build());
+                }
+            }
+            coverageChanges.add(CoverageChange.builder()
+                    .fileName("bench/pkg" + i / 100 + "/File" + i + ".java")
+                    .newCodeBlock(codeBlock.toString())
+                    .uncoveredCodeLines(uncoveredLines)
+                    .partlyCoveredCodeLines(uncoveredLines)
+                    .acceptableLinesForCovering(linesPerChange)
+                    .coveredBranches(uncoveredLines.size())
+                    .missedBranches(uncoveredLines.size())
+                    .build());
+        }
+
+        var uncoveredPerChange = (linesPerChange + 1) / 2;
+        report = Report.builder()
+                .changes(coverageChanges)
+                .allLines(changes * linesPerChange)
+                .coveredLines(changes * (linesPerChange - uncoveredPerChange))
+                .allBranches(changes * uncoveredPerChange * 2)
+                .coveredBranches(changes * uncoveredPerChange)
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(reportFile);
+    }
+
+    @Benchmark
+    public ReportResults saveReportAsFile() {
+        return new ReportPrinter(reportFile).saveReportAsFile(report);
+    }
+}
@@ -0,0 +1,83 @@
+package ru.spb.coverage.coverage;
+
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ICounter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.spb.coverage.domain.GitDiff;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Attribution of changed lines of a single large file to its methods:
+ * the line range index against a scan of all methods for every hunk
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UnitAttributionBenchmark {
+
+    private static final String FILE_NAME = "bench/Generated.java";
+    private static final int LINES_PER_METHOD = 10;
+
+    @Param({"100", "2000"})
+    private int methods;
+
+    private final CoverageService coverageService = new CoverageService("master");
+    private List<IClassCoverage> classes;
+    private List<GitDiff> gitDiffs;
+
+    @Setup
+    public void setUp() {
+        classes = List.of(BenchmarkFixtures.classCoverage(methods, LINES_PER_METHOD));
+
+        gitDiffs = new ArrayList<>();
+        // A three line hunk in every other method
+        for (var begin = 4; begin < methods * LINES_PER_METHOD; begin += LINES_PER_METHOD * 2) {
+            gitDiffs.add(GitDiff.builder()
+                    .filePath(FILE_NAME)
+                    .changedFileName("Generated.java")
+                    .beginChanges(begin)
+                    .endChanges(begin + 3)
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public void index(Blackhole blackhole) {
+        blackhole.consume(coverageService.evaluateUnits(FILE_NAME, SourceUnitIndex.of(classes), gitDiffs));
+    }
+
+    @Benchmark
+    public void scan(Blackhole blackhole) {
+        for (var classCoverage : classes) {
+            for (var method : classCoverage.getMethods()) {
+                var coveredLines = 0;
+                for (var diff : gitDiffs) {
+                    var to = Math.min(method.getLastLine(), diff.getEndChanges());
+                    for (var nr = Math.max(method.getFirstLine(), diff.getBeginChanges() + 1); nr <= to; nr++) {
+                        if (method.getLine(nr).getStatus() != ICounter.NOT_COVERED) {
+                            coveredLines++;
+                        }
+                    }
+                }
+                blackhole.consume(coveredLines);
+            }
+        }
+    }
+}
@@ -1,7 +1,12 @@
 package ru.spb.coverage;
 
+import ru.spb.coverage.cli.CoverageCli;
+
+/**
+ * Standalone entry point, see {@link CoverageCli} for commands and exit codes
+ */
 public class CoveragePluginApp {
     public static void main(String[] args) {
-
+        System.exit(new CoverageCli(System.out, System.err).run(args));
     }
 }
@@ -0,0 +1,54 @@
+package ru.spb.coverage.cli;
+
+import ru.spb.coverage.domain.BatchCandidate;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Candidates of the batch command, one per line: base revision, head revision, exec files and optional
+ * class directories separated by whitespace. Paths are separated by the path separator
+ */
+final class CandidatesFile {
+
+    private static final String COMMENT_PREFIX = "#";
+
+    private CandidatesFile() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if a line is not valid
+     */
+    static List<BatchCandidate> read(Path file) throws IOException {
+        var candidates = new ArrayList<BatchCandidate>();
+        var lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+
+        for (var i = 0; i < lines.size(); i++) {
+            var line = lines.get(i).strip();
+            if (line.isEmpty() || line.startsWith(COMMENT_PREFIX)) {
+                continue;
+            }
+
+            var columns = line.split("\\s+");
+            if (columns.length < 3 || columns.length > 4) {
+                throw new IllegalArgumentException("Line " + (i + 1) + " of " + file
+                        + " is not <base> <head> <exec files> [<classes dirs>]: " + line);
+            }
+            candidates.add(BatchCandidate.builder()
+                    .baseRevision(columns[0])
+                    .headRevision(columns[1])
+                    .execFiles(CliArguments.files(columns[2]))
+                    .classesDirs(columns.length == 4 ? CliArguments.files(columns[3]) : List.of())
+                    .build());
+        }
+
+        if (candidates.isEmpty()) {
+            throw new IllegalArgumentException("No candidates in " + file);
+        }
+        return candidates;
+    }
+}
@@ -0,0 +1,208 @@
+package ru.spb.coverage.cli;
+
+import lombok.Builder;
+import lombok.Value;
+import ru.spb.coverage.coverage.CoverageGates;
+import ru.spb.coverage.coverage.ReportFormat;
+import ru.spb.coverage.domain.DiffMode;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsed options of the coverage evaluation command line
+ */
+@Value
+@Builder
+class CliArguments {
+    private static final String DEFAULT_TARGET = "master";
+    private static final String DEFAULT_REPORT_FILE = "report.txt";
+    private static final String DEFAULT_WORK_DIR = "build/new-code-coverage";
+    private static final double DEFAULT_MIN_COVERAGE = 75.0;
+    private static final String DEFAULT_REPORT_DIR = "new-code-coverage";
+    private static final int DEFAULT_HISTORY_LIMIT = 20;
+
+    @Builder.Default
+    String target = DEFAULT_TARGET;
+    File gitDir;
+    @Builder.Default
+    List<File> execFiles = List.of();
+    @Builder.Default
+    List<File> classesDirs = List.of();
+    @Builder.Default
+    List<File> sourceDirs = List.of();
+    @Builder.Default
+    List<File> baselineClassesDirs = List.of();
+    @Builder.Default
+    List<File> baselineExecFiles = List.of();
+    @Builder.Default
+    File reportFile = new File(DEFAULT_REPORT_FILE);
+    @Builder.Default
+    List<ReportFormat> reportFormats = List.of();
+    File metricsFile;
+    File affectedTestsFile;
+    @Builder.Default
+    File workDir = new File(DEFAULT_WORK_DIR);
+    @Builder.Default
+    double minCoverage = DEFAULT_MIN_COVERAGE;
+    Double minBranchCoverage;
+    Double minMethodCoverage;
+    Double minClassCoverage;
+    @Builder.Default
+    int workers = Runtime.getRuntime().availableProcessors();
+    @Builder.Default
+    int evaluationWorkers = 1;
+    boolean fullScan;
+    boolean mergeBase;
+    @Builder.Default
+    DiffMode diffMode = DiffMode.BRANCH;
+    @Builder.Default
+    boolean analysisCache = true;
+    @Builder.Default
+    boolean diffCache = true;
+    Integer daemonPort;
+    File candidatesFile;
+    @Builder.Default
+    File reportDir = new File(DEFAULT_REPORT_DIR);
+    @Builder.Default
+    int concurrency = 1;
+    boolean history;
+    File historyDir;
+    String file;
+    String commit;
+    @Builder.Default
+    int limit = DEFAULT_HISTORY_LIMIT;
+
+    /**
+     * @throws IllegalArgumentException if the arguments are not valid
+     */
+    static CliArguments parse(List<String> args) {
+        var builder = CliArguments.builder();
+        var execFiles = new ArrayList<File>();
+        var classesDirs = new ArrayList<File>();
+        var sourceDirs = new ArrayList<File>();
+        var baselineClassesDirs = new ArrayList<File>();
+        var baselineExecFiles = new ArrayList<File>();
+        var reportFormats = new ArrayList<ReportFormat>();
+
+        for (var i = 0; i < args.size(); i++) {
+            var option = args.get(i);
+            switch (option) {
+                case "--target" -> builder.target(value(args, ++i, option));
+                case "--git-dir" -> builder.gitDir(new File(value(args, ++i, option)));
+                case "--exec" -> execFiles.addAll(files(value(args, ++i, option)));
+                case "--classes" -> classesDirs.addAll(files(value(args, ++i, option)));
+                case "--sources" -> sourceDirs.addAll(files(value(args, ++i, option)));
+                case "--baseline-classes" -> baselineClassesDirs.addAll(files(value(args, ++i, option)));
+                case "--baseline-exec" -> baselineExecFiles.addAll(files(value(args, ++i, option)));
+                case "--report" -> builder.reportFile(new File(value(args, ++i, option)));
+                case "--report-formats" -> reportFormats.addAll(Arrays.stream(value(args, ++i, option).split(","))
+                        .map(ReportFormat::of)
+                        .toList());
+                case "--metrics" -> builder.metricsFile(new File(value(args, ++i, option)));
+                case "--affected-tests" -> builder.affectedTestsFile(new File(value(args, ++i, option)));
+                case "--work-dir" -> builder.workDir(new File(value(args, ++i, option)));
+                case "--min-coverage" -> builder.minCoverage(number(value(args, ++i, option), option));
+                case "--min-branch-coverage" -> builder.minBranchCoverage(number(value(args, ++i, option), option));
+                case "--min-method-coverage" -> builder.minMethodCoverage(number(value(args, ++i, option), option));
+                case "--min-class-coverage" -> builder.minClassCoverage(number(value(args, ++i, option), option));
+                case "--workers" -> builder.workers(integer(value(args, ++i, option), option));
+                case "--evaluation-workers" -> builder.evaluationWorkers(integer(value(args, ++i, option), option));
+                case "--daemon-port" -> builder.daemonPort(integer(value(args, ++i, option), option));
+                case "--candidates" -> builder.candidatesFile(new File(value(args, ++i, option)));
+                case "--report-dir" -> builder.reportDir(new File(value(args, ++i, option)));
+                case "--concurrency" -> builder.concurrency(integer(value(args, ++i, option), option));
+                case "--history" -> builder.history(true);
+                case "--history-dir" -> builder.history(true).historyDir(new File(value(args, ++i, option)));
+                case "--file" -> builder.file(value(args, ++i, option));
+                case "--commit" -> builder.commit(value(args, ++i, option));
+                case "--limit" -> builder.limit(integer(value(args, ++i, option), option));
+                case "--full-scan" -> builder.fullScan(true);
+                case "--merge-base" -> builder.mergeBase(true);
+                case "--staged" -> builder.diffMode(DiffMode.STAGED);
+                case "--working-tree" -> builder.diffMode(DiffMode.WORKING_TREE);
+                case "--no-analysis-cache" -> builder.analysisCache(false);
+                case "--no-diff-cache" -> builder.diffCache(false);
+                default -> throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+
+        return builder.execFiles(execFiles)
+                .classesDirs(classesDirs)
+                .sourceDirs(sourceDirs)
+                .baselineClassesDirs(baselineClassesDirs)
+                .baselineExecFiles(baselineExecFiles)
+                .reportFormats(reportFormats)
+                .build();
+    }
+
+    CoverageGates gates() {
+        return CoverageGates.builder()
+                .minCoverage(minCoverage)
+                .minBranchCoverage(minBranchCoverage)
+                .minMethodCoverage(minMethodCoverage)
+                .minClassCoverage(minClassCoverage)
+                .build();
+    }
+
+    /**
+     * @return reports in the requested formats next to the text report
+     */
+    Map<ReportFormat, Path> additionalReports() {
+        var additionalReports = new EnumMap<ReportFormat, Path>(ReportFormat.class);
+        for (var format : reportFormats) {
+            additionalReports.put(format, format.besideReport(reportFile.toPath()));
+        }
+        return additionalReports;
+    }
+
+    /**
+     * @throws IllegalArgumentException if class or source directories are missing
+     */
+    CliArguments requireLayout(boolean classesRequired) {
+        if (sourceDirs.isEmpty() || classesRequired && classesDirs.isEmpty()) {
+            throw new IllegalArgumentException(classesRequired
+                    ? "At least one --classes and one --sources directory is required"
+                    : "At least one --sources directory is required");
+        }
+        return this;
+    }
+
+    private static String value(List<String> args, int index, String option) {
+        if (index >= args.size()) {
+            throw new IllegalArgumentException("Missing value of " + option);
+        }
+        return args.get(index);
+    }
+
+    private static double number(String value, String option) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Value of " + option + " is not a number: " + value);
+        }
+    }
+
+    private static int integer(String value, String option) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Value of " + option + " is not an integer: " + value);
+        }
+    }
+
+    /**
+     * Option value may be a single path or several paths separated by the path separator
+     */
+    static List<File> files(String value) {
+        return Arrays.stream(value.split(File.pathSeparator))
+                .filter(path -> !path.isEmpty())
+                .map(File::new)
+                .toList();
+    }
+}
@@ -0,0 +1,287 @@
+package ru.spb.coverage.cli;
+
+import ru.spb.coverage.coverage.BatchCoverageService;
+import ru.spb.coverage.coverage.CoverageService;
+import ru.spb.coverage.coverage.GitUtils;
+import ru.spb.coverage.coverage.ReportPrinter;
+import ru.spb.coverage.coverage.ReportWriter;
+import ru.spb.coverage.coverage.SharedCoverageState;
+import ru.spb.coverage.daemon.CoverageDaemon;
+import ru.spb.coverage.daemon.CoverageDaemonClient;
+import ru.spb.coverage.domain.CoverageSettings;
+import ru.spb.coverage.domain.ModuleLayout;
+import ru.spb.coverage.domain.report.CandidateResult;
+import ru.spb.coverage.domain.report.HistoryEntry;
+import ru.spb.coverage.domain.report.ReportResults;
+import ru.spb.coverage.history.CoverageHistory;
+import ru.spb.coverage.history.CoverageHistoryRecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Command line entry of the coverage evaluation for builds without gradle.
+ * Only the classes of the requested command are loaded, JGit and JaCoCo are loaded when coverage is evaluated
+ */
+public class CoverageCli {
+
+    public static final int EXIT_OK = 0;
+    public static final int EXIT_BELOW_THRESHOLD = 1;
+    public static final int EXIT_USAGE = 2;
+    public static final int EXIT_FAILURE = 3;
+
+    private static final String MODULE_NAME = ":";
+    private static final String USAGE = """
+            Usage:
+              new-code-coverage [evaluate] --classes <dirs> --sources <dirs> [options]
+              new-code-coverage batch --candidates <file> --sources <dirs> [options]
+              new-code-coverage history [--file <name> | --commit <id>] [--limit <n>] [--history-dir <dir>]
+              new-code-coverage daemon [port]
+              new-code-coverage stop [port]
+
+            Options of evaluate, paths may be repeated or separated by the path separator:
+              --exec <files>          jacoco exec files
+              --classes <dirs>        class directories or archives
+              --sources <dirs>        source roots
+              --git-dir <dir>         git directory, found from the working directory by default
+              --target <ref>          target branch or any revision, master by default
+              --report <file>         report file, report.txt by default
+              --report-formats <list> comma separated formats written next to the report: json, binary
+              --metrics <file>        metrics json file
+              --affected-tests <file> tests covering changed lines, exec files need a session per test
+              --work-dir <dir>        directory of analysis and diff caches, build/new-code-coverage by default
+              --min-coverage <pct>    minimum new code coverage, 75 by default
+              --min-branch-coverage <pct> minimum branch coverage of new code, not checked by default
+              --min-method-coverage <pct> minimum coverage of changed lines of every method, not checked by default
+              --min-class-coverage <pct>  minimum coverage of changed lines of every class, not checked by default
+              --workers <n>           analysis workers, available processors by default
+              --evaluation-workers <n> changed files evaluated at once, 1 by default
+              --full-scan             analyze all classes instead of changed ones
+              --merge-base            diff against the merge base with the target
+              --staged                compare staged changes instead of the checked out commit
+              --working-tree          compare working tree changes, staged or not, instead of the checked out commit
+              --no-analysis-cache     do not cache analysis results
+              --no-diff-cache         do not cache git diffs
+              --daemon-port <port>    evaluate in the running coverage daemon
+              --history               append coverage of the run to the coverage history
+              --history-dir <dir>     coverage history directory, .git/new-code-coverage by default
+              --baseline-classes <dirs> class directories built from the target branch, also reports unchanged lines
+                                      which lost coverage since the target branch
+              --baseline-exec <files> jacoco exec files collected on the target branch with the baseline classes
+
+            Options of batch, besides the options of evaluate:
+              --candidates <file>     one candidate per line: <base> <head> <exec files> [<classes dirs>],
+                                      sources of the head are read from git, lines starting with # are skipped
+              --report-dir <dir>      directory of candidate reports and summary.txt, new-code-coverage by default
+              --concurrency <n>       candidates evaluated at the same time, 1 by default
+              --report-formats and --history apply to the report of every candidate
+
+            Options of history, the latest runs are printed first:
+              --file <name>           coverage trend of the file as named in the report
+              --commit <id>           coverage of every file of the commit
+              --limit <n>             number of runs, 20 by default
+
+            The daemon writes its access token to ~/.new-code-coverage/daemon-<port>.token readable by its owner only,
+            so only the same user can send requests to it
+
+            Exit codes: 0 coverage is enough, 1 coverage is below any minimum, 2 wrong arguments, 3 evaluation failed,
+            a batch fails if any candidate fails and is below minimum if any candidate is below minimum
+            """;
+
+    private final PrintStream out;
+    private final PrintStream err;
+
+    public CoverageCli(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * @return exit code of the command
+     */
+    public int run(String... args) {
+        var command = args.length > 0 && !args[0].startsWith("--") ? args[0] : "evaluate";
+        var commandArgs = args.length > 0 && !args[0].startsWith("--")
+                ? Arrays.asList(args).subList(1, args.length)
+                : Arrays.asList(args);
+
+        try {
+            return switch (command) {
+                case "evaluate" -> evaluate(CliArguments.parse(commandArgs).requireLayout(true));
+                case "batch" -> batch(CliArguments.parse(commandArgs).requireLayout(false));
+                case "history" -> history(CliArguments.parse(commandArgs));
+                case "daemon" -> startDaemon(port(commandArgs));
+                case "stop" -> stopDaemon(port(commandArgs));
+                case "help" -> {
+                    out.print(USAGE);
+                    yield EXIT_OK;
+                }
+                default -> throw new IllegalArgumentException("Unknown command " + command);
+            };
+        } catch (IllegalArgumentException ex) {
+            err.println(ex.getMessage());
+            err.print(USAGE);
+            return EXIT_USAGE;
+        } catch (IOException | RuntimeException ex) {
+            err.println("New code coverage failed: " + ex.getMessage());
+            return EXIT_FAILURE;
+        }
+    }
+
+    private int evaluate(CliArguments arguments) throws IOException {
+        var settings = settings(arguments);
+
+        var results = arguments.getDaemonPort() != null
+                ? new CoverageDaemonClient(arguments.getDaemonPort()).evaluate(settings,
+                        arguments.getReportFile().toPath(),
+                        arguments.additionalReports(),
+                        arguments.getMetricsFile() == null ? null : arguments.getMetricsFile().toPath(),
+                        arguments.isHistory() ? historyDir(arguments) : null)
+                : evaluateLocally(settings, arguments);
+
+        out.printf(Locale.ROOT, "New code coverage: %.2f %%, branch coverage: %.2f %%, report: %s%n",
+                results.newCodeCoverage(), results.newBranchCoverage(), arguments.getReportFile());
+        var violations = arguments.gates().violations(results);
+        violations.forEach(err::println);
+        return violations.isEmpty() ? EXIT_OK : EXIT_BELOW_THRESHOLD;
+    }
+
+    private int batch(CliArguments arguments) throws IOException {
+        if (arguments.getCandidatesFile() == null) {
+            throw new IllegalArgumentException("--candidates file is required");
+        }
+        var candidates = CandidatesFile.read(arguments.getCandidatesFile().toPath());
+
+        var history = arguments.isHistory() ? new CoverageHistory(historyDir(arguments)) : null;
+        List<CandidateResult> results;
+        try (var sharedState = new SharedCoverageState()) {
+            results = new BatchCoverageService(settings(arguments), sharedState, arguments.getConcurrency(),
+                    arguments.getReportFormats(),
+                    candidateSettings -> history == null
+                            ? List.of()
+                            : List.of(CoverageHistoryRecorder.of(candidateSettings, history)))
+                    .evaluate(candidates, arguments.getReportDir().toPath());
+        }
+
+        var gates = arguments.gates();
+        var exitCode = EXIT_OK;
+        for (var result : results) {
+            var candidate = result.candidate();
+            if (result.isFailed()) {
+                err.printf(Locale.ROOT, "%s..%s failed: %s%n",
+                        candidate.getBaseRevision(), candidate.getHeadRevision(), result.error());
+                exitCode = EXIT_FAILURE;
+                continue;
+            }
+
+            var coverage = result.results().newCodeCoverage();
+            out.printf(Locale.ROOT, "%s..%s new code coverage: %.2f %%, branch coverage: %.2f %%, report: %s%n",
+                    candidate.getBaseRevision(), candidate.getHeadRevision(),
+                    coverage, result.results().newBranchCoverage(), result.reportFile());
+            if (!gates.violations(result.results()).isEmpty() && exitCode == EXIT_OK) {
+                exitCode = EXIT_BELOW_THRESHOLD;
+            }
+        }
+        return exitCode;
+    }
+
+    private int history(CliArguments arguments) {
+        var history = new CoverageHistory(historyDir(arguments));
+        List<HistoryEntry> entries;
+        if (arguments.getCommit() != null) {
+            entries = history.commitFiles(GitUtils.getCommitId(gitDir(arguments).getPath(), arguments.getCommit()));
+        } else if (arguments.getFile() != null) {
+            entries = history.fileTrend(arguments.getFile(), arguments.getLimit());
+        } else {
+            entries = history.trend(arguments.getLimit());
+        }
+
+        for (var entry : entries) {
+            out.printf(Locale.ROOT, "%.10s %s lines %d of %d (%.2f %%), branches %d of %d (%.2f %%)%s%n",
+                    entry.getCommitId(),
+                    Instant.ofEpochMilli(entry.getTimestamp()).truncatedTo(ChronoUnit.SECONDS),
+                    entry.getCoveredLines(), entry.getAllLines(), entry.lineCoverage(),
+                    entry.getCoveredBranches(), entry.getAllBranches(), entry.branchCoverage(),
+                    entry.getFileName() == null ? "" : " " + entry.getFileName());
+        }
+        return EXIT_OK;
+    }
+
+    private static Path historyDir(CliArguments arguments) {
+        return arguments.getHistoryDir() != null
+                ? arguments.getHistoryDir().toPath()
+                : CoverageHistory.defaultDir(gitDir(arguments));
+    }
+
+    private static File gitDir(CliArguments arguments) {
+        return arguments.getGitDir() != null ? arguments.getGitDir() : GitUtils.findGitDir(new File("").getAbsoluteFile());
+    }
+
+    private static CoverageSettings settings(CliArguments arguments) {
+        return CoverageSettings.builder()
+                .targetBranch(arguments.getTarget())
+                .modules(List.of(ModuleLayout.builder()
+                        .name(MODULE_NAME)
+                        .classesDirs(arguments.getClassesDirs())
+                        .sourceDirs(arguments.getSourceDirs())
+                        .execFiles(arguments.getExecFiles())
+                        .build()))
+                .gitDir(gitDir(arguments))
+                .workDir(arguments.getWorkDir())
+                .analysisWorkers(arguments.getWorkers())
+                .evaluationWorkers(arguments.getEvaluationWorkers())
+                .fullScan(arguments.isFullScan())
+                .analysisCache(arguments.isAnalysisCache())
+                .diffAgainstMergeBase(arguments.isMergeBase())
+                .diffMode(arguments.getDiffMode())
+                .diffCache(arguments.isDiffCache())
+                .affectedTestsFile(arguments.getAffectedTestsFile())
+                .baselineClassesDirs(arguments.getBaselineClassesDirs())
+                .baselineExecFiles(arguments.getBaselineExecFiles())
+                .build();
+    }
+
+    private ReportResults evaluateLocally(CoverageSettings settings, CliArguments arguments) {
+        var coverageService = new CoverageService(settings);
+        var historyWriters = arguments.isHistory()
+                ? List.<ReportWriter>of(CoverageHistoryRecorder.of(settings, historyDir(arguments)))
+                : List.<ReportWriter>of();
+        var results = new ReportPrinter(arguments.getReportFile().toPath(), arguments.additionalReports(),
+                historyWriters).saveReportAsFile(coverageService);
+        if (arguments.getMetricsFile() != null) {
+            coverageService.getMetrics().writeJson(arguments.getMetricsFile().toPath());
+        }
+        return results;
+    }
+
+    private int startDaemon(int port) throws IOException {
+        try (var daemon = new CoverageDaemon(port)) {
+            out.println("Coverage daemon is listening on port " + daemon.getPort());
+            daemon.serve();
+        }
+        return EXIT_OK;
+    }
+
+    private int stopDaemon(int port) throws IOException {
+        new CoverageDaemonClient(port).shutdown();
+        return EXIT_OK;
+    }
+
+    private static int port(List<String> args) {
+        if (args.isEmpty()) {
+            return CoverageDaemon.DEFAULT_PORT;
+        }
+        try {
+            return Integer.parseInt(args.get(0));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Port is not a number: " + args.get(0));
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package ru.spb.coverage.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jacoco.core.JaCoCo;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.IMethodCoverage;
+import org.jacoco.core.analysis.ISourceNode;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.internal.analysis.ClassCoverageImpl;
+import org.jacoco.core.internal.analysis.CounterImpl;
+import org.jacoco.core.internal.analysis.MethodCoverageImpl;
+import org.jacoco.core.internal.data.CRC64;
+import org.objectweb.asm.ClassReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk cache of analyzed classes.
+ * Entry key is a hash of the class bytes together with the probes of the class from the exec data,
+ * entry value keeps line, instruction, branch and complexity counters of every method of the class.
+ * Restored classes are visited by CoverageBuilder exactly like freshly analyzed ones.
+ * Recently used entries may be kept in memory as well, when the cache lives longer than one evaluation.
+ * <p>
+ * Restoring depends on the internal API of jacoco: {@link ClassCoverageImpl}, {@link MethodCoverageImpl}
+ * with the protected complexity counter of its base class and {@link CounterImpl} have no compatibility
+ * guarantees, so the jacoco version is a part of every key and AnalysisCacheTest compares restored classes
+ * with freshly analyzed ones when jacoco is updated.
+ * <p>
+ * Entries not used for {@link #MAX_ENTRY_AGE} are evicted, then the least recently used ones
+ * while the cache is larger than {@link #MAX_CACHE_BYTES}. Reading an entry refreshes its modification time
+ */
+@Slf4j
+public class AnalysisCache {
+
+    private static final int FORMAT_VERSION = 2;
+    private static final String ENTRY_EXTENSION = ".bin";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private static final byte NO_EXECUTION_DATA = 0;
+    private static final byte NO_MATCH_EXECUTION_DATA = 1;
+    private static final byte EXECUTION_DATA = 2;
+    static final Duration MAX_ENTRY_AGE = Duration.ofDays(14);
+    static final long MAX_CACHE_BYTES = 512L << 20;
+    private static final Duration EVICTION_INTERVAL = Duration.ofHours(1);
+    private static final String EVICTION_MARKER = "last-eviction";
+
+    private final Path cacheDir;
+    private final Map<String, IClassCoverage> memoryEntries;
+    private final Duration maxEntryAge;
+    private final long maxCacheBytes;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public AnalysisCache(File cacheDir) {
+        this(cacheDir, 0);
+    }
+
+    /**
+     * @param maxMemoryEntries max count of recently used entries kept in memory, 0 to read every entry from disk
+     */
+    public AnalysisCache(File cacheDir, int maxMemoryEntries) {
+        this(cacheDir, maxMemoryEntries, MAX_ENTRY_AGE, MAX_CACHE_BYTES);
+    }
+
+    AnalysisCache(File cacheDir, int maxMemoryEntries, Duration maxEntryAge, long maxCacheBytes) {
+        this.cacheDir = cacheDir.toPath();
+        this.memoryEntries = maxMemoryEntries > 0 ? newMemoryEntries(maxMemoryEntries) : null;
+        this.maxEntryAge = maxEntryAge;
+        this.maxCacheBytes = maxCacheBytes;
+    }
+
+    /**
+     * @return key of the class analysis result for the given class bytes and execution data
+     */
+    public String key(byte[] classBytes, ExecutionDataStore executionDataStore) {
+        var digest = newDigest();
+        digest.update(JaCoCo.VERSION.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) FORMAT_VERSION);
+        digest.update(classBytes);
+
+        var executionData = executionDataStore.get(CRC64.classId(classBytes));
+        if (executionData != null) {
+            digest.update(EXECUTION_DATA);
+            for (var probe : executionData.getProbes()) {
+                digest.update((byte) (probe ? 1 : 0));
+            }
+        } else if (executionDataStore.contains(new ClassReader(classBytes).getClassName())) {
+            digest.update(NO_MATCH_EXECUTION_DATA);
+        } else {
+            digest.update(NO_EXECUTION_DATA);
+        }
+
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public Optional<IClassCoverage> find(String key) {
+        if (memoryEntries != null) {
+            var classCoverage = memoryEntries.get(key);
+            if (classCoverage != null) {
+                hits.incrementAndGet();
+                return Optional.of(classCoverage);
+            }
+        }
+
+        var entry = entryPath(key);
+        if (!Files.isRegularFile(entry)) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            var classCoverage = readClass(in);
+            storeInMemory(key, classCoverage);
+            hits.incrementAndGet();
+            touch(entry);
+            return Optional.of(classCoverage);
+        } catch (IOException | RuntimeException ex) {
+            log.debug("Could not read analysis cache entry {}, class would be analyzed again", entry);
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+    }
+
+    public void store(String key, IClassCoverage classCoverage) {
+        storeInMemory(key, classCoverage);
+
+        var entry = entryPath(key);
+        try {
+            Files.createDirectories(entry.getParent());
+            var tempFile = Files.createTempFile(entry.getParent(), key, TEMP_EXTENSION);
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                writeClass(out, classCoverage);
+            }
+            Files.move(tempFile, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            log.warn("Could not save analysis cache entry for class {}", classCoverage.getName());
+        }
+    }
+
+    /**
+     * Evicts entries at most once per {@link #EVICTION_INTERVAL} for all processes sharing the cache directory
+     *
+     * @return count of evicted entries
+     */
+    public int evictIfDue() {
+        var marker = cacheDir.resolve(EVICTION_MARKER);
+        try {
+            if (Files.isRegularFile(marker) && Files.getLastModifiedTime(marker).toInstant()
+                    .isAfter(Instant.now().minus(EVICTION_INTERVAL))) {
+                return 0;
+            }
+            if (!Files.isDirectory(cacheDir)) {
+                return 0;
+            }
+            Files.write(marker, new byte[0]);
+        } catch (IOException ex) {
+            log.warn("Could not check the last eviction of analysis cache {}", cacheDir);
+            return 0;
+        }
+        return evict();
+    }
+
+    /**
+     * Deletes entries older than the max entry age, then the oldest entries until the cache fits the max size
+     *
+     * @return count of evicted entries
+     */
+    int evict() {
+        var entries = new ArrayList<CacheEntry>();
+        try (var files = Files.walk(cacheDir, 2)) {
+            for (var file : (Iterable<Path>) files::iterator) {
+                var name = file.getFileName().toString();
+                if (name.endsWith(ENTRY_EXTENSION) || name.endsWith(TEMP_EXTENSION)) {
+                    var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    entries.add(new CacheEntry(file, attributes.lastModifiedTime().toInstant(), attributes.size()));
+                }
+            }
+        } catch (IOException | UncheckedIOException ex) {
+            log.warn("Could not list analysis cache {}, nothing is evicted", cacheDir);
+            return 0;
+        }
+
+        entries.sort(Comparator.comparing(CacheEntry::lastModified));
+        var size = entries.stream().mapToLong(CacheEntry::size).sum();
+        var oldest = Instant.now().minus(maxEntryAge);
+        var evicted = 0;
+        for (var entry : entries) {
+            if (entry.lastModified().isAfter(oldest) && size <= maxCacheBytes) {
+                break;
+            }
+            try {
+                Files.deleteIfExists(entry.file());
+                size -= entry.size();
+                evicted++;
+            } catch (IOException ex) {
+                log.debug("Could not evict analysis cache entry {}", entry.file());
+            }
+        }
+        if (evicted > 0) {
+            log.info("Evicted {} analysis cache entries, {} bytes are left", evicted, size);
+        }
+        return evicted;
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    private void storeInMemory(String key, IClassCoverage classCoverage) {
+        if (memoryEntries != null) {
+            memoryEntries.put(key, classCoverage);
+        }
+    }
+
+    private static Map<String, IClassCoverage> newMemoryEntries(int maxEntries) {
+        return Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, IClassCoverage> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    /**
+     * Reading refreshes the modification time, so eviction keeps entries in use
+     */
+    private static void touch(Path entry) {
+        try {
+            Files.setLastModifiedTime(entry, FileTime.from(Instant.now()));
+        } catch (IOException ex) {
+            log.debug("Could not refresh analysis cache entry {}", entry);
+        }
+    }
+
+    private Path entryPath(String key) {
+        return cacheDir.resolve(key.substring(0, 2)).resolve(key + ENTRY_EXTENSION);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    private static void writeClass(DataOutputStream out, IClassCoverage classCoverage) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(classCoverage.getName());
+        out.writeLong(classCoverage.getId());
+        out.writeBoolean(classCoverage.isNoMatch());
+        writeNullableString(out, classCoverage.getSourceFileName());
+        writeNullableString(out, classCoverage.getSignature());
+        writeNullableString(out, classCoverage.getSuperName());
+
+        var interfaces = classCoverage.getInterfaceNames();
+        out.writeInt(interfaces == null ? 0 : interfaces.length);
+        if (interfaces != null) {
+            for (var interfaceName : interfaces) {
+                out.writeUTF(interfaceName);
+            }
+        }
+
+        out.writeInt(classCoverage.getMethods().size());
+        for (var method : classCoverage.getMethods()) {
+            writeMethod(out, method);
+        }
+    }
+
+    private static void writeMethod(DataOutputStream out, IMethodCoverage method) throws IOException {
+        out.writeUTF(method.getName());
+        out.writeUTF(method.getDesc());
+        writeNullableString(out, method.getSignature());
+        writeCounter(out, method.getInstructionCounter());
+        writeCounter(out, method.getBranchCounter());
+        writeCounter(out, method.getComplexityCounter());
+        out.writeInt(method.getFirstLine());
+        out.writeInt(method.getLastLine());
+
+        if (method.getFirstLine() == ISourceNode.UNKNOWN_LINE) {
+            return;
+        }
+        for (var nr = method.getFirstLine(); nr <= method.getLastLine(); nr++) {
+            var line = method.getLine(nr);
+            writeCounter(out, line.getInstructionCounter());
+            writeCounter(out, line.getBranchCounter());
+        }
+    }
+
+    private static IClassCoverage readClass(DataInputStream in) throws IOException {
+        if (in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unsupported analysis cache entry format");
+        }
+
+        var classCoverage = new ClassCoverageImpl(in.readUTF(), in.readLong(), in.readBoolean());
+        classCoverage.setSourceFileName(readNullableString(in));
+        classCoverage.setSignature(readNullableString(in));
+        classCoverage.setSuperName(readNullableString(in));
+
+        var interfaces = new String[in.readInt()];
+        for (var i = 0; i < interfaces.length; i++) {
+            interfaces[i] = in.readUTF();
+        }
+        classCoverage.setInterfaces(interfaces);
+
+        var methodsCount = in.readInt();
+        for (var i = 0; i < methodsCount; i++) {
+            classCoverage.addMethod(readMethod(in));
+        }
+
+        return classCoverage;
+    }
+
+    private static IMethodCoverage readMethod(DataInputStream in) throws IOException {
+        var method = new RestoredMethodCoverage(in.readUTF(), in.readUTF(), readNullableString(in));
+        var instructions = readCounter(in);
+        var branches = readCounter(in);
+        var complexity = readCounter(in);
+        var firstLine = in.readInt();
+        var lastLine = in.readInt();
+
+        var lineInstructionsMissed = 0;
+        var lineInstructionsCovered = 0;
+        var lineBranchesMissed = 0;
+        var lineBranchesCovered = 0;
+
+        if (firstLine != ISourceNode.UNKNOWN_LINE) {
+            for (var nr = firstLine; nr <= lastLine; nr++) {
+                var lineInstructions = readCounter(in);
+                var lineBranches = readCounter(in);
+                if (lineInstructions.getTotalCount() == 0 && lineBranches.getTotalCount() == 0) {
+                    continue;
+                }
+                method.increment(lineInstructions, lineBranches, nr);
+                lineInstructionsMissed += lineInstructions.getMissedCount();
+                lineInstructionsCovered += lineInstructions.getCoveredCount();
+                lineBranchesMissed += lineBranches.getMissedCount();
+                lineBranchesCovered += lineBranches.getCoveredCount();
+            }
+        }
+
+        // Instructions without debug information are not assigned to any line
+        var unknownLineInstructions = CounterImpl.getInstance(
+                instructions.getMissedCount() - lineInstructionsMissed,
+                instructions.getCoveredCount() - lineInstructionsCovered);
+        var unknownLineBranches = CounterImpl.getInstance(
+                branches.getMissedCount() - lineBranchesMissed,
+                branches.getCoveredCount() - lineBranchesCovered);
+        if (unknownLineInstructions.getTotalCount() != 0 || unknownLineBranches.getTotalCount() != 0) {
+            method.increment(unknownLineInstructions, unknownLineBranches, ISourceNode.UNKNOWN_LINE);
+        }
+
+        method.incrementMethodCounter();
+        method.restoreComplexity(complexity);
+        return method;
+    }
+
+    private static void writeCounter(DataOutputStream out, ICounter counter) throws IOException {
+        out.writeInt(counter.getMissedCount());
+        out.writeInt(counter.getCoveredCount());
+    }
+
+    private static ICounter readCounter(DataInputStream in) throws IOException {
+        return CounterImpl.getInstance(in.readInt(), in.readInt());
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Complexity is counted by analysis for every instruction with branches, it could not be computed again
+     * from branches summed up by line when a line has several such instructions
+     */
+    private static class RestoredMethodCoverage extends MethodCoverageImpl {
+
+        RestoredMethodCoverage(String name, String desc, String signature) {
+            super(name, desc, signature);
+        }
+
+        void restoreComplexity(ICounter complexity) {
+            complexityCounter = CounterImpl.getInstance(complexity);
+        }
+    }
+
+    private record CacheEntry(Path file, Instant lastModified, long size) {
+    }
+}
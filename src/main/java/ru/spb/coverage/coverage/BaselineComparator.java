@@ -0,0 +1,228 @@
+package ru.spb.coverage.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jacoco.core.analysis.Analyzer;
+import org.jacoco.core.analysis.CoverageBuilder;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.ISourceFileCoverage;
+import org.jacoco.core.analysis.ISourceNode;
+import org.jacoco.core.data.ExecutionDataStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Compares line coverage of the current classes with coverage of the classes built from the target branch.
+ * Both versions are analyzed package by package and dropped after the package is compared, so the whole code base
+ * is compared in one pass without keeping a full analysis of either version in memory.
+ * Lines of the current version are mapped to the target branch with the edit lists of the changed files,
+ * changed lines are new code and are never compared
+ */
+@Slf4j
+public class BaselineComparator {
+
+    private static final String CLASS_EXTENSION = ".class";
+
+    private final ExecutionDataStore currentExecData;
+    private final ExecutionDataStore baselineExecData;
+    private final List<File> baselineClassesDirs;
+    private final AtomicInteger analyzedClasses = new AtomicInteger();
+    private final AtomicInteger skippedPackages = new AtomicInteger();
+
+    public BaselineComparator(ExecutionDataStore currentExecData,
+                              ExecutionDataStore baselineExecData,
+                              List<File> baselineClassesDirs) {
+        this.currentExecData = currentExecData;
+        this.baselineExecData = baselineExecData;
+        this.baselineClassesDirs = baselineClassesDirs.stream().filter(directoriesOnly()).toList();
+    }
+
+    /**
+     * Archives are not walked, only class directories are compared
+     *
+     * @return directories of packages having class files relative to the class directories, e.g. com/example,
+     * in the order of names. The default package is an empty string
+     */
+    public static List<String> packageDirs(List<File> classesDirs) {
+        var packageDirs = new TreeSet<String>();
+        classesDirs.stream()
+                .filter(directoriesOnly())
+                .forEach(classesDir -> collectPackageDirs(classesDir, "", packageDirs));
+        return List.copyOf(packageDirs);
+    }
+
+    /**
+     * Analyzes classes of the package in both versions and compares every source file compiled in both of them.
+     * The current classes are not analyzed at all if nothing of the package was covered on the target branch
+     *
+     * @param classesDirs class directories of the current version
+     * @param packageDir  package directory relative to the class directories
+     * @param mappings    line mapping of a source by its path relative to the source directory,
+     *                    e.g. com/example/Foo.java, null if the source should not be compared
+     * @return sources of the package having lines which lost coverage, in the order of names
+     */
+    public List<SourceRegression> compare(List<File> classesDirs,
+                                          String packageDir,
+                                          Function<String, LineMapping> mappings) {
+        var baselineSources = analyze(baselineClassesDirs, packageDir, baselineExecData).getSourceFiles()
+                .stream()
+                .filter(source -> source.getLineCounter().getCoveredCount() > 0)
+                .collect(Collectors.toMap(ISourceFileCoverage::getName, Function.identity()));
+        if (baselineSources.isEmpty()) {
+            skippedPackages.incrementAndGet();
+            return List.of();
+        }
+
+        var current = analyze(classesDirs, packageDir, currentExecData);
+        var regressions = new ArrayList<SourceRegression>();
+        var sources = current.getSourceFiles()
+                .stream()
+                .sorted(Comparator.comparing(ISourceFileCoverage::getName))
+                .toList();
+        for (var source : sources) {
+            var baselineSource = baselineSources.get(source.getName());
+            var sourcePath = CoverageService.sourcePath(source.getPackageName(), source.getName());
+            var mapping = baselineSource == null ? null : mappings.apply(sourcePath);
+            if (mapping == null) {
+                continue;
+            }
+
+            var uncoveredLines = new LineSet();
+            var lostBranchLines = new LineSet();
+            compareLines(source, baselineSource, mapping, uncoveredLines, lostBranchLines);
+            if (!uncoveredLines.isEmpty() || !lostBranchLines.isEmpty()) {
+                var classes = current.getClasses()
+                        .stream()
+                        .filter(classCoverage -> source.getName().equals(classCoverage.getSourceFileName()))
+                        .toList();
+                regressions.add(new SourceRegression(sourcePath, source, classes, uncoveredLines, lostBranchLines));
+            }
+        }
+        return regressions;
+    }
+
+    /**
+     * @return classes of both versions analyzed so far
+     */
+    public int getAnalyzedClasses() {
+        return analyzedClasses.get();
+    }
+
+    /**
+     * @return packages without covered lines on the target branch, their current classes were not analyzed
+     */
+    public int getSkippedPackages() {
+        return skippedPackages.get();
+    }
+
+    /**
+     * A line lost coverage if it was covered and is not covered now, or if less of its branches are covered now.
+     * Both versions of an unchanged line have the same code, so their branches are the same
+     */
+    private static void compareLines(ISourceFileCoverage current,
+                                     ISourceFileCoverage baseline,
+                                     LineMapping mapping,
+                                     LineSet uncoveredLines,
+                                     LineSet lostBranchLines) {
+        if (current.getFirstLine() == ISourceNode.UNKNOWN_LINE) {
+            return;
+        }
+
+        for (var nr = current.getFirstLine(); nr <= current.getLastLine(); nr++) {
+            var line = current.getLine(nr);
+            var status = line.getStatus();
+            if (status != ICounter.NOT_COVERED && status != ICounter.PARTLY_COVERED) {
+                continue;
+            }
+            var baseLine = mapping.baseLine(nr - 1);
+            if (baseLine < 0) {
+                continue;
+            }
+
+            var baselineLine = baseline.getLine(baseLine + 1);
+            var baselineStatus = baselineLine.getStatus();
+            if (status == ICounter.NOT_COVERED
+                    && (baselineStatus == ICounter.FULLY_COVERED || baselineStatus == ICounter.PARTLY_COVERED)) {
+                uncoveredLines.add(nr - 1, nr);
+            } else if (baselineLine.getBranchCounter().getCoveredCount() > line.getBranchCounter().getCoveredCount()) {
+                lostBranchLines.add(nr - 1, nr);
+            }
+        }
+    }
+
+    private CoverageBuilder analyze(List<File> classesDirs, String packageDir, ExecutionDataStore execData) {
+        var coverageBuilder = new CoverageBuilder();
+        var analyzer = new Analyzer(execData, coverageBuilder);
+        for (var classesDir : classesDirs) {
+            var classFiles = new File(classesDir, packageDir).listFiles(
+                    file -> file.isFile() && file.getName().endsWith(CLASS_EXTENSION));
+            if (classFiles == null) {
+                continue;
+            }
+            Arrays.sort(classFiles);
+
+            for (var classFile : classFiles) {
+                try {
+                    analyzer.analyzeAll(classFile);
+                } catch (IOException ex) {
+                    log.error("Could not analyze class file {}", classFile);
+                    throw new CoverageTaskException(ex);
+                }
+                analyzedClasses.incrementAndGet();
+            }
+        }
+        return coverageBuilder;
+    }
+
+    private static void collectPackageDirs(File dir, String packageDir, Set<String> packageDirs) {
+        var children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+
+        for (var child : children) {
+            if (child.isDirectory()) {
+                collectPackageDirs(child, packageDir.isEmpty() ? child.getName() : packageDir + "/" + child.getName(),
+                        packageDirs);
+            } else if (child.getName().endsWith(CLASS_EXTENSION)) {
+                packageDirs.add(packageDir);
+            }
+        }
+    }
+
+    private static Predicate<File> directoriesOnly() {
+        return file -> {
+            if (file.isDirectory()) {
+                return true;
+            }
+            log.warn("{} is not a class directory and is not compared with the baseline", file);
+            return false;
+        };
+    }
+
+    /**
+     * Current coverage of a source file having lines which lost coverage since the target branch
+     *
+     * @param sourcePath      path of the source relative to the source directory, e.g. com/example/Foo.java
+     * @param classes         current classes compiled from the source
+     * @param uncoveredLines  zero based lines which were covered on the target branch and are not covered now
+     * @param lostBranchLines zero based lines having less covered branches than on the target branch
+     */
+    public record SourceRegression(String sourcePath,
+                                   ISourceFileCoverage coverage,
+                                   List<IClassCoverage> classes,
+                                   LineSet uncoveredLines,
+                                   LineSet lostBranchLines) {
+    }
+}
@@ -0,0 +1,275 @@
+package ru.spb.coverage.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.spb.coverage.domain.BatchCandidate;
+import ru.spb.coverage.domain.CoverageSettings;
+import ru.spb.coverage.domain.DiffMode;
+import ru.spb.coverage.domain.ModuleLayout;
+import ru.spb.coverage.domain.report.CandidateResult;
+import ru.spb.coverage.domain.report.ChangedLineTests;
+import ru.spb.coverage.domain.report.CoverageChange;
+import ru.spb.coverage.domain.report.CoverageRegression;
+import ru.spb.coverage.domain.report.ReportTotals;
+import ru.spb.coverage.domain.report.UnitCoverage;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Evaluates many pull requests or commits in one process.
+ * All candidates share one opened git repository and one analysis cache, so pack indexes are read once
+ * and classes unchanged between candidates are analyzed once
+ */
+@Slf4j
+public class BatchCoverageService {
+
+    private static final String SUMMARY_FILE_NAME = "summary.txt";
+    private static final String AFFECTED_TESTS_SUFFIX = "-affected-tests.txt";
+    private static final String MODULE_NAME = ":";
+
+    private final CoverageSettings settings;
+    private final SharedCoverageState sharedState;
+    private final int concurrency;
+    private final List<ReportFormat> reportFormats;
+    private final Function<CoverageSettings, List<ReportWriter>> candidateWriters;
+
+    /**
+     * @param settings    settings shared by all candidates, modules give source directories and default classes
+     * @param sharedState repository and analysis caches shared by all candidates
+     * @param concurrency candidates evaluated at the same time, analysis workers are split between them
+     */
+    public BatchCoverageService(CoverageSettings settings, SharedCoverageState sharedState, int concurrency) {
+        this(settings, sharedState, concurrency, List.of(), candidateSettings -> List.of());
+    }
+
+    /**
+     * @param reportFormats    formats written beside the text report of every candidate
+     * @param candidateWriters writers receiving the same changes as the report of a candidate,
+     *                         e.g. the coverage history, created from the settings of the candidate
+     */
+    public BatchCoverageService(CoverageSettings settings,
+                                SharedCoverageState sharedState,
+                                int concurrency,
+                                List<ReportFormat> reportFormats,
+                                Function<CoverageSettings, List<ReportWriter>> candidateWriters) {
+        this.settings = settings;
+        this.sharedState = sharedState;
+        this.concurrency = Math.max(1, concurrency);
+        this.reportFormats = reportFormats;
+        this.candidateWriters = candidateWriters;
+    }
+
+    /**
+     * Writes a report per candidate and the summary of all candidates into the report directory
+     *
+     * @return results in the order of candidates, failed candidates do not stop the batch
+     */
+    public List<CandidateResult> evaluate(List<BatchCandidate> candidates, Path reportDir) {
+        log.info("Evaluating {} candidates, {} at a time", candidates.size(), concurrency);
+
+        var executor = Executors.newFixedThreadPool(Math.min(concurrency, Math.max(1, candidates.size())));
+        try {
+            var futures = new ArrayList<Future<CandidateResult>>();
+            for (var i = 0; i < candidates.size(); i++) {
+                var candidate = candidates.get(i);
+                var reportFile = reportDir.resolve(reportFileName(i, candidate));
+                futures.add(executor.submit(() -> evaluate(candidate, reportFile)));
+            }
+
+            var results = new ArrayList<CandidateResult>(futures.size());
+            for (var future : futures) {
+                results.add(future.get());
+            }
+            writeSummary(reportDir.resolve(SUMMARY_FILE_NAME), results);
+            return results;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CoverageTaskException(ex);
+        } catch (ExecutionException ex) {
+            throw new CoverageTaskException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private CandidateResult evaluate(BatchCandidate candidate, Path reportFile) {
+        var name = candidateName(candidate);
+        log.info("Evaluating candidate {}", name);
+
+        try {
+            var candidateSettings = candidateSettings(candidate, reportFile);
+            var additionalWriters = candidateWriters.apply(candidateSettings);
+            var textReportWriter = new TextReportWriter(reportFile);
+            try (var reportWriter = CompositeReportWriter.open(textReportWriter, additionalReports(reportFile),
+                    additionalWriters)) {
+                var totalsSink = new TotalsSink(reportWriter);
+                new CoverageService(candidateSettings, sharedState).evaluate(totalsSink);
+                return new CandidateResult(candidate, reportFile, textReportWriter.getResults(), totalsSink.totals, null);
+            }
+        } catch (RuntimeException ex) {
+            log.error("Could not evaluate candidate {}", name, ex);
+            return new CandidateResult(candidate, reportFile, null, null, String.valueOf(ex.getMessage()));
+        }
+    }
+
+    /**
+     * Affected tests, if requested, are written per candidate beside its report
+     */
+    private CoverageSettings candidateSettings(BatchCandidate candidate, Path reportFile) {
+        var modules = candidate.getClassesDirs().isEmpty()
+                ? settings.getModules().stream().map(BatchCoverageService::withoutExecFiles).toList()
+                : List.of(ModuleLayout.builder()
+                        .name(MODULE_NAME)
+                        .classesDirs(candidate.getClassesDirs())
+                        .sourceDirs(settings.getModules().stream()
+                                .flatMap(module -> module.getSourceDirs().stream())
+                                .toList())
+                        .build());
+
+        return settings.toBuilder()
+                .targetBranch(candidate.getBaseRevision())
+                .headRevision(candidate.getHeadRevision())
+                .diffMode(DiffMode.BRANCH)
+                .modules(modules)
+                .additionalExecFiles(candidate.getExecFiles())
+                // Baseline of the target branch does not match base revisions of the candidates
+                .baselineClassesDirs(List.of())
+                .baselineExecFiles(List.of())
+                .analysisWorkers(Math.max(1, settings.getAnalysisWorkers() / concurrency))
+                .evaluationWorkers(Math.max(1, settings.getEvaluationWorkers() / concurrency))
+                .affectedTestsFile(settings.getAffectedTestsFile() == null
+                        ? null
+                        : reportFile.resolveSibling(reportFile.getFileName().toString()
+                                .replaceFirst("\\.txt$", AFFECTED_TESTS_SUFFIX)).toFile())
+                .build();
+    }
+
+    private Map<ReportFormat, Path> additionalReports(Path reportFile) {
+        var additionalReports = new EnumMap<ReportFormat, Path>(ReportFormat.class);
+        for (var format : reportFormats) {
+            additionalReports.put(format, format.besideReport(reportFile));
+        }
+        return additionalReports;
+    }
+
+    private static ModuleLayout withoutExecFiles(ModuleLayout module) {
+        return ModuleLayout.builder()
+                .name(module.getName())
+                .classesDirs(module.getClassesDirs())
+                .sourceDirs(module.getSourceDirs())
+                .build();
+    }
+
+    private void writeSummary(Path summaryFile, List<CandidateResult> results) {
+        var allLines = 0;
+        var coveredLines = 0;
+        var allBranches = 0;
+        var coveredBranches = 0;
+        var failed = 0;
+
+        try {
+            Files.createDirectories(summaryFile.getParent());
+        } catch (IOException ex) {
+            log.error("Could not create batch report directory");
+            throw new CoverageTaskException(ex);
+        }
+
+        try (var writer = new PrintWriter(Files.newBufferedWriter(summaryFile, StandardCharsets.UTF_8))) {
+            for (var result : results) {
+                if (result.isFailed()) {
+                    failed++;
+                    writer.printf(Locale.ROOT, "%s FAILED: %s%n", candidateName(result.candidate()), result.error());
+                    continue;
+                }
+
+                var totals = result.totals();
+                allLines += totals.getAllLines();
+                coveredLines += totals.getCoveredLines();
+                allBranches += totals.getAllBranches();
+                coveredBranches += totals.getCoveredBranches();
+                writer.printf(Locale.ROOT, "%s lines %s, branches %s, report %s%n",
+                        candidateName(result.candidate()),
+                        coverage(totals.getCoveredLines(), totals.getAllLines()),
+                        coverage(totals.getCoveredBranches(), totals.getAllBranches()),
+                        result.reportFile().getFileName());
+            }
+
+            writer.printf(Locale.ROOT, "TOTAL %d candidates, %d failed: lines %s, branches %s%n",
+                    results.size(), failed, coverage(coveredLines, allLines), coverage(coveredBranches, allBranches));
+            if (writer.checkError()) {
+                throw new IOException("Could not write " + summaryFile);
+            }
+        } catch (IOException ex) {
+            log.error("Could not save batch summary file");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    private static String coverage(int covered, int all) {
+        return String.format(Locale.ROOT, "%d of %d (%.2f %%)", covered, all, all == 0 ? 100.0 : covered * 100.0 / all);
+    }
+
+    private static String candidateName(BatchCandidate candidate) {
+        return candidate.getBaseRevision() + ".." + candidate.getHeadRevision();
+    }
+
+    private static String reportFileName(int index, BatchCandidate candidate) {
+        return String.format(Locale.ROOT, "%02d-%s.txt",
+                index + 1, candidate.getHeadRevision().replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+
+    /**
+     * Passes changes to the report and keeps the totals for the summary
+     */
+    private static class TotalsSink implements CoverageReportSink {
+        private final CoverageReportSink delegate;
+        private ReportTotals totals;
+
+        TotalsSink(CoverageReportSink delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void accept(CoverageChange change) {
+            delegate.accept(change);
+        }
+
+        @Override
+        public void acceptUnits(List<UnitCoverage> units) {
+            delegate.acceptUnits(units);
+        }
+
+        @Override
+        public void acceptFileTotals(String fileName, ReportTotals totals) {
+            delegate.acceptFileTotals(fileName, totals);
+        }
+
+        @Override
+        public void acceptLineTests(ChangedLineTests lineTests) {
+            delegate.acceptLineTests(lineTests);
+        }
+
+        @Override
+        public void acceptRegression(CoverageRegression regression) {
+            delegate.acceptRegression(regression);
+        }
+
+        @Override
+        public void finish(ReportTotals totals) {
+            this.totals = totals;
+            delegate.finish(totals);
+        }
+    }
+}
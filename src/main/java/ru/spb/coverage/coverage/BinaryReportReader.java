@@ -0,0 +1,176 @@
+package ru.spb.coverage.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.spb.coverage.domain.report.ChangedLineTests;
+import ru.spb.coverage.domain.report.CodeLine;
+import ru.spb.coverage.domain.report.CoverageBranchStats;
+import ru.spb.coverage.domain.report.CoverageChange;
+import ru.spb.coverage.domain.report.CoverageRegression;
+import ru.spb.coverage.domain.report.Report;
+import ru.spb.coverage.domain.report.UnitCoverage;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the report written by {@link BinaryReportWriter}. Code lines of the report have no text
+ */
+@Slf4j
+public final class BinaryReportReader {
+
+    private BinaryReportReader() {
+    }
+
+    public static Report read(Path reportFile) {
+        try (var in = new BufferedInputStream(Files.newInputStream(reportFile))) {
+            if (!Arrays.equals(in.readNBytes(BinaryReportWriter.MAGIC.length), BinaryReportWriter.MAGIC)) {
+                throw new CoverageTaskException("Not a binary coverage report: " + reportFile);
+            }
+            var version = readVarInt(in);
+            if (version != BinaryReportWriter.VERSION) {
+                throw new CoverageTaskException("Unsupported binary coverage report version " + version);
+            }
+            return readRecords(in);
+        } catch (IOException ex) {
+            log.error("Could not read binary report file");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    private static Report readRecords(InputStream in) throws IOException {
+        var names = new ArrayList<String>();
+        var changes = new ArrayList<CoverageChange>();
+        var units = new ArrayList<UnitCoverage>();
+        var regressions = new ArrayList<CoverageRegression>();
+        var lineTests = new ArrayList<ChangedLineTests>();
+
+        while (true) {
+            var tag = in.read();
+            switch (tag) {
+                case BinaryReportWriter.NAME_RECORD -> names.add(
+                        new String(readBytes(in, readVarInt(in)), StandardCharsets.UTF_8));
+                case BinaryReportWriter.CHANGE_RECORD -> changes.add(CoverageChange.builder()
+                        .fileName(names.get(readVarInt(in)))
+                        .acceptableLinesForCovering(readVarInt(in))
+                        .coveredBranches(readVarInt(in))
+                        .missedBranches(readVarInt(in))
+                        .uncoveredCodeLines(readLines(in, false))
+                        .partlyCoveredCodeLines(readLines(in, true))
+                        .build());
+                case BinaryReportWriter.UNIT_RECORD -> units.add(readUnit(in, names));
+                case BinaryReportWriter.REGRESSION_RECORD -> regressions.add(CoverageRegression.builder()
+                        .fileName(names.get(readVarInt(in)))
+                        .uncoveredCodeLines(readLines(in, false))
+                        .lostBranchCodeLines(readLines(in, true))
+                        .build());
+                case BinaryReportWriter.LINE_TESTS_RECORD -> lineTests.add(ChangedLineTests.builder()
+                        .fileName(names.get(readVarInt(in)))
+                        .lineTests(readLineTests(in, names))
+                        .build());
+                case BinaryReportWriter.TOTALS_RECORD -> {
+                    return Report.builder()
+                            .changes(changes)
+                            .units(units)
+                            .regressions(regressions)
+                            .lineTests(lineTests)
+                            .allLines(readVarInt(in))
+                            .coveredLines(readVarInt(in))
+                            .allBranches(readVarInt(in))
+                            .coveredBranches(readVarInt(in))
+                            .build();
+                }
+                case -1 -> throw new EOFException("Binary coverage report has no totals");
+                default -> throw new CoverageTaskException("Unknown record " + tag + " in binary coverage report");
+            }
+        }
+    }
+
+    private static List<CodeLine> readLines(InputStream in, boolean withBranches) throws IOException {
+        var count = readVarInt(in);
+        var lines = new ArrayList<CodeLine>(count);
+        var lineNumber = 0;
+        for (var i = 0; i < count; i++) {
+            lineNumber += unzigzag(readVarInt(in));
+            var line = CodeLine.builder().lineNumber(lineNumber - 1);
+            if (withBranches) {
+                line.branch(CoverageBranchStats.builder()
+                        .covered(readVarInt(in))
+                        .missed(readVarInt(in))
+                        .build());
+            }
+            lines.add(line.build());
+        }
+        return lines;
+    }
+
+    private static Map<Integer, List<String>> readLineTests(InputStream in, List<String> names) throws IOException {
+        var count = readVarInt(in);
+        var lineTests = new LinkedHashMap<Integer, List<String>>();
+        var lineNumber = 0;
+        for (var i = 0; i < count; i++) {
+            lineNumber += unzigzag(readVarInt(in));
+            var tests = new ArrayList<String>();
+            for (var testCount = readVarInt(in); testCount > 0; testCount--) {
+                tests.add(names.get(readVarInt(in)));
+            }
+            lineTests.put(lineNumber - 1, tests);
+        }
+        return lineTests;
+    }
+
+    private static UnitCoverage readUnit(InputStream in, List<String> names) throws IOException {
+        var level = UnitCoverage.Level.values()[readVarInt(in)];
+        var fileName = names.get(readVarInt(in));
+        var className = names.get(readVarInt(in));
+        var methodId = readVarInt(in);
+        return UnitCoverage.builder()
+                .level(level)
+                .fileName(fileName)
+                .className(className)
+                .methodName(methodId == 0 ? null : names.get(methodId - 1))
+                .firstLine(readVarInt(in))
+                .lastLine(readVarInt(in))
+                .allLines(readVarInt(in))
+                .coveredLines(readVarInt(in))
+                .allBranches(readVarInt(in))
+                .coveredBranches(readVarInt(in))
+                .build();
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        var value = 0;
+        for (var shift = 0; shift < Integer.SIZE; shift += 7) {
+            var b = in.read();
+            if (b < 0) {
+                throw new EOFException("Binary coverage report is truncated");
+            }
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new CoverageTaskException("Malformed varint in binary coverage report");
+    }
+
+    private static byte[] readBytes(InputStream in, int length) throws IOException {
+        var bytes = in.readNBytes(length);
+        if (bytes.length != length) {
+            throw new EOFException("Binary coverage report is truncated");
+        }
+        return bytes;
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
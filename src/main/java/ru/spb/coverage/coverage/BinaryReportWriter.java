@@ -0,0 +1,233 @@
+package ru.spb.coverage.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.spb.coverage.domain.report.ChangedLineTests;
+import ru.spb.coverage.domain.report.CodeLine;
+import ru.spb.coverage.domain.report.CoverageChange;
+import ru.spb.coverage.domain.report.CoverageRegression;
+import ru.spb.coverage.domain.report.ReportTotals;
+import ru.spb.coverage.domain.report.UnitCoverage;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams coverage changes into a compact binary report without source text.
+ * All numbers are unsigned LEB128 varints, line numbers are one based and written as zigzag encoded deltas
+ * to the previous line of the same list. The report starts with the magic bytes "NCCB" and the format version,
+ * followed by records starting with a tag:
+ * <ul>
+ *     <li>{@link #NAME_RECORD} defines the next name id of a file, class, method or test: length and UTF-8 name</li>
+ *     <li>{@link #CHANGE_RECORD}: file id, lines, covered branches, missed branches,
+ *     count and deltas of uncovered lines, count of partly covered lines with delta, covered and missed branches</li>
+ *     <li>{@link #UNIT_RECORD}: level ordinal, file id, class name id, method name id plus one or zero for a class,
+ *     first and last line, lines, covered lines, branches, covered branches</li>
+ *     <li>{@link #REGRESSION_RECORD}: file id, count and deltas of uncovered lines,
+ *     count of lines which lost branches with delta, covered and missed branches</li>
+ *     <li>{@link #LINE_TESTS_RECORD}: file id, count of changed lines with tests with delta, count and name ids
+ *     of tests</li>
+ *     <li>{@link #TOTALS_RECORD} is the last record: lines, covered lines, branches, covered branches</li>
+ * </ul>
+ *
+ * @see BinaryReportReader
+ */
+@Slf4j
+public class BinaryReportWriter implements ReportWriter {
+
+    static final byte[] MAGIC = {'N', 'C', 'C', 'B'};
+    static final int VERSION = 3;
+    static final int NAME_RECORD = 1;
+    static final int CHANGE_RECORD = 2;
+    static final int TOTALS_RECORD = 3;
+    static final int UNIT_RECORD = 4;
+    static final int REGRESSION_RECORD = 5;
+    static final int LINE_TESTS_RECORD = 6;
+
+    private final OutputStream out;
+    private final Map<String, Integer> nameIds = new HashMap<>();
+
+    public BinaryReportWriter(Path reportFile) {
+        try {
+            if (reportFile.getParent() != null) {
+                Files.createDirectories(reportFile.getParent());
+            }
+            this.out = new BufferedOutputStream(Files.newOutputStream(reportFile));
+            out.write(MAGIC);
+            writeVarInt(VERSION);
+        } catch (IOException ex) {
+            log.error("Could not make and save binary report file");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    @Override
+    public void accept(CoverageChange change) {
+        try {
+            var fileId = nameId(change.getFileName());
+
+            out.write(CHANGE_RECORD);
+            writeVarInt(fileId);
+            writeVarInt(change.getAcceptableLinesForCovering());
+            writeVarInt(change.getCoveredBranches());
+            writeVarInt(change.getMissedBranches());
+            writeLines(change.getUncoveredCodeLines(), false);
+            writeLines(change.getPartlyCoveredCodeLines(), true);
+        } catch (IOException ex) {
+            log.error("Could not make and save binary report file");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    @Override
+    public void acceptUnits(List<UnitCoverage> units) {
+        try {
+            for (var unit : units) {
+                var fileId = nameId(unit.getFileName());
+                var classId = nameId(unit.getClassName());
+                var methodId = unit.getMethodName() == null ? 0 : nameId(unit.getMethodName()) + 1;
+
+                out.write(UNIT_RECORD);
+                writeVarInt(unit.getLevel().ordinal());
+                writeVarInt(fileId);
+                writeVarInt(classId);
+                writeVarInt(methodId);
+                writeVarInt(unit.getFirstLine());
+                writeVarInt(unit.getLastLine());
+                writeVarInt(unit.getAllLines());
+                writeVarInt(unit.getCoveredLines());
+                writeVarInt(unit.getAllBranches());
+                writeVarInt(unit.getCoveredBranches());
+            }
+        } catch (IOException ex) {
+            log.error("Could not make and save binary report file");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    @Override
+    public void acceptRegression(CoverageRegression regression) {
+        try {
+            var fileId = nameId(regression.getFileName());
+
+            out.write(REGRESSION_RECORD);
+            writeVarInt(fileId);
+            writeLines(regression.getUncoveredCodeLines(), false);
+            writeLines(regression.getLostBranchCodeLines(), true);
+        } catch (IOException ex) {
+            log.error("Could not make and save binary report file");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    @Override
+    public void acceptLineTests(ChangedLineTests lineTests) {
+        try {
+            var fileId = nameId(lineTests.getFileName());
+            // Names are defined before the record using them
+            for (var tests : lineTests.getLineTests().values()) {
+                for (var test : tests) {
+                    nameId(test);
+                }
+            }
+
+            out.write(LINE_TESTS_RECORD);
+            writeVarInt(fileId);
+            writeLineTests(lineTests.getLineTests());
+        } catch (IOException ex) {
+            log.error("Could not make and save binary report file");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    @Override
+    public void finish(ReportTotals totals) {
+        try {
+            out.write(TOTALS_RECORD);
+            writeVarInt(totals.getAllLines());
+            writeVarInt(totals.getCoveredLines());
+            writeVarInt(totals.getAllBranches());
+            writeVarInt(totals.getCoveredBranches());
+        } catch (IOException ex) {
+            log.error("Could not make and save binary report file");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException ex) {
+            log.error("Could not make and save binary report file");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    /**
+     * @return id of the name, the name is written once before its first record
+     */
+    private int nameId(String name) throws IOException {
+        var nameId = nameIds.get(name);
+        if (nameId != null) {
+            return nameId;
+        }
+
+        nameId = nameIds.size();
+        nameIds.put(name, nameId);
+        var bytes = name.getBytes(StandardCharsets.UTF_8);
+        out.write(NAME_RECORD);
+        writeVarInt(bytes.length);
+        out.write(bytes);
+        return nameId;
+    }
+
+    private void writeLines(List<CodeLine> lines, boolean withBranches) throws IOException {
+        writeVarInt(lines.size());
+        var previousLine = 0;
+        for (var line : lines) {
+            var lineNumber = line.getLineNumber() + 1;
+            writeVarInt(zigzag(lineNumber - previousLine));
+            previousLine = lineNumber;
+            if (withBranches) {
+                writeVarInt(line.getBranch().getCovered());
+                writeVarInt(line.getBranch().getMissed());
+            }
+        }
+    }
+
+    /**
+     * Lines are written as deltas in the order of the map, test names are defined before the record
+     */
+    private void writeLineTests(Map<Integer, List<String>> lineTests) throws IOException {
+        writeVarInt(lineTests.size());
+        var previousLine = 0;
+        for (var entry : lineTests.entrySet()) {
+            var lineNumber = entry.getKey() + 1;
+            writeVarInt(zigzag(lineNumber - previousLine));
+            previousLine = lineNumber;
+            writeVarInt(entry.getValue().size());
+            for (var test : entry.getValue()) {
+                writeVarInt(nameIds.get(test));
+            }
+        }
+    }
+
+    private void writeVarInt(int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+}
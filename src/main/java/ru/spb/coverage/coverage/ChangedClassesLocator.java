@@ -0,0 +1,216 @@
+package ru.spb.coverage.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
+import ru.spb.coverage.domain.GitDiff;
+import ru.spb.coverage.domain.ModuleLayout;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Maps changed source files from git diffs to modules and to the compiled class files
+ * (including inner, anonymous and secondary top-level classes) in the build output of the module
+ */
+@Slf4j
+public class ChangedClassesLocator {
+
+    private static final String SOURCE_EXTENSION = ".java";
+    private static final String CLASS_EXTENSION = ".class";
+    private static final String NESTED_CLASS_SEPARATOR = "$";
+
+    private final Path repositoryRoot;
+    private final List<ModuleLayout> modules;
+
+    /**
+     * @param repositoryRoot root of the git working tree, paths from git diffs are relative to it
+     * @param modules        modules with source and class directories
+     */
+    public ChangedClassesLocator(File repositoryRoot, List<ModuleLayout> modules) {
+        this.repositoryRoot = normalize(repositoryRoot);
+        this.modules = modules;
+    }
+
+    /**
+     * @return source file of the git diff in the working tree
+     */
+    public Path sourceFile(GitDiff diff) {
+        return sourceFile(diff.getFilePath());
+    }
+
+    /**
+     * @param filePath path of the source relative to the repository root
+     * @return source file in the working tree
+     */
+    public Path sourceFile(String filePath) {
+        return repositoryRoot.resolve(filePath).normalize();
+    }
+
+    public Optional<ModuleLayout> findModule(GitDiff diff) {
+        var sourceFile = sourceFile(diff);
+        return modules.stream()
+                .filter(module -> module.getSourceDirs().stream().anyMatch(dir -> sourceFile.startsWith(normalize(dir))))
+                .findFirst();
+    }
+
+    /**
+     * @return path of the changed source relative to the source directory of the module with '/' separators,
+     * e.g. com/example/Foo.java, the same as the package and the name of the source file in jacoco
+     */
+    public Optional<String> sourcePath(ModuleLayout module, GitDiff diff) {
+        return relativeSourcePath(module, sourceFile(diff))
+                .map(path -> StringUtils.replace(path.toString(), File.separator, "/"));
+    }
+
+    /**
+     * @param sourcePath path of the source relative to the source directory, e.g. com/example/Foo.java
+     * @return path of the source relative to the repository root with '/' separators, the same as in git diffs,
+     * taken from the first source directory of the module having the source
+     */
+    public Optional<String> repositoryPath(ModuleLayout module, String sourcePath) {
+        return module.getSourceDirs().stream()
+                .map(sourceDir -> normalize(sourceDir).resolve(sourcePath))
+                .filter(Files::isRegularFile)
+                .findFirst()
+                .map(sourceFile -> StringUtils.replace(repositoryRoot.relativize(sourceFile).toString(),
+                        File.separator, "/"));
+    }
+
+    /**
+     * @return all class directories of every module
+     */
+    public Map<String, List<File>> allClasses() {
+        var classFilesByModule = new LinkedHashMap<String, List<File>>();
+        for (var module : modules) {
+            classFilesByModule.put(module.getName(), module.getClassesDirs());
+        }
+        return classFilesByModule;
+    }
+
+    /**
+     * @return class files compiled from changed sources grouped by module name
+     */
+    public Map<String, List<File>> locate(Collection<GitDiff> gitDiffs) {
+        var classFilesByModule = new LinkedHashMap<String, List<File>>();
+        var classFilesCount = 0;
+
+        for (var module : modules) {
+            var packageToSourceNames = groupSourceNamesByPackage(module, gitDiffs);
+            if (packageToSourceNames.isEmpty()) {
+                continue;
+            }
+
+            var classFiles = new ArrayList<File>();
+            for (var classesDir : module.getClassesDirs()) {
+                for (var entry : packageToSourceNames.entrySet()) {
+                    collectPackageClasses(new File(classesDir, entry.getKey()), entry.getValue(), classFiles);
+                }
+            }
+            classFilesByModule.put(module.getName(), classFiles);
+            classFilesCount += classFiles.size();
+        }
+
+        log.info("Found {} class files for changed sources in {} modules", classFilesCount, classFilesByModule.size());
+        return classFilesByModule;
+    }
+
+    private Map<String, Set<String>> groupSourceNamesByPackage(ModuleLayout module, Collection<GitDiff> gitDiffs) {
+        var packageToSourceNames = new TreeMap<String, Set<String>>();
+
+        for (var diff : gitDiffs) {
+            var sourceFile = sourceFile(diff);
+            if (!sourceFile.toString().endsWith(SOURCE_EXTENSION)) {
+                continue;
+            }
+
+            relativeSourcePath(module, sourceFile).ifPresent(relativePath -> {
+                var packageDir = relativePath.getParent() == null
+                        ? ""
+                        : StringUtils.replace(relativePath.getParent().toString(), File.separator, "/");
+                packageToSourceNames.computeIfAbsent(packageDir, k -> new TreeSet<>())
+                        .add(relativePath.getFileName().toString());
+            });
+        }
+
+        return packageToSourceNames;
+    }
+
+    private Optional<Path> relativeSourcePath(ModuleLayout module, Path sourceFile) {
+        return module.getSourceDirs().stream()
+                .map(ChangedClassesLocator::normalize)
+                .filter(sourceFile::startsWith)
+                .findFirst()
+                .map(sourceDir -> sourceDir.relativize(sourceFile));
+    }
+
+    private void collectPackageClasses(File packageDir, Set<String> sourceNames, List<File> classFiles) {
+        var packageClasses = packageDir.listFiles((dir, name) -> name.endsWith(CLASS_EXTENSION));
+        if (packageClasses == null) {
+            log.debug("No compiled classes for package directory {}", packageDir);
+            return;
+        }
+        Arrays.sort(packageClasses);
+
+        for (var classFile : packageClasses) {
+            if (belongsToSources(classFile, sourceNames)) {
+                classFiles.add(classFile);
+            }
+        }
+    }
+
+    private boolean belongsToSources(File classFile, Set<String> sourceNames) {
+        var className = StringUtils.removeEnd(classFile.getName(), CLASS_EXTENSION);
+        var outerClassName = StringUtils.substringBefore(className, NESTED_CLASS_SEPARATOR);
+
+        if (sourceNames.contains(outerClassName + SOURCE_EXTENSION)) {
+            return true;
+        }
+
+        // Secondary top-level classes are named freely, only the SourceFile attribute links them to the source
+        return sourceNames.contains(readSourceFileName(classFile));
+    }
+
+    private String readSourceFileName(File classFile) {
+        try {
+            var reader = new ClassReader(Files.readAllBytes(classFile.toPath()));
+            var visitor = new SourceFileVisitor();
+            reader.accept(visitor, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+            return visitor.sourceFileName;
+        } catch (IOException ex) {
+            log.error("Could not read class file {}", classFile);
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    private static Path normalize(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    private static class SourceFileVisitor extends ClassVisitor {
+        private String sourceFileName;
+
+        SourceFileVisitor() {
+            super(Opcodes.ASM9);
+        }
+
+        @Override
+        public void visitSource(String source, String debug) {
+            this.sourceFileName = source;
+        }
+    }
+}
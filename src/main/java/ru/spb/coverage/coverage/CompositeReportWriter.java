@@ -0,0 +1,109 @@
+package ru.spb.coverage.coverage;
+
+import ru.spb.coverage.domain.report.ChangedLineTests;
+import ru.spb.coverage.domain.report.CoverageChange;
+import ru.spb.coverage.domain.report.CoverageRegression;
+import ru.spb.coverage.domain.report.ReportTotals;
+import ru.spb.coverage.domain.report.UnitCoverage;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Passes every coverage change to several report writers, so all formats are written in one pass
+ */
+public class CompositeReportWriter implements ReportWriter {
+
+    private final List<ReportWriter> writers;
+
+    private CompositeReportWriter(List<ReportWriter> writers) {
+        this.writers = writers;
+    }
+
+    /**
+     * Opens writers of the additional reports, the given writers are closed if any of them could not be opened
+     */
+    public static CompositeReportWriter open(ReportWriter first,
+                                             Map<ReportFormat, Path> additionalReports,
+                                             List<ReportWriter> additionalWriters) {
+        var writers = new ArrayList<ReportWriter>();
+        writers.add(first);
+        writers.addAll(additionalWriters);
+        try {
+            additionalReports.forEach((format, reportFile) -> writers.add(format.open(reportFile)));
+        } catch (RuntimeException ex) {
+            throw closeAll(writers, ex);
+        }
+        return new CompositeReportWriter(writers);
+    }
+
+    @Override
+    public void accept(CoverageChange change) {
+        for (var writer : writers) {
+            writer.accept(change);
+        }
+    }
+
+    @Override
+    public void acceptUnits(List<UnitCoverage> units) {
+        for (var writer : writers) {
+            writer.acceptUnits(units);
+        }
+    }
+
+    @Override
+    public void acceptFileTotals(String fileName, ReportTotals totals) {
+        for (var writer : writers) {
+            writer.acceptFileTotals(fileName, totals);
+        }
+    }
+
+    @Override
+    public void acceptLineTests(ChangedLineTests lineTests) {
+        for (var writer : writers) {
+            writer.acceptLineTests(lineTests);
+        }
+    }
+
+    @Override
+    public void acceptRegression(CoverageRegression regression) {
+        for (var writer : writers) {
+            writer.acceptRegression(regression);
+        }
+    }
+
+    @Override
+    public void finish(ReportTotals totals) {
+        for (var writer : writers) {
+            writer.finish(totals);
+        }
+    }
+
+    @Override
+    public void close() {
+        var failure = closeAll(writers, null);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return the given failure with failures of closing suppressed by it, the first failure of closing if none given
+     */
+    private static RuntimeException closeAll(List<ReportWriter> writers, RuntimeException failure) {
+        for (var writer : writers) {
+            try {
+                writer.close();
+            } catch (RuntimeException ex) {
+                if (failure == null) {
+                    failure = ex;
+                } else {
+                    failure.addSuppressed(ex);
+                }
+            }
+        }
+        return failure;
+    }
+}
@@ -0,0 +1,60 @@
+package ru.spb.coverage.coverage;
+
+import lombok.Builder;
+import lombok.Value;
+import ru.spb.coverage.domain.report.ReportResults;
+import ru.spb.coverage.domain.report.UnitCoverage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Minimum coverage of new code as a whole, of its branches and of every method and class having changed lines.
+ * Method and class gates are checked against the worst covered unit found in the same evaluation pass
+ */
+@Value
+@Builder
+public class CoverageGates {
+    double minCoverage;
+    /**
+     * Null if branch coverage is not checked
+     */
+    Double minBranchCoverage;
+    /**
+     * Null if coverage of methods is not checked
+     */
+    Double minMethodCoverage;
+    /**
+     * Null if coverage of classes is not checked
+     */
+    Double minClassCoverage;
+
+    /**
+     * @return messages of the failed gates, empty if coverage is enough
+     */
+    public List<String> violations(ReportResults results) {
+        var violations = new ArrayList<String>();
+        if (results.newCodeCoverage() < minCoverage) {
+            violations.add(String.format(Locale.ROOT, "New code coverage %.2f %% is below minimum %.2f %%",
+                    results.newCodeCoverage(), minCoverage));
+        }
+        // Branch coverage of new code without branches is NaN and never fails the gate
+        if (minBranchCoverage != null && results.newBranchCoverage() < minBranchCoverage) {
+            violations.add(String.format(Locale.ROOT, "New branch coverage %.2f %% is below minimum %.2f %%",
+                    results.newBranchCoverage(), minBranchCoverage));
+        }
+        checkUnit(results.worstMethod(), minMethodCoverage, "Method", violations);
+        checkUnit(results.worstClass(), minClassCoverage, "Class", violations);
+        return violations;
+    }
+
+    private static void checkUnit(UnitCoverage unit, Double minCoverage, String kind, List<String> violations) {
+        if (unit != null && minCoverage != null && unit.lineCoverage() < minCoverage) {
+            violations.add(String.format(Locale.ROOT,
+                    "%s %s (lines %d-%d of %s) has new code coverage %.2f %%, %d of %d lines, below minimum %.2f %%",
+                    kind, unit.displayName(), unit.getFirstLine(), unit.getLastLine(), unit.getFileName(),
+                    unit.lineCoverage(), unit.getCoveredLines(), unit.getAllLines(), minCoverage));
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package ru.spb.coverage.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Wall time, allocated bytes, bytes read and item counters of every stage of the coverage evaluation.
+ * Wall time of a stage is the time while any thread measures the stage, so the time of parallel workers
+ * is counted once. Allocated bytes are summed over the threads and are measured with {@link com.sun.management.ThreadMXBean} and are -1 if the JVM does not support it
+ */
+@Slf4j
+public class CoverageMetrics {
+
+    public static final long UNSUPPORTED = -1;
+
+    private static final double NANOS_IN_MILLI = 1_000_000.0;
+
+    private final Map<Stage, StageMetrics> stages = new EnumMap<>(Stage.class);
+    private long totalWallTimeNanos;
+
+    public CoverageMetrics() {
+        for (var stage : Stage.values()) {
+            stages.put(stage, new StageMetrics());
+        }
+    }
+
+    /**
+     * Starts measuring of the stage on the current thread, measurement is added to the stage on close.
+     * A stage may be measured several times, also on several threads at once. Overlapping measurements
+     * add their wall time once, allocated bytes of all measurements are summed up
+     */
+    public StageTimer start(Stage stage) {
+        return new StageTimer(stages.get(stage));
+    }
+
+    public StageMetrics get(Stage stage) {
+        return stages.get(stage);
+    }
+
+    public long getTotalWallTimeNanos() {
+        return totalWallTimeNanos;
+    }
+
+    void addTotalWallTime(long nanos) {
+        totalWallTimeNanos += nanos;
+    }
+
+    /**
+     * @return bytes allocated by the current thread so far or {@link #UNSUPPORTED}
+     */
+    static long currentThreadAllocatedBytes() {
+        var threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean sunThreadMXBean
+                && sunThreadMXBean.isThreadAllocatedMemorySupported()
+                && sunThreadMXBean.isThreadAllocatedMemoryEnabled()) {
+            return sunThreadMXBean.getCurrentThreadAllocatedBytes();
+        }
+        return UNSUPPORTED;
+    }
+
+    public void writeJson(Path metricsFile) {
+        try {
+            if (metricsFile.getParent() != null) {
+                Files.createDirectories(metricsFile.getParent());
+            }
+            Files.writeString(metricsFile, toJson(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            log.error("Could not save metrics file");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    public String toJson() {
+        var json = new StringBuilder("{\n");
+        json.append("  \"totalWallTimeMs\": ").append(millis(totalWallTimeNanos)).append(",\n");
+        json.append("  \"stages\": {\n");
+
+        var first = true;
+        for (var stage : Stage.values()) {
+            var metrics = stages.get(stage);
+            if (!first) {
+                json.append(",\n");
+            }
+            first = false;
+
+            json.append("    \"").append(stage.getKey()).append("\": {\n");
+            json.append("      \"wallTimeMs\": ").append(millis(metrics.wallTimeNanos)).append(",\n");
+            json.append("      \"allocatedBytes\": ").append(metrics.allocatedBytes).append(",\n");
+            json.append("      \"bytesRead\": ").append(metrics.bytesRead).append(",\n");
+            json.append("      \"counters\": {");
+            var firstCounter = true;
+            for (var counter : metrics.counters.entrySet()) {
+                json.append(firstCounter ? "" : ",").append("\n        \"").append(counter.getKey()).append("\": ")
+                        .append(counter.getValue());
+                firstCounter = false;
+            }
+            json.append(firstCounter ? "}\n" : "\n      }\n");
+            json.append("    }");
+        }
+        json.append("\n  }\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * @return human readable summary with one line per stage
+     */
+    public String summary() {
+        var summary = new StringBuilder(String.format(Locale.ROOT, "New code coverage took %s ms%n",
+                millis(totalWallTimeNanos)));
+        for (var stage : Stage.values()) {
+            var metrics = stages.get(stage);
+            summary.append(String.format(Locale.ROOT, "  %-16s %10s ms, allocated %s, read %d bytes %s%n",
+                    stage.getKey(),
+                    millis(metrics.wallTimeNanos),
+                    metrics.allocatedBytes == UNSUPPORTED ? "n/a" : metrics.allocatedBytes + " bytes",
+                    metrics.bytesRead,
+                    metrics.counters));
+        }
+        return summary.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / NANOS_IN_MILLI);
+    }
+
+    public enum Stage {
+        GIT_DIFF("gitDiff"),
+        EXEC_LOADING("execLoading"),
+        CLASS_ANALYSIS("classAnalysis"),
+        TEST_INDEX("testIndex"),
+        SOURCE_READING("sourceReading"),
+        LINE_EVALUATION("lineEvaluation"),
+        BASELINE_COMPARISON("baselineComparison"),
+        REPORT_WRITING("reportWriting");
+
+        private final String key;
+
+        Stage(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * Measurements of a single stage, measurements may be added from several threads
+     */
+    public static class StageMetrics {
+        private long wallTimeNanos;
+        private int runningTimers;
+        private long runningSinceNanos;
+        private long allocatedBytes;
+        private long bytesRead;
+        private final Map<String, Long> counters = new LinkedHashMap<>();
+
+        public synchronized long getWallTimeNanos() {
+            return wallTimeNanos;
+        }
+
+        public synchronized long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        public synchronized long getBytesRead() {
+            return bytesRead;
+        }
+
+        /**
+         * @return copy of the counters in the order they were first counted
+         */
+        public synchronized Map<String, Long> getCounters() {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(counters));
+        }
+
+        public synchronized void addBytesRead(long bytes) {
+            bytesRead += bytes;
+        }
+
+        /**
+         * Adds bytes allocated by other threads on behalf of the stage, e.g. by analysis workers
+         */
+        public synchronized void addAllocatedBytes(long bytes) {
+            if (allocatedBytes != UNSUPPORTED && bytes != UNSUPPORTED) {
+                allocatedBytes += bytes;
+            } else {
+                allocatedBytes = UNSUPPORTED;
+            }
+        }
+
+        public synchronized void count(String counter, long value) {
+            counters.merge(counter, value, Long::sum);
+        }
+
+        /**
+         * The wall time of the stage runs from the start of the first running timer to the close of the last one
+         */
+        synchronized void timerStarted(long nanos) {
+            if (runningTimers++ == 0) {
+                runningSinceNanos = nanos;
+            }
+        }
+
+        synchronized void timerClosed(long nanos) {
+            if (--runningTimers == 0) {
+                wallTimeNanos += nanos - runningSinceNanos;
+            }
+        }
+    }
+
+    /**
+     * Measurement of the stage on the current thread
+     */
+    public static class StageTimer implements AutoCloseable {
+        private final StageMetrics metrics;
+        private final long startAllocatedBytes;
+
+        private StageTimer(StageMetrics metrics) {
+            this.metrics = metrics;
+            this.startAllocatedBytes = currentThreadAllocatedBytes();
+            metrics.timerStarted(System.nanoTime());
+        }
+
+        public StageMetrics metrics() {
+            return metrics;
+        }
+
+        @Override
+        public void close() {
+            metrics.timerClosed(System.nanoTime());
+            var endAllocatedBytes = currentThreadAllocatedBytes();
+            metrics.addAllocatedBytes(startAllocatedBytes == UNSUPPORTED || endAllocatedBytes == UNSUPPORTED
+                    ? UNSUPPORTED
+                    : endAllocatedBytes - startAllocatedBytes);
+        }
+    }
+}
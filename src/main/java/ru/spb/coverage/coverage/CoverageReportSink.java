@@ -0,0 +1,50 @@
+package ru.spb.coverage.coverage;
+
+import ru.spb.coverage.domain.report.ChangedLineTests;
+import ru.spb.coverage.domain.report.CoverageChange;
+import ru.spb.coverage.domain.report.CoverageRegression;
+import ru.spb.coverage.domain.report.ReportTotals;
+import ru.spb.coverage.domain.report.UnitCoverage;
+
+import java.util.List;
+
+/**
+ * Receives coverage changes one by one while they are computed
+ */
+public interface CoverageReportSink {
+
+    void accept(CoverageChange change);
+
+    /**
+     * Called once per changed file after its changes with coverage of the methods and classes having changed lines,
+     * the file may have no reported changes if all its changed lines are covered
+     */
+    default void acceptUnits(List<UnitCoverage> units) {
+    }
+
+    /**
+     * Called once per changed file after its units with totals of all its changed lines,
+     * whether their hunks are reported as changes or not
+     */
+    default void acceptFileTotals(String fileName, ReportTotals totals) {
+    }
+
+    /**
+     * Called once per changed file after its totals if tests of changed lines are indexed and any test
+     * covers a changed line of the file. Covered lines are listed too, they are never reported as changes
+     */
+    default void acceptLineTests(ChangedLineTests lineTests) {
+    }
+
+    /**
+     * Called in delta mode after all changes and units, once per source file having unchanged lines
+     * which lost coverage since the target branch
+     */
+    default void acceptRegression(CoverageRegression regression) {
+    }
+
+    /**
+     * Called once after all changes with totals of the whole report
+     */
+    void finish(ReportTotals totals);
+}
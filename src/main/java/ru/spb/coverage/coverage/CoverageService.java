@@ -1,144 +1,569 @@
 package ru.spb.coverage.coverage;
 
 import lombok.extern.slf4j.Slf4j;
-import org.jacoco.core.analysis.Analyzer;
+import org.eclipse.jgit.dircache.DirCache;
 import org.jacoco.core.analysis.CoverageBuilder;
+import org.jacoco.core.analysis.IClassCoverage;
 import org.jacoco.core.analysis.ICounter;
-import org.jacoco.core.analysis.ILine;
 import org.jacoco.core.analysis.ISourceFileCoverage;
-import org.jacoco.core.tools.ExecFileLoader;
+import org.jacoco.core.data.ExecutionDataStore;
+import ru.spb.coverage.coverage.CoverageMetrics.Stage;
+import ru.spb.coverage.domain.CoverageSettings;
+import ru.spb.coverage.domain.DiffMode;
 import ru.spb.coverage.domain.GitDiff;
+import ru.spb.coverage.domain.GitDiffOptions;
+import ru.spb.coverage.domain.ModuleLayout;
+import ru.spb.coverage.domain.report.ChangedLineTests;
 import ru.spb.coverage.domain.report.CodeLine;
 import ru.spb.coverage.domain.report.CoverageBranchStats;
 import ru.spb.coverage.domain.report.CoverageChange;
+import ru.spb.coverage.domain.report.CoverageRegression;
 import ru.spb.coverage.domain.report.Report;
+import ru.spb.coverage.domain.report.ReportTotals;
+import ru.spb.coverage.domain.report.UnitCoverage;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Slf4j
 public class CoverageService {
 
-    private static final String JACOCO_EXEC_FILE = "/build/jacoco/test.exec";
-    private static final String BUILD_CLASSES = "/build/classes/java/main";
-    private static final String SOURCE_FILES = "/src/main/java/";
+    private static final String ANALYSIS_CACHE_DIR = "analysis-cache";
+    private static final String DIFF_CACHE_DIR = "diff-cache";
+    private static final String EXEC_INDEX_DIR = "exec-index";
+    private static final int FILES_AHEAD_PER_WORKER = 4;
+    private static final CoverageBranchStats NO_BRANCHES = CoverageBranchStats.builder().build();
     private final String targetBranch;
-    private static final String gitPath = ".git";
+    private final CoverageSettings settings;
+    private final SharedCoverageState sharedState;
+    private final CoverageMetrics metrics = new CoverageMetrics();
+    /**
+     * Git index read once per evaluation of staged changes, sources of changed files are read from it
+     */
+    private DirCache stagedIndex;
 
     public CoverageService(String targetBranch) {
-        this.targetBranch = "refs/heads/" + targetBranch;
+        this(CoverageSettings.builder().targetBranch(targetBranch).build());
+    }
+
+    public CoverageService(CoverageSettings settings) {
+        this(settings, null);
+    }
+
+    /**
+     * @param sharedState warm repositories and analysis caches of a long-lived process,
+     *                    null if everything should be opened for this evaluation only
+     */
+    public CoverageService(CoverageSettings settings, SharedCoverageState sharedState) {
+        this.targetBranch = "refs/heads/" + settings.getTargetBranch();
+        this.settings = settings;
+        this.sharedState = sharedState;
+    }
+
+    /**
+     * @return metrics of every stage of the evaluation, filled while {@link #evaluate(CoverageReportSink)} runs
+     */
+    public CoverageMetrics getMetrics() {
+        return metrics;
     }
 
     public Report createReportFromGitDiffs() {
-        var coverageBuilder = analyzeCode();
+        var reportCollector = new ReportCollector();
+        evaluate(reportCollector);
+        return reportCollector.getReport();
+    }
+
+    /**
+     * Computes coverage of changed code and passes every coverage change to the sink as soon as it is computed.
+     * Only running totals are kept in memory
+     */
+    public void evaluate(CoverageReportSink sink) {
+        var startNanos = System.nanoTime();
+        // Sources of a head revision or of the index are read from git, so the repository stays open
+        // for the whole evaluation
+        var ownState = sharedState == null && (settings.getHeadRevision() != null || settings.getDiffMode().isUncommitted())
+                ? new SharedCoverageState()
+                : null;
+        try {
+            evaluateChanges(sink, ownState != null ? ownState : sharedState);
+        } finally {
+            if (ownState != null) {
+                ownState.close();
+            }
+            metrics.addTotalWallTime(System.nanoTime() - startNanos);
+        }
+    }
+
+    private void evaluateChanges(CoverageReportSink sink, SharedCoverageState state) {
+        var gitDiffOptions = GitDiffOptions.builder()
+                .mergeBase(settings.isDiffAgainstMergeBase())
+                .cacheDir(settings.isDiffCache() ? new File(settings.getWorkDir(), DIFF_CACHE_DIR) : null)
+                .workers(settings.getEvaluationWorkers())
+                // Deleted lines are not new code, they are only needed to map lines to the baseline
+                .deletions(settings.isDeltaMode())
+                .build();
+        List<GitDiff> allDiffs;
+        List<GitDiff> gitDiffs;
+        try (var stage = metrics.start(Stage.GIT_DIFF)) {
+            allDiffs = computeGitDiffs(state, gitDiffOptions);
+            gitDiffs = allDiffs.stream().filter(diff -> !diff.isDeletion()).toList();
+            stage.metrics().count("diffHunks", gitDiffs.size());
+            stage.metrics().count("changedFiles", gitDiffs.stream().map(GitDiff::getFilePath).distinct().count());
+        }
 
-        var gitDiffs = GitUtils.getChangesInNewBranch(targetBranch, gitPath);
+        var repositoryRoot = settings.getGitDir().getAbsoluteFile().getParentFile();
+        var locator = new ChangedClassesLocator(repositoryRoot, settings.getModules());
         if (gitDiffs.isEmpty()) {
             log.info("No diffs between current branch and target branch");
-            return Report.builder().build();
+            if (settings.getAffectedTestsFile() != null) {
+                new TestCoverageIndex().writeAffectedTests(settings.getAffectedTestsFile().toPath());
+            }
+            if (settings.isDeltaMode()) {
+                var execData = loadExecData(execFiles(), null, Stage.EXEC_LOADING);
+                compareWithBaseline(sink, allDiffs, locator, execData, state);
+            }
+            finish(sink, ReportTotals.builder().build());
+            return;
         }
 
-        var gitChangedClassesName = gitDiffs.stream()
-                .map(GitDiff::getChangedFileName)
-                .collect(Collectors.toSet());
+        Map<String, List<File>> classFilesByModule;
+        try (var ignored = metrics.start(Stage.CLASS_ANALYSIS)) {
+            classFilesByModule = settings.isFullScan() ? locator.allClasses() : locator.locate(gitDiffs);
+        }
+        // Delta mode compares all classes, so execution data of all classes is kept
+        var classIds = settings.isDeltaMode()
+                ? null
+                : ExecDataLoader.classIds(classFilesByModule.values().stream().flatMap(List::stream).toList());
+        var execData = loadExecData(execFiles(), classIds, Stage.EXEC_LOADING);
+        var coverageByModule = analyzeCode(classFilesByModule, execData, state);
+        var testIndex = settings.getAffectedTestsFile() == null
+                ? null
+                : indexTests(settings.isFullScan() ? locator.locate(gitDiffs) : classFilesByModule, gitDiffs);
 
-        var sourceFileNameToClassCoverage = filterAndMapGitChangedClasses(coverageBuilder, gitChangedClassesName);
+        var moduleToSourceCoverage = new HashMap<String, Map<String, ISourceFileCoverage>>();
+        var moduleToClasses = new HashMap<String, Map<String, List<IClassCoverage>>>();
 
-        var coverageChanges = new ArrayList<CoverageChange>();
+        var totals = new TotalsCounter();
 
         log.info("Starting processing diffs from git");
 
+        // Files are keyed by the module and the full path of the source, files of the same name in other packages
+        // or modules never collide and hunks of one source seen under several paths are merged
+        var changedFilesByKey = new LinkedHashMap<String, ChangedFile>();
         for (var diff : gitDiffs) {
-            var classCoverage = sourceFileNameToClassCoverage.get(diff.getChangedFileName());
-
-            if (classCoverage == null) {
+            var module = locator.findModule(diff);
+            if (module.isEmpty() || !coverageByModule.containsKey(module.get().getName())) {
                 continue;
             }
+            var moduleName = module.get().getName();
+            var sourcePath = locator.sourcePath(module.get(), diff).orElseThrow();
+            var changedFile = changedFilesByKey.get(moduleName + ":" + sourcePath);
+            if (changedFile == null) {
+                var sourceCoverage = moduleToSourceCoverage
+                        .computeIfAbsent(moduleName, name -> sourceFilesByPath(coverageByModule.get(name)))
+                        .get(sourcePath);
+                if (sourceCoverage == null) {
+                    continue;
+                }
+                var classes = moduleToClasses
+                        .computeIfAbsent(moduleName, name -> classesBySourceFile(coverageByModule.get(name)))
+                        .getOrDefault(sourcePath, List.of());
+                changedFile = new ChangedFile(diff, sourceCoverage, classes, new LineSet());
+                changedFilesByKey.put(moduleName + ":" + sourcePath, changedFile);
+            }
+            changedFile.changedLines().add(diff.getBeginChanges(), diff.getEndChanges());
+        }
+        var changedFiles = List.copyOf(changedFilesByKey.values());
 
-            var fileName = fullFileNameWithPackage(classCoverage);
-            var classCodeLines = readClassAsStrings(fileName);
+        evaluateInOrder(changedFiles, "changed files",
+                changedFile -> evaluateFile(changedFile, state, locator, testIndex),
+                evaluation -> report(evaluation, sink, totals));
 
-            var uncoveredCodeLines = new ArrayList<CodeLine>();
-            var partlyCoveredCodeLines = new ArrayList<CodeLine>();
+        if (testIndex != null) {
+            testIndex.writeAffectedTests(settings.getAffectedTestsFile().toPath());
+        }
+        if (settings.isDeltaMode()) {
+            compareWithBaseline(sink, allDiffs, locator, execData, state);
+        }
+        finish(sink, totals.toReportTotals());
+    }
 
-            var acceptableCoveringLines = 0;
-            var diffMissedBranches = 0;
-            var diffCoveredBranches = 0;
+    /**
+     * Evaluates items on a bounded pool if there are several evaluation workers, at most a few items per worker
+     * are evaluated ahead of the item being reported. Results are reported in the order of items,
+     * so the report is the same as evaluated on one thread
+     *
+     * @param description items in log messages, e.g. changed files
+     */
+    private <T, R> void evaluateInOrder(List<T> items,
+                                        String description,
+                                        Function<T, R> evaluation,
+                                        Consumer<R> reporting) {
+        if (settings.getEvaluationWorkers() <= 1 || items.size() <= 1) {
+            for (var item : items) {
+                reporting.accept(evaluation.apply(item));
+            }
+            return;
+        }
 
-            for (var i = diff.getBeginChanges(); i < diff.getEndChanges(); i++) {
-                var coverageReportLine = classCoverage.getLine(i + 1);
-                var coverageLineStatus = coverageReportLine.getStatus();
-                var currentCodeLine = classCodeLines.get(i);
+        var workers = Math.min(settings.getEvaluationWorkers(), items.size());
+        log.info("Evaluating {} {} with {} workers", items.size(), description, workers);
 
-                if (coverageLineStatus != ICounter.EMPTY) {
-                    acceptableCoveringLines++;
+        var pool = new ForkJoinPool(workers);
+        var pending = new ArrayDeque<Future<R>>();
+        try {
+            var next = 0;
+            while (next < items.size() || !pending.isEmpty()) {
+                while (next < items.size() && pending.size() < workers * FILES_AHEAD_PER_WORKER) {
+                    var item = items.get(next++);
+                    pending.add(pool.submit(() -> evaluation.apply(item)));
                 }
+                reporting.accept(pending.remove().get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CoverageTaskException(ex);
+        } catch (ExecutionException ex) {
+            log.error("Something goes wrong during parallel evaluation of {}", description);
+            throw ex.getCause() instanceof CoverageTaskException cte ? cte : new CoverageTaskException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 
-                if (coverageLineStatus == ICounter.NOT_COVERED) {
-                    uncoveredCodeLines.add(createLine(currentCodeLine, i));
+    /**
+     * Compares every package of every module with the classes built from the target branch and passes sources
+     * having unchanged lines which lost coverage to the sink. Lines of changed files are mapped to the target branch
+     * with their edit lists, all other files are the same on both branches
+     *
+     * @param allDiffs diffs of the changes including deleted lines
+     * @param execData execution data of all current classes
+     */
+    private void compareWithBaseline(CoverageReportSink sink,
+                                     List<GitDiff> allDiffs,
+                                     ChangedClassesLocator locator,
+                                     ExecutionDataStore execData,
+                                     SharedCoverageState state) {
+        var baselineExecData = loadExecData(settings.getBaselineExecFiles(), null, Stage.BASELINE_COMPARISON);
+        var comparator = new BaselineComparator(execData, baselineExecData, settings.getBaselineClassesDirs());
+        var mappings = allDiffs.stream()
+                .collect(Collectors.groupingBy(GitDiff::getFilePath,
+                        Collectors.collectingAndThen(Collectors.toList(), LineMapping::of)));
+
+        var packages = new ArrayList<ModulePackage>();
+        for (var module : settings.getModules()) {
+            BaselineComparator.packageDirs(module.getClassesDirs())
+                    .forEach(packageDir -> packages.add(new ModulePackage(module, packageDir)));
+        }
+        log.info("Comparing {} packages with the baseline of the target branch", packages.size());
+
+        evaluateInOrder(packages, "packages", modulePackage -> {
+            try (var stage = metrics.start(Stage.BASELINE_COMPARISON)) {
+                var module = modulePackage.module();
+                var regressions = new ArrayList<CoverageRegression>();
+                var sourceRegressions = comparator.compare(module.getClassesDirs(), modulePackage.packageDir(),
+                        sourcePath -> locator.repositoryPath(module, sourcePath)
+                                .map(filePath -> mappings.getOrDefault(filePath, LineMapping.IDENTITY))
+                                .orElse(null));
+                for (var sourceRegression : sourceRegressions) {
+                    var filePath = locator.repositoryPath(module, sourceRegression.sourcePath()).orElseThrow();
+                    regressions.add(toRegression(sourceRegression, readSourceFile(state, locator, filePath)));
+                    stage.metrics().count("lostLines", sourceRegression.uncoveredLines().cardinality()
+                            + sourceRegression.lostBranchLines().cardinality());
                 }
+                stage.metrics().count("comparedPackages", 1);
+                return regressions;
+            }
+        }, regressions -> {
+            try (var stage = metrics.start(Stage.REPORT_WRITING)) {
+                regressions.forEach(sink::acceptRegression);
+                stage.metrics().count("reportedRegressions", regressions.size());
+            }
+        });
+
+        var stageMetrics = metrics.get(Stage.BASELINE_COMPARISON);
+        stageMetrics.count("classesAnalyzed", comparator.getAnalyzedClasses());
+        stageMetrics.count("skippedPackages", comparator.getSkippedPackages());
+    }
+
+    private CoverageRegression toRegression(BaselineComparator.SourceRegression sourceRegression,
+                                            IndexedSourceFile sourceFile) {
+        var unitIndex = SourceUnitIndex.of(sourceRegression.classes());
+        var uncoveredLines = new ArrayList<CodeLine>();
+        var lines = sourceRegression.uncoveredLines();
+        for (var run = 0; run < lines.runCount(); run++) {
+            for (var i = lines.runBegin(run); i < lines.runEnd(run); i++) {
+                var method = unitIndex.enclosingMethod(i + 1);
+                uncoveredLines.add(createLine(sourceFile.line(i), i, method == null ? null : method.displayName()));
+            }
+        }
+
+        var lostBranchLines = new ArrayList<CodeLine>();
+        lines = sourceRegression.lostBranchLines();
+        for (var run = 0; run < lines.runCount(); run++) {
+            for (var i = lines.runBegin(run); i < lines.runEnd(run); i++) {
+                var branches = sourceRegression.coverage().getLine(i + 1).getBranchCounter();
+                lostBranchLines.add(createLineForMissBranch(sourceFile.line(i), i, branches.getCoveredCount(),
+                        branches.getMissedCount()));
+            }
+        }
+
+        return CoverageRegression.builder()
+                .fileName(fullFileNameWithPackage(sourceRegression.coverage()))
+                .uncoveredCodeLines(uncoveredLines)
+                .lostBranchCodeLines(lostBranchLines)
+                .build();
+    }
 
-                // if branch is not covered at all it has status = 1(NOT_COVERED) and has missed branches
-                if (coverageLineStatus == ICounter.PARTLY_COVERED || hasBranches(coverageReportLine)) {
-                    var coveredBranches = coverageReportLine.getBranchCounter().getCoveredCount();
-                    var missedBranches = coverageReportLine.getBranchCounter().getMissedCount();
+    /**
+     * Reads the source of the changed file and evaluates all its diffs together with its methods and classes,
+     * may run on any thread
+     */
+    private FileEvaluation evaluateFile(ChangedFile changedFile,
+                                              SharedCoverageState state,
+                                              ChangedClassesLocator locator,
+                                              TestCoverageIndex testIndex) {
+        var fileName = fullFileNameWithPackage(changedFile.classCoverage());
+        var fileTests = testIndex == null ? Map.<Integer, SortedSet<String>>of() : testIndex.fileTests(fileName);
+        IndexedSourceFile sourceFile;
+        try (var stage = metrics.start(Stage.SOURCE_READING)) {
+            sourceFile = readSourceFile(state, locator, changedFile.firstDiff().getFilePath());
+            stage.metrics().addBytesRead(sourceFile.size());
+            stage.metrics().count("sourceFiles", 1);
+        }
+        return evaluateChangedLines(changedFile, fileName, sourceFile, fileTests);
+    }
+
+    /**
+     * Evaluates hunks of the changed file, totals count every changed line whether its hunk is reported or not
+     *
+     * @param fileTests tests covering changed lines of the file by one based line number
+     */
+    FileEvaluation evaluateChangedLines(ChangedFile changedFile,
+                                        String fileName,
+                                        IndexedSourceFile sourceFile,
+                                        Map<Integer, SortedSet<String>> fileTests) {
+        // Changes of one file are evaluated first and written afterward to measure both stages separately
+        var fileChanges = new ArrayList<CoverageChange>();
+        var fileTotals = new TotalsCounter();
+        List<UnitCoverage> units;
+        try (var stage = metrics.start(Stage.LINE_EVALUATION)) {
+            var coverageTable = LineCoverageTable.of(changedFile.classCoverage());
+            var unitIndex = SourceUnitIndex.of(changedFile.classes());
+            var hunks = changedFile.hunks();
+            for (var hunk : hunks) {
+                evaluateDiff(hunk, coverageTable, fileName, sourceFile, unitIndex).ifPresent(fileChanges::add);
+            }
+            // Hunks are merged, so no changed line is counted twice
+            fileTotals.add(changedFile.changedLines(), coverageTable);
+            units = evaluateUnits(fileName, unitIndex, hunks);
+            stage.metrics().count("changedLines", changedFile.changedLines().cardinality());
+            stage.metrics().count("mergedHunks", hunks.size());
+            stage.metrics().count("indexedUnits", unitIndex.size());
+            stage.metrics().count("changedUnits", units.size());
+        }
+        return new FileEvaluation(fileName, fileChanges, units, fileTotals, lineTests(fileName, fileTests));
+    }
 
-                    var line = createLineForMissBranch(currentCodeLine, i, coveredBranches, missedBranches);
+    private void report(FileEvaluation evaluation, CoverageReportSink sink, TotalsCounter totals) {
+        try (var stage = metrics.start(Stage.REPORT_WRITING)) {
+            totals.add(evaluation.totals());
+            for (var change : evaluation.changes()) {
+                sink.accept(change);
+            }
+            if (!evaluation.units().isEmpty()) {
+                sink.acceptUnits(evaluation.units());
+            }
+            sink.acceptFileTotals(evaluation.fileName(), evaluation.totals().toReportTotals());
+            if (evaluation.lineTests() != null) {
+                sink.acceptLineTests(evaluation.lineTests());
+            }
+            stage.metrics().count("reportedChanges", evaluation.changes().size());
+        }
+    }
 
-                    diffCoveredBranches += coveredBranches;
-                    diffMissedBranches += missedBranches;
-                    partlyCoveredCodeLines.add(line);
+    /**
+     * Aggregates changed lines of the file by method and by class, line statuses and branches are counted
+     * the same way as for the changes. Methods and classes without changed lines are skipped
+     *
+     * @param unitIndex methods and classes compiled from the file, only those overlapping a diff are visited
+     * @return methods of every class followed by the class itself
+     */
+    List<UnitCoverage> evaluateUnits(String fileName, SourceUnitIndex unitIndex, List<GitDiff> diffs) {
+        var counters = new UnitCounter[unitIndex.size()];
+        for (var diff : diffs) {
+            // Diffs are zero based with an exclusive end, lines of units are one based and inclusive
+            var fromLine = diff.getBeginChanges() + 1;
+            var toLine = diff.getEndChanges();
+            unitIndex.overlapping(fromLine, toLine, unit -> {
+                var counter = counters[unit.order()];
+                if (counter == null) {
+                    counter = new UnitCounter(unit);
+                    counters[unit.order()] = counter;
                 }
+                counter.addChangedLines(fromLine, toLine);
+            });
+        }
+
+        var units = new ArrayList<UnitCoverage>();
+        for (var counter : counters) {
+            if (counter != null && counter.allLines > 0) {
+                units.add(counter.toUnitCoverage(fileName));
             }
+        }
+        return units;
+    }
 
-            if (!uncoveredCodeLines.isEmpty()) {
-                var codeBlock = buildCodeBlock(diff.getBeginChanges(), diff.getEndChanges(), classCodeLines);
-                var report = CoverageChange.builder()
-                        .newCodeBlock(codeBlock)
-                        .uncoveredCodeLines(uncoveredCodeLines)
-                        .acceptableLinesForCovering(acceptableCoveringLines)
-                        .partlyCoveredCodeLines(partlyCoveredCodeLines)
-                        .coveredBranches(diffCoveredBranches)
-                        .missedBranches(diffMissedBranches)
-                        .fileName(fileName)
-                        .build();
-                coverageChanges.add(report);
+    private void finish(CoverageReportSink sink, ReportTotals totals) {
+        try (var ignored = metrics.start(Stage.REPORT_WRITING)) {
+            sink.finish(totals);
+        }
+    }
+
+    /**
+     * @param unitIndex methods of the file, uncovered lines are attributed to the method having code on them
+     */
+    Optional<CoverageChange> evaluateDiff(GitDiff diff,
+                                          LineCoverageTable coverageTable,
+                                          String fileName,
+                                          IndexedSourceFile sourceFile,
+                                          SourceUnitIndex unitIndex) {
+        // Only changes with uncovered lines are reported, others are skipped without any allocation.
+        // Missed branches of other changes are counted in the totals and checked by the branch gate
+        if (!coverageTable.hasUncoveredLines(diff.getBeginChanges() + 1, diff.getEndChanges() + 1)) {
+            return Optional.empty();
+        }
+
+        var uncoveredCodeLines = new ArrayList<CodeLine>();
+        var partlyCoveredCodeLines = new ArrayList<CodeLine>();
+
+        var acceptableCoveringLines = 0;
+        var diffMissedBranches = 0;
+        var diffCoveredBranches = 0;
+
+        for (var i = diff.getBeginChanges(); i < diff.getEndChanges(); i++) {
+            var coverageLineStatus = coverageTable.status(i + 1);
+
+            if (coverageLineStatus != ICounter.EMPTY) {
+                acceptableCoveringLines++;
+            }
+
+            if (coverageLineStatus == ICounter.NOT_COVERED) {
+                var method = unitIndex.enclosingMethod(i + 1);
+                var methodName = method == null ? null : method.displayName();
+                uncoveredCodeLines.add(createLine(sourceFile.line(i), i, methodName));
+            }
+
+            // if branch is not covered at all it has status = 1(NOT_COVERED) and has missed branches
+            if (coverageLineStatus == ICounter.PARTLY_COVERED || coverageTable.hasBranches(i + 1)) {
+                var coveredBranches = coverageTable.coveredBranches(i + 1);
+                var missedBranches = coverageTable.missedBranches(i + 1);
+
+                var line = createLineForMissBranch(sourceFile.line(i), i, coveredBranches, missedBranches);
+
+                diffCoveredBranches += coveredBranches;
+                diffMissedBranches += missedBranches;
+                partlyCoveredCodeLines.add(line);
             }
         }
 
-        return createReport(coverageChanges);
+        var codeBlock = buildCodeBlock(diff.getBeginChanges(), diff.getEndChanges(), sourceFile);
+        return Optional.of(CoverageChange.builder()
+                .newCodeBlock(codeBlock)
+                .uncoveredCodeLines(uncoveredCodeLines)
+                .acceptableLinesForCovering(acceptableCoveringLines)
+                .partlyCoveredCodeLines(partlyCoveredCodeLines)
+                .coveredBranches(diffCoveredBranches)
+                .missedBranches(diffMissedBranches)
+                .fileName(fileName)
+                .build());
     }
 
-    private List<String> readClassAsStrings(String fileName) {
-        List<String> classCodeLines;
-        try {
-            log.info("Read source class file as strings");
-            classCodeLines = Files.readAllLines(Path.of(SOURCE_FILES + fileName));
-        } catch (IOException e) {
-            log.error("Could not open source file");
-            throw new CoverageTaskException(e);
+    /**
+     * @param fileTests tests of changed lines of the file by one based line number, indexed for changed lines only
+     * @return tests by zero based line number, null if no test covers a changed line of the file
+     */
+    private static ChangedLineTests lineTests(String fileName, Map<Integer, SortedSet<String>> fileTests) {
+        if (fileTests.isEmpty()) {
+            return null;
         }
-        return classCodeLines;
+        var lineTests = new TreeMap<Integer, List<String>>();
+        fileTests.forEach((line, tests) -> lineTests.put(line - 1, List.copyOf(tests)));
+        return ChangedLineTests.builder()
+                .fileName(fileName)
+                .lineTests(lineTests)
+                .build();
     }
 
-    private String fullFileNameWithPackage(ISourceFileCoverage classCoverage) {
-        return String.join("/", classCoverage.getPackageName(), classCoverage.getName());
+    private List<GitDiff> computeGitDiffs(SharedCoverageState state, GitDiffOptions gitDiffOptions) {
+        if (settings.getDiffMode().isUncommitted()) {
+            var repository = state.repository(settings.getGitDir());
+            if (settings.getDiffMode() == DiffMode.STAGED) {
+                stagedIndex = GitUtils.readIndex(repository);
+            }
+            return GitUtils.getUncommittedChanges(repository, targetBranch, settings.getDiffMode(), gitDiffOptions);
+        }
+        if (state == null) {
+            return GitUtils.getChangesInNewBranch(targetBranch, settings.getGitDir().getPath(), gitDiffOptions);
+        }
+
+        var repository = state.repository(settings.getGitDir());
+        return settings.getHeadRevision() == null
+                ? GitUtils.getChangesInNewBranch(repository, targetBranch, gitDiffOptions)
+                : GitUtils.getChanges(repository, settings.getHeadRevision(), targetBranch, gitDiffOptions);
+    }
+
+    /**
+     * @param filePath path of the source relative to the repository root
+     */
+    private IndexedSourceFile readSourceFile(SharedCoverageState state,
+                                             ChangedClassesLocator locator,
+                                             String filePath) {
+        if (settings.getDiffMode() == DiffMode.STAGED) {
+            log.info("Read staged source class file {}", filePath);
+            var repository = state.repository(settings.getGitDir());
+            return IndexedSourceFile.of(GitUtils.readStagedFile(repository, stagedIndex, filePath));
+        }
+        if (settings.getDiffMode() == DiffMode.BRANCH && settings.getHeadRevision() != null) {
+            log.info("Read source class file {} of {}", filePath, settings.getHeadRevision());
+            var repository = state.repository(settings.getGitDir());
+            return IndexedSourceFile.of(GitUtils.readFile(repository, settings.getHeadRevision(), filePath));
+        }
+
+        var sourceFile = locator.sourceFile(filePath);
+        log.info("Read source class file {}", sourceFile);
+        return IndexedSourceFile.open(sourceFile);
     }
 
-    private boolean hasBranches(ILine lineInfo) {
-        return lineInfo.getBranchCounter().getTotalCount() != 0;
+    private String fullFileNameWithPackage(ISourceFileCoverage classCoverage) {
+        return String.join("/", classCoverage.getPackageName(), classCoverage.getName());
     }
 
-    private CodeLine createLine(String text, int lineNumber) {
-        return createLineForMissBranch(text, lineNumber, 0, 0);
+    private CodeLine createLine(String text, int lineNumber, String method) {
+        return CodeLine.builder()
+                .text(text)
+                .lineNumber(lineNumber)
+                .branch(NO_BRANCHES)
+                .method(method)
+                .build();
     }
 
     private CodeLine createLineForMissBranch(String text,
@@ -157,83 +582,256 @@ public class CoverageService {
     }
 
     /**
-     * Read data form Jacoco generated file *.exec
-     * Analyze data and write it to CoverageBuilder
+     * Read and merge data form the given Jacoco generated files *.exec
      *
-     * @return CoverageBuilder with classes which were analyzed
+     * @param classIds ids of classes to keep execution data of, null to keep all classes
+     * @param stage    stage the loading is measured in
      */
-    private CoverageBuilder analyzeCode() {
-        var execFileLoader = new ExecFileLoader();
-        var coverageBuilder = new CoverageBuilder();
-        var sourceDir = new File(BUILD_CLASSES);
-
-        try {
-            log.info("Starting analyzing classes using jacoco report");
-            execFileLoader.load(new File(JACOCO_EXEC_FILE));
-            var analyzer = new Analyzer(execFileLoader.getExecutionDataStore(), coverageBuilder);
-            analyzer.analyzeAll(sourceDir);
+    private ExecutionDataStore loadExecData(List<File> execFiles, Set<Long> classIds, Stage stage) {
+        try (var timer = metrics.start(stage)) {
+            log.info("Loading {} jacoco exec files", execFiles.size());
+            var execDataLoader = new ExecDataLoader(classIds, new File(settings.getWorkDir(), EXEC_INDEX_DIR));
+            for (var execFile : execFiles) {
+                if (execFile.isFile()) {
+                    execDataLoader.load(execFile);
+                    timer.metrics().count("execFiles", 1);
+                } else {
+                    log.warn("Jacoco exec file {} does not exist", execFile);
+                }
+            }
+            timer.metrics().addBytesRead(execDataLoader.getBytesRead());
+            timer.metrics().count("indexedExecFiles", execDataLoader.getIndexedFiles());
+            timer.metrics().count("skippedExecData", execDataLoader.getSkippedBlocks());
+            timer.metrics().count("classesWithExecData", execDataLoader.getExecutionDataStore().getContents().size());
+            return execDataLoader.getExecutionDataStore();
         } catch (IOException ex) {
-            log.error("Something goes wrong during analyzing class");
+            log.error("Could not load jacoco exec file");
             throw new CoverageTaskException(ex);
         }
+    }
 
-        return coverageBuilder;
+    /**
+     * Analyze data only for the given class files of every module and write it to CoverageBuilder of the module
+     *
+     * @param classFilesByModule class files or directories to analyze grouped by module name
+     * @param state              shared state with the analysis cache, null if the cache is created for this evaluation
+     * @return CoverageBuilder with classes which were analyzed for every module
+     */
+    private Map<String, CoverageBuilder> analyzeCode(Map<String, List<File>> classFilesByModule,
+                                                     ExecutionDataStore execData,
+                                                     SharedCoverageState state) {
+
+        var analysisCache = settings.isAnalysisCache() ? createAnalysisCache(state) : null;
+        var cacheHitsBefore = analysisCache == null ? 0 : analysisCache.getHits();
+        var cacheMissesBefore = analysisCache == null ? 0 : analysisCache.getMisses();
+        var analyzer = new ParallelCodeAnalyzer(execData,
+                settings.getAnalysisWorkers(),
+                analysisCache);
+        try (var stage = metrics.start(Stage.CLASS_ANALYSIS)) {
+            var coverageByModule = analyzer.analyze(classFilesByModule);
+            stage.metrics().count("classesAnalyzed", analyzer.getAnalyzedClasses());
+            stage.metrics().addBytesRead(analyzer.getBytesRead());
+            stage.metrics().addAllocatedBytes(analyzer.getWorkerAllocatedBytes());
+            if (analysisCache != null) {
+                stage.metrics().count("cacheHits", analysisCache.getHits() - cacheHitsBefore);
+                stage.metrics().count("cacheMisses", analysisCache.getMisses() - cacheMissesBefore);
+                stage.metrics().count("cacheEvicted", analysisCache.evictIfDue());
+            }
+            return coverageByModule;
+        }
     }
 
-    private String buildCodeBlock(int start, int end, List<String> stringList) {
+    private TestCoverageIndex indexTests(Map<String, List<File>> classFilesByModule, List<GitDiff> gitDiffs) {
+        try (var stage = metrics.start(Stage.TEST_INDEX)) {
+            var classFiles = classFilesByModule.values().stream().flatMap(List::stream).toList();
+            var testIndex = TestCoverageIndex.build(execFiles(), classFiles, gitDiffs, settings.getAnalysisWorkers());
+            stage.metrics().count("testSessions", testIndex.getSessions());
+            stage.metrics().count("classesAnalyzed", testIndex.getAnalyzedClasses());
+            return testIndex;
+        }
+    }
+
+    private List<File> execFiles() {
+        return Stream.concat(
+                        settings.getModules().stream().flatMap(module -> module.getExecFiles().stream()),
+                        settings.getAdditionalExecFiles().stream())
+                .distinct()
+                .toList();
+    }
+
+    private AnalysisCache createAnalysisCache(SharedCoverageState state) {
+        var cacheDir = new File(settings.getWorkDir(), ANALYSIS_CACHE_DIR);
+        return state == null ? new AnalysisCache(cacheDir) : state.analysisCache(cacheDir);
+    }
+
+    private String buildCodeBlock(int start, int end, IndexedSourceFile sourceFile) {
         var strBuilder = new StringBuilder();
         for (var i = start; i < end; i++) {
-            strBuilder.append(i + 1).append(": ").append(stringList.get(i)).append("\n");
+            strBuilder.append(i + 1).append(": ").append(sourceFile.line(i)).append("\n");
         }
         return strBuilder.toString();
     }
 
-    private Map<String, ISourceFileCoverage> filterAndMapGitChangedClasses(CoverageBuilder coverageBuilder,
-                                                                           Set<String> gitChangedClassesNames) {
+    /**
+     * Source files by their path relative to the source directory, jacoco keeps one source file per package and name
+     */
+    private Map<String, ISourceFileCoverage> sourceFilesByPath(CoverageBuilder coverageBuilder) {
         return coverageBuilder.getSourceFiles()
                 .stream()
-                .filter(sf -> gitChangedClassesNames.contains(sf.getName()))
-                .collect(Collectors.toMap(ISourceFileCoverage::getName, Function.identity()));
+                .collect(Collectors.toMap(sourceFile -> sourcePath(sourceFile.getPackageName(), sourceFile.getName()),
+                        Function.identity()));
     }
 
-    private int sumAllLines(List<CoverageChange> result) {
-        return result.stream()
-                .mapToInt(CoverageChange::getAcceptableLinesForCovering)
-                .sum();
+    /**
+     * Classes of every source file by its path relative to the source directory
+     */
+    private Map<String, List<IClassCoverage>> classesBySourceFile(CoverageBuilder coverageBuilder) {
+        return coverageBuilder.getClasses()
+                .stream()
+                .filter(classCoverage -> classCoverage.getSourceFileName() != null)
+                .collect(Collectors.groupingBy(classCoverage ->
+                        sourcePath(classCoverage.getPackageName(), classCoverage.getSourceFileName())));
     }
 
-    private int sumCoveredLines(List<CoverageChange> result, int allLines) {
-        var uncoveredLines = result.stream()
-                .mapToInt(r -> r.getUncoveredCodeLines().size())
-                .sum();
-        return allLines - uncoveredLines;
+    static String sourcePath(String packageName, String sourceFileName) {
+        return packageName.isEmpty() ? sourceFileName : packageName + "/" + sourceFileName;
     }
 
-    private int sumAllBranches(List<CoverageChange> result, int coveredBranches) {
-        var missedBranches = result.stream()
-                .mapToInt(CoverageChange::getMissedBranches)
-                .sum();
-        return missedBranches + coveredBranches;
+    /**
+     * Changed lines of a source file together with the coverage of the source file and of the classes compiled
+     * from it. The source is read from the path of the first diff
+     */
+    record ChangedFile(GitDiff firstDiff,
+                       ISourceFileCoverage classCoverage,
+                       List<IClassCoverage> classes,
+                       LineSet changedLines) {
+
+        /**
+         * @return changed lines as hunks without overlaps in the order of lines
+         */
+        List<GitDiff> hunks() {
+            var hunks = new ArrayList<GitDiff>(changedLines.runCount());
+            for (var run = 0; run < changedLines.runCount(); run++) {
+                hunks.add(GitDiff.builder()
+                        .filePath(firstDiff.getFilePath())
+                        .changedFileName(firstDiff.getChangedFileName())
+                        .beginChanges(changedLines.runBegin(run))
+                        .endChanges(changedLines.runEnd(run))
+                        .build());
+            }
+            return hunks;
+        }
     }
 
-    private int sumCoveredBranches(List<CoverageChange> result) {
-        return result.stream()
-                .mapToInt(CoverageChange::getCoveredBranches)
-                .sum();
+    /**
+     * Package directory of a module compared with the baseline
+     */
+    private record ModulePackage(ModuleLayout module, String packageDir) {
     }
 
-    private Report createReport(List<CoverageChange> coverageChanges) {
-        var coveredBranches = sumCoveredBranches(coverageChanges);
-        var allBranches = sumAllBranches(coverageChanges, coveredBranches);
-        var allLines = sumAllLines(coverageChanges);
-        var coveredLines = sumCoveredLines(coverageChanges, allLines);
+    /**
+     * Changes of a changed file to report, together with its methods and classes having changed lines
+     * and the totals of all its changed lines. Tests of changed lines are null if no test covers any of them
+     */
+    record FileEvaluation(String fileName,
+                          List<CoverageChange> changes,
+                          List<UnitCoverage> units,
+                          TotalsCounter totals,
+                          ChangedLineTests lineTests) {
+    }
 
-        return Report.builder()
-                .changes(coverageChanges)
-                .allLines(allLines)
-                .coveredLines(coveredLines)
-                .allBranches(allBranches)
-                .coveredBranches(coveredBranches)
-                .build();
+    /**
+     * Counts changed lines and their branches of a single method or class
+     */
+    private static class UnitCounter {
+        private final SourceUnitIndex.Unit unit;
+        private int allLines;
+        private int coveredLines;
+        private int allBranches;
+        private int coveredBranches;
+
+        UnitCounter(SourceUnitIndex.Unit unit) {
+            this.unit = unit;
+        }
+
+        /**
+         * @param fromLine one based first changed line, inclusive
+         * @param toLine   one based last changed line, inclusive
+         */
+        void addChangedLines(int fromLine, int toLine) {
+            var to = Math.min(unit.lastLine(), toLine);
+            for (var nr = Math.max(unit.firstLine(), fromLine); nr <= to; nr++) {
+                var line = unit.node().getLine(nr);
+                if (line.getStatus() == ICounter.EMPTY) {
+                    continue;
+                }
+                allLines++;
+                if (line.getStatus() != ICounter.NOT_COVERED) {
+                    coveredLines++;
+                }
+                allBranches += line.getBranchCounter().getTotalCount();
+                coveredBranches += line.getBranchCounter().getCoveredCount();
+            }
+        }
+
+        UnitCoverage toUnitCoverage(String fileName) {
+            return UnitCoverage.builder()
+                    .level(unit.isMethod() ? UnitCoverage.Level.METHOD : UnitCoverage.Level.CLASS)
+                    .fileName(fileName)
+                    .className(unit.classCoverage().getName())
+                    .methodName(unit.methodName())
+                    .firstLine(unit.firstLine())
+                    .lastLine(unit.lastLine())
+                    .allLines(allLines)
+                    .coveredLines(coveredLines)
+                    .allBranches(allBranches)
+                    .coveredBranches(coveredBranches)
+                    .build();
+        }
+    }
+
+    /**
+     * Running totals of the report
+     */
+    static class TotalsCounter {
+        private int allLines;
+        private int uncoveredLines;
+        private int coveredBranches;
+        private int missedBranches;
+
+        /**
+         * Counts lines and branches of the set the same way as {@link #evaluateDiff} counts them for a change
+         */
+        void add(LineSet lines, LineCoverageTable coverageTable) {
+            for (var run = 0; run < lines.runCount(); run++) {
+                for (var line = lines.runBegin(run) + 1; line <= lines.runEnd(run); line++) {
+                    var status = coverageTable.status(line);
+                    if (status != ICounter.EMPTY) {
+                        allLines++;
+                    }
+                    if (status == ICounter.NOT_COVERED) {
+                        uncoveredLines++;
+                    }
+                    coveredBranches += coverageTable.coveredBranches(line);
+                    missedBranches += coverageTable.missedBranches(line);
+                }
+            }
+        }
+
+        void add(TotalsCounter other) {
+            allLines += other.allLines;
+            uncoveredLines += other.uncoveredLines;
+            coveredBranches += other.coveredBranches;
+            missedBranches += other.missedBranches;
+        }
+
+        ReportTotals toReportTotals() {
+            return ReportTotals.builder()
+                    .allLines(allLines)
+                    .coveredLines(allLines - uncoveredLines)
+                    .allBranches(missedBranches + coveredBranches)
+                    .coveredBranches(coveredBranches)
+                    .build();
+        }
     }
 }
@@ -0,0 +1,133 @@
+package ru.spb.coverage.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.internal.data.CRC64;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Replacement of {@link org.jacoco.core.tools.ExecFileLoader} which keeps execution data only of the given classes,
+ * so merged exec files of any size are read with bounded memory.
+ * An exec file is streamed once and offsets of its execution data are saved to an {@link ExecFileIndex},
+ * following reads of the unchanged exec file seek straight to the execution data of the given classes
+ */
+@Slf4j
+public class ExecDataLoader {
+
+    private static final int BLOCK_BUFFER_SIZE = 1024;
+
+    private final Set<Long> classIds;
+    private final Path indexDir;
+    private final ExecutionDataStore executionDataStore = new ExecutionDataStore();
+    private long bytesRead;
+    private long skippedBlocks;
+    private int indexedFiles;
+
+    /**
+     * @param classIds ids of classes to keep execution data of, null to keep all classes
+     * @param indexDir directory of exec file indexes, null to always stream exec files
+     */
+    public ExecDataLoader(Set<Long> classIds, File indexDir) {
+        this.classIds = classIds;
+        this.indexDir = indexDir == null ? null : indexDir.toPath();
+    }
+
+    /**
+     * @return jacoco ids of the classes or null if any of the files is not a class file, e.g. a directory
+     */
+    public static Set<Long> classIds(Collection<File> classFiles) {
+        var classIds = new HashSet<Long>();
+        for (var classFile : classFiles) {
+            if (!classFile.isFile() || !classFile.getName().endsWith(".class")) {
+                return null;
+            }
+            try {
+                classIds.add(CRC64.classId(Files.readAllBytes(classFile.toPath())));
+            } catch (IOException ex) {
+                log.error("Could not read class file {}", classFile);
+                throw new CoverageTaskException(ex);
+            }
+        }
+        return classIds;
+    }
+
+    public void load(File execFile) throws IOException {
+        var path = execFile.toPath();
+        var stamp = ExecFileIndex.ExecFileStamp.of(path);
+        if (classIds != null && indexDir != null) {
+            var index = ExecFileIndex.find(indexDir, stamp);
+            if (index.isPresent()) {
+                try {
+                    loadIndexed(path, index.get());
+                    indexedFiles++;
+                    return;
+                } catch (IOException ex) {
+                    // Probes are merged, so execution data read before the failure is harmless
+                    log.debug("Exec file index of {} is stale, exec file would be read in full", execFile);
+                }
+            }
+        }
+
+        var indexBuilder = indexDir == null ? null : new ExecFileIndex.Builder();
+        try (var in = new BufferedInputStream(Files.newInputStream(path))) {
+            var reader = FilteringExecutionDataReader.of(in, classIds, indexBuilder);
+            reader.setSessionInfoVisitor(info -> {
+            });
+            reader.setExecutionDataVisitor(executionDataStore);
+            reader.read();
+            bytesRead += reader.position();
+            skippedBlocks += reader.getSkippedBlocks();
+        }
+        if (indexBuilder != null) {
+            indexBuilder.store(indexDir, stamp);
+        }
+    }
+
+    public ExecutionDataStore getExecutionDataStore() {
+        return executionDataStore;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return execution data blocks of other classes which were skipped
+     */
+    public long getSkippedBlocks() {
+        return skippedBlocks;
+    }
+
+    /**
+     * @return exec files read through the index
+     */
+    public int getIndexedFiles() {
+        return indexedFiles;
+    }
+
+    private void loadIndexed(Path execFile, ExecFileIndex index) throws IOException {
+        var offsets = index.offsets(classIds);
+        log.info("Reading {} execution data blocks of {} indexed in exec file {}", offsets.length, index.size(), execFile);
+        try (var channel = FileChannel.open(execFile)) {
+            for (var offset : offsets) {
+                channel.position(offset);
+                var in = new BufferedInputStream(Channels.newInputStream(channel), BLOCK_BUFFER_SIZE);
+                var reader = FilteringExecutionDataReader.of(in, classIds, null);
+                reader.setExecutionDataVisitor(executionDataStore);
+                reader.readExecutionDataBlock();
+                bytesRead += reader.position();
+            }
+            skippedBlocks += index.size() - offsets.length;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package ru.spb.coverage.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Offsets of execution data blocks of an exec file by class id, saved in the work directory.
+ * Entries are sorted by class id and the index is memory mapped, so execution data of a few classes is found
+ * by binary search without reading either the index or the exec file on heap.
+ * The index is valid while the exec file has the same path, length and modification time
+ */
+@Slf4j
+class ExecFileIndex {
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String ENTRY_EXTENSION = ".idx";
+    private static final int ENTRY_BYTES = Long.BYTES * 2;
+
+    private final ByteBuffer entries;
+    private final int size;
+
+    private ExecFileIndex(ByteBuffer entries, int size) {
+        this.entries = entries;
+        this.size = size;
+    }
+
+    /**
+     * @return index of the exec file if it was saved for the current content of the exec file
+     */
+    static Optional<ExecFileIndex> find(Path indexDir, ExecFileStamp stamp) {
+        var indexFile = indexFile(indexDir, stamp);
+        if (!Files.isRegularFile(indexFile)) {
+            return Optional.empty();
+        }
+
+        try (var channel = FileChannel.open(indexFile)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != FORMAT_VERSION || !stamp.equals(readStamp(buffer))) {
+                return Optional.empty();
+            }
+            var size = buffer.getInt();
+            var entries = buffer.slice();
+            if (entries.remaining() != (long) size * ENTRY_BYTES) {
+                return Optional.empty();
+            }
+            return Optional.of(new ExecFileIndex(entries, size));
+        } catch (IOException | RuntimeException ex) {
+            log.debug("Could not read exec file index {}, exec file would be read in full", indexFile);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return offsets of execution data blocks of the given classes in ascending order
+     */
+    long[] offsets(Set<Long> classIds) {
+        var offsets = new ArrayList<Long>();
+        for (var classId : classIds) {
+            for (var i = lowerBound(classId); i < size && classId(i) == classId; i++) {
+                offsets.add(entries.getLong(i * ENTRY_BYTES + Long.BYTES));
+            }
+        }
+        return offsets.stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int lowerBound(long classId) {
+        var low = 0;
+        var high = size;
+        while (low < high) {
+            var middle = (low + high) >>> 1;
+            if (classId(middle) < classId) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private long classId(int entry) {
+        return entries.getLong(entry * ENTRY_BYTES);
+    }
+
+    private static ExecFileStamp readStamp(ByteBuffer buffer) {
+        var path = new byte[buffer.getInt()];
+        buffer.get(path);
+        return new ExecFileStamp(new String(path, StandardCharsets.UTF_8), buffer.getLong(), buffer.getLong());
+    }
+
+    private static Path indexFile(Path indexDir, ExecFileStamp stamp) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(stamp.path().getBytes(StandardCharsets.UTF_8));
+            return indexDir.resolve(HexFormat.of().formatHex(digest) + ENTRY_EXTENSION);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Identity of the exec file content the index was built for
+     */
+    record ExecFileStamp(String path, long length, long lastModified) {
+
+        static ExecFileStamp of(Path execFile) throws IOException {
+            return new ExecFileStamp(execFile.toAbsolutePath().normalize().toString(),
+                    Files.size(execFile),
+                    Files.getLastModifiedTime(execFile).toMillis());
+        }
+    }
+
+    /**
+     * Collects offsets of execution data blocks while the exec file is read
+     */
+    static class Builder {
+        private final List<long[]> entries = new ArrayList<>();
+
+        void add(long classId, long offset) {
+            entries.add(new long[]{classId, offset});
+        }
+
+        void store(Path indexDir, ExecFileStamp stamp) {
+            var indexFile = indexFile(indexDir, stamp);
+            var sorted = entries.toArray(long[][]::new);
+            Arrays.sort(sorted, Comparator.<long[]>comparingLong(entry -> entry[0]).thenComparingLong(entry -> entry[1]));
+            try {
+                Files.createDirectories(indexDir);
+                var tempFile = Files.createTempFile(indexDir, "exec", ".tmp");
+                try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                    out.writeInt(FORMAT_VERSION);
+                    var path = stamp.path().getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(path.length);
+                    out.write(path);
+                    out.writeLong(stamp.length());
+                    out.writeLong(stamp.lastModified());
+                    out.writeInt(sorted.length);
+                    for (var entry : sorted) {
+                        out.writeLong(entry[0]);
+                        out.writeLong(entry[1]);
+                    }
+                }
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {
+                log.warn("Could not save exec file index of {}", stamp.path());
+            }
+        }
+    }
+}
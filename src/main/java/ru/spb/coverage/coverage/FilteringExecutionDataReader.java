@@ -0,0 +1,138 @@
+package ru.spb.coverage.coverage;
+
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataReader;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.IExecutionDataVisitor;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+/**
+ * Exec data reader which visits execution data only of the given classes.
+ * Names and probes of other classes are skipped without being allocated, so heap usage does not depend
+ * on the size of the exec file
+ */
+final class FilteringExecutionDataReader extends ExecutionDataReader {
+
+    private final PositionInputStream input;
+    private final Set<Long> classIds;
+    private final ExecFileIndex.Builder indexBuilder;
+    private IExecutionDataVisitor executionDataVisitor;
+    private long skippedBlocks;
+
+    private FilteringExecutionDataReader(PositionInputStream input,
+                                         Set<Long> classIds,
+                                         ExecFileIndex.Builder indexBuilder) {
+        super(input);
+        this.input = input;
+        this.classIds = classIds;
+        this.indexBuilder = indexBuilder;
+    }
+
+    /**
+     * @param classIds     ids of classes to visit, null to visit all classes
+     * @param indexBuilder collects offsets of all execution data blocks, null if the exec file is not indexed
+     */
+    static FilteringExecutionDataReader of(InputStream input, Set<Long> classIds, ExecFileIndex.Builder indexBuilder) {
+        return new FilteringExecutionDataReader(new PositionInputStream(input), classIds, indexBuilder);
+    }
+
+    @Override
+    public void setExecutionDataVisitor(IExecutionDataVisitor visitor) {
+        super.setExecutionDataVisitor(visitor);
+        this.executionDataVisitor = visitor;
+    }
+
+    /**
+     * Reads a single execution data block at the current position of the input, e.g. found by an exec file index
+     *
+     * @throws IOException if there is no execution data of the given classes at the position
+     */
+    void readExecutionDataBlock() throws IOException {
+        var blockType = in.readByte();
+        var skippedBefore = skippedBlocks;
+        if (blockType != ExecutionDataWriter.BLOCK_EXECUTIONDATA || !readBlock(blockType) || skippedBlocks != skippedBefore) {
+            throw new IOException("No execution data of the given classes at position " + (input.position - 1));
+        }
+    }
+
+    /**
+     * @return bytes consumed from the input
+     */
+    long position() {
+        return input.position;
+    }
+
+    long getSkippedBlocks() {
+        return skippedBlocks;
+    }
+
+    @Override
+    protected boolean readBlock(byte blockType) throws IOException {
+        if (blockType != ExecutionDataWriter.BLOCK_EXECUTIONDATA) {
+            return super.readBlock(blockType);
+        }
+
+        var offset = input.position - 1;
+        var id = in.readLong();
+        if (indexBuilder != null) {
+            indexBuilder.add(id, offset);
+        }
+
+        if (classIds != null && !classIds.contains(id)) {
+            // Name is a modified UTF-8 string and probes are a varint count followed by eight probes per byte
+            in.skipNBytes(in.readUnsignedShort());
+            var probes = in.readVarInt();
+            in.skipNBytes((probes + 7) / 8);
+            skippedBlocks++;
+            return true;
+        }
+
+        var name = in.readUTF();
+        var probes = in.readBooleanArray();
+        if (executionDataVisitor == null) {
+            throw new IOException("No execution data visitor.");
+        }
+        executionDataVisitor.visitClassExecution(new ExecutionData(id, name, probes));
+        return true;
+    }
+
+    /**
+     * Counts bytes consumed by the reader to know offsets of blocks
+     */
+    private static class PositionInputStream extends FilterInputStream {
+        private long position;
+
+        PositionInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = super.read();
+            if (b >= 0) {
+                position++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            var read = super.read(b, off, len);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            var skipped = super.skip(n);
+            position += skipped;
+            return skipped;
+        }
+    }
+}
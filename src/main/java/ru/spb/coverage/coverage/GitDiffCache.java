@@ -0,0 +1,89 @@
+package ru.spb.coverage.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.spb.coverage.domain.GitDiff;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * On-disk cache of git diffs between two commits or two versions of a file.
+ * Commits and file contents are immutable and keys include the diff algorithm and rename detection
+ * of the repository, so cached diffs never have to be invalidated.
+ * Diffs of deleted lines are cached too, they are dropped after reading if not requested
+ */
+@Slf4j
+public class GitDiffCache {
+
+    private static final int FORMAT_VERSION = 2;
+    private static final String ENTRY_EXTENSION = ".diff";
+
+    private final Path cacheDir;
+
+    public GitDiffCache(File cacheDir) {
+        this.cacheDir = cacheDir.toPath();
+    }
+
+    public Optional<List<GitDiff>> find(String key) {
+        var entry = cacheDir.resolve(key + ENTRY_EXTENSION);
+        if (!Files.isRegularFile(entry)) {
+            return Optional.empty();
+        }
+
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return Optional.empty();
+            }
+            var count = in.readInt();
+            var gitDiffs = new ArrayList<GitDiff>(count);
+            for (var i = 0; i < count; i++) {
+                gitDiffs.add(GitDiff.builder()
+                        .filePath(in.readUTF())
+                        .changedFileName(in.readUTF())
+                        .beginChanges(in.readInt())
+                        .endChanges(in.readInt())
+                        .baseBeginChanges(in.readInt())
+                        .baseEndChanges(in.readInt())
+                        .build());
+            }
+            log.info("Found {} cached git diffs for {}", count, key);
+            return Optional.of(gitDiffs);
+        } catch (IOException ex) {
+            log.debug("Could not read cached git diffs {}, diffs would be computed again", entry);
+            return Optional.empty();
+        }
+    }
+
+    public void store(String key, List<GitDiff> gitDiffs) {
+        var entry = cacheDir.resolve(key + ENTRY_EXTENSION);
+        try {
+            Files.createDirectories(cacheDir);
+            var tempFile = Files.createTempFile(cacheDir, key, ".tmp");
+            try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(gitDiffs.size());
+                for (var diff : gitDiffs) {
+                    out.writeUTF(diff.getFilePath());
+                    out.writeUTF(diff.getChangedFileName());
+                    out.writeInt(diff.getBeginChanges());
+                    out.writeInt(diff.getEndChanges());
+                    out.writeInt(diff.getBaseBeginChanges());
+                    out.writeInt(diff.getBaseEndChanges());
+                }
+            }
+            Files.move(tempFile, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            log.warn("Could not save git diffs to cache");
+        }
+    }
+}
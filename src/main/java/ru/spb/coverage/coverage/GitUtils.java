@@ -2,112 +2,469 @@ package ru.spb.coverage.coverage;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.DiffConfig;
+import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffFormatter;
-import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
-import org.eclipse.jgit.treewalk.AbstractTreeIterator;
-import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.NotIgnoredFilter;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+import ru.spb.coverage.domain.DiffMode;
 import ru.spb.coverage.domain.GitDiff;
+import ru.spb.coverage.domain.GitDiffOptions;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
 @Slf4j
 public final class GitUtils {
 
     private static final String FILE_EXTENSION = ".java";
+    private static final String GIT_DIR = ".git";
+    private static final int CHUNKS_PER_WORKER = 4;
+    private static final int BASE_TREE = 0;
+    private static final int CURRENT_TREE = 1;
+    /**
+     * Index tree walked next to the working tree
+     */
+    private static final int STAGED_TREE = 2;
 
     private GitUtils() {
     }
 
+    /**
+     * @return git directory of the repository containing the given directory
+     */
+    public static File findGitDir(File startDir) {
+        var gitDir = new FileRepositoryBuilder().findGitDir(startDir).getGitDir();
+        return gitDir != null ? gitDir : new File(startDir, GIT_DIR);
+    }
+
     public static List<GitDiff> getChangesInNewBranch(String targetBranch, String gitPath) {
+        return getChangesInNewBranch(targetBranch, gitPath, GitDiffOptions.defaults());
+    }
+
+    public static List<GitDiff> getChangesInNewBranch(String targetBranch, String gitPath, GitDiffOptions options) {
         List<GitDiff> gitDiffs;
-        var builder = new FileRepositoryBuilder();
 
-        try (Repository repository = builder.setGitDir(new File(gitPath))
-                .readEnvironment()
-                .findGitDir()
-                .build()) {
-            gitDiffs = GitUtils.compareTwoBranches(repository, repository.getFullBranch(), targetBranch);
+        try (Repository repository = openRepository(gitPath)) {
+            gitDiffs = GitUtils.compareTwoBranches(repository, repository.getFullBranch(), targetBranch, options);
         } catch (Exception ex) {
             log.error("Could not open git repository or get diffs between branches");
-            throw new CoverageTaskException(ex);
+            throw ex instanceof CoverageTaskException cte ? cte : new CoverageTaskException(ex);
         }
 
         return gitDiffs;
     }
 
+    /**
+     * Computes changes using an already opened repository, the repository is not closed
+     */
+    public static List<GitDiff> getChangesInNewBranch(Repository repository, String targetBranch, GitDiffOptions options) {
+        try {
+            return getChanges(repository, repository.getFullBranch(), targetBranch, options);
+        } catch (IOException ex) {
+            log.error("Could not get current branch");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    /**
+     * Computes changes of any head revision, the head does not have to be checked out.
+     * The repository is not closed
+     */
+    public static List<GitDiff> getChanges(Repository repository,
+                                           String headRevision,
+                                           String targetBranch,
+                                           GitDiffOptions options) {
+        try {
+            return GitUtils.compareTwoBranches(repository, headRevision, targetBranch, options);
+        } catch (Exception ex) {
+            log.error("Could not get diffs between branches");
+            throw ex instanceof CoverageTaskException cte ? cte : new CoverageTaskException(ex);
+        }
+    }
+
+    /**
+     * Computes changes of the git index or of the working tree against the target branch, nothing has to be committed.
+     * Working tree files which were not modified since they were staged are not hashed again,
+     * their ids are taken from the stat data of the index. Hunks of a file are cached by ids of its content
+     * in the target and in the current state, so unchanged files are not diffed again on the next run.
+     * The repository is not closed
+     */
+    public static List<GitDiff> getUncommittedChanges(Repository repository,
+                                                      String targetBranch,
+                                                      DiffMode mode,
+                                                      GitDiffOptions options) {
+        try (var walk = new RevWalk(repository);
+             var reader = repository.newObjectReader();
+             var treeWalk = new TreeWalk(repository, reader)) {
+            var targetCommit = parseCommit(repository, walk, targetBranch);
+            var baseCommit = options.isMergeBase()
+                    ? findMergeBase(walk, parseCommit(repository, walk, Constants.HEAD), targetCommit)
+                    : targetCommit;
+
+            treeWalk.setRecursive(true);
+            treeWalk.addTree(baseCommit.getTree());
+            var index = new DirCacheIterator(repository.readDirCache());
+            var filters = new ArrayList<>(List.of(PathSuffixFilter.create(FILE_EXTENSION), TreeFilter.ANY_DIFF));
+            if (mode == DiffMode.WORKING_TREE) {
+                var workingTree = new FileTreeIterator(repository);
+                treeWalk.addTree(workingTree);
+                treeWalk.addTree(index);
+                workingTree.setDirCacheIterator(treeWalk, STAGED_TREE);
+                // Ignored directories, e.g. build outputs, are not walked at all
+                filters.add(new NotIgnoredFilter(CURRENT_TREE));
+            } else {
+                treeWalk.addTree(index);
+            }
+            treeWalk.setFilter(AndTreeFilter.create(filters));
+
+            log.info("Calling git diff for {} and the {}", baseCommit.name(), mode);
+            var diffCache = options.getCacheDir() == null ? null : new GitDiffCache(options.getCacheDir());
+            var diffAlgorithm = DiffAlgorithm.getAlgorithm(diffAlgorithm(repository));
+            var diffSettings = diffSettings(repository, false);
+            var changes = new ArrayList<GitDiff>();
+            while (treeWalk.next()) {
+                // Only regular files of the current state, deleted files have no new code
+                if ((treeWalk.getRawMode(CURRENT_TREE) & FileMode.TYPE_MASK) != FileMode.TYPE_FILE) {
+                    continue;
+                }
+
+                var baseId = treeWalk.getObjectId(BASE_TREE);
+                var currentId = treeWalk.getObjectId(CURRENT_TREE);
+                if (baseId.equals(currentId)) {
+                    continue;
+                }
+
+                var path = treeWalk.getPathString();
+                var cacheKey = "file-" + diffSettings + "-" + baseId.name() + "-" + currentId.name();
+                var cachedDiffs = diffCache == null ? Optional.<List<GitDiff>>empty() : diffCache.find(cacheKey);
+                if (cachedDiffs.isPresent()) {
+                    cachedDiffs.get().forEach(diff -> changes.add(changedLines(path, diff.getBaseBeginChanges(),
+                            diff.getBaseEndChanges(), diff.getBeginChanges(), diff.getEndChanges())));
+                    continue;
+                }
+
+                var baseText = baseId.equals(ObjectId.zeroId())
+                        ? RawText.EMPTY_TEXT
+                        : new RawText(reader.open(baseId, Constants.OBJ_BLOB).getBytes());
+                var currentText = mode == DiffMode.WORKING_TREE
+                        ? new RawText(Files.readAllBytes(repository.getWorkTree().toPath().resolve(path)))
+                        : new RawText(reader.open(currentId, Constants.OBJ_BLOB).getBytes());
+                var fileChanges = new ArrayList<GitDiff>();
+                addChanges(path, diffAlgorithm.diff(RawTextComparator.DEFAULT, baseText, currentText), fileChanges);
+                if (diffCache != null) {
+                    diffCache.store(cacheKey, fileChanges);
+                }
+                changes.addAll(fileChanges);
+            }
+            return selectChanges(changes, options);
+        } catch (Exception ex) {
+            log.error("Could not get diffs between the target branch and the {}", mode);
+            throw ex instanceof CoverageTaskException cte ? cte : new CoverageTaskException(ex);
+        }
+    }
+
+    public static DirCache readIndex(Repository repository) {
+        try {
+            return repository.readDirCache();
+        } catch (IOException ex) {
+            log.error("Could not read git index");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    /**
+     * @return content of the file in the git index
+     */
+    public static byte[] readStagedFile(Repository repository, DirCache index, String path) {
+        var entry = index.getEntry(path);
+        if (entry == null) {
+            throw new CoverageTaskException("File " + path + " is not staged");
+        }
+        try {
+            return repository.open(entry.getObjectId(), Constants.OBJ_BLOB).getBytes();
+        } catch (IOException ex) {
+            log.error("Could not read staged file {}", path);
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    /**
+     * @return content of the file in the given revision
+     */
+    public static byte[] readFile(Repository repository, String revision, String path) {
+        try (var walk = new RevWalk(repository)) {
+            var commit = parseCommit(repository, walk, revision);
+            try (var treeWalk = TreeWalk.forPath(repository, path, commit.getTree())) {
+                if (treeWalk == null) {
+                    throw new CoverageTaskException("File " + path + " does not exist in " + revision);
+                }
+                return repository.open(treeWalk.getObjectId(0), Constants.OBJ_BLOB).getBytes();
+            }
+        } catch (IOException ex) {
+            log.error("Could not read file {} of revision {}", path, revision);
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    /**
+     * @return ids of the current commit and of the target branch commit separated by "..",
+     * git diffs between branches depend only on these two commits
+     */
+    public static String getCommitIds(String targetBranch, String gitPath) {
+        try (Repository repository = openRepository(gitPath);
+             var walk = new RevWalk(repository)) {
+            var currentCommit = parseCommit(repository, walk, repository.getFullBranch());
+            var targetCommit = parseCommit(repository, walk, targetBranch);
+            return currentCommit.name() + ".." + targetCommit.name();
+        } catch (Exception ex) {
+            log.error("Could not open git repository or resolve commits of branches");
+            throw ex instanceof CoverageTaskException cte ? cte : new CoverageTaskException(ex);
+        }
+    }
+
+    /**
+     * @param revision revision to resolve, the checked out branch if null
+     * @return id of the commit
+     */
+    public static String getCommitId(String gitPath, String revision) {
+        try (Repository repository = openRepository(gitPath);
+             var walk = new RevWalk(repository)) {
+            return parseCommit(repository, walk, revision != null ? revision : repository.getFullBranch()).name();
+        } catch (Exception ex) {
+            log.error("Could not open git repository or resolve commit");
+            throw ex instanceof CoverageTaskException cte ? cte : new CoverageTaskException(ex);
+        }
+    }
+
+    public static Repository openRepository(String gitPath) throws IOException {
+        return new FileRepositoryBuilder().setGitDir(new File(gitPath))
+                .readEnvironment()
+                .findGitDir()
+                .build();
+    }
+
     private static List<GitDiff> compareTwoBranches(Repository repository,
                                                     String currentBranch,
-                                                    String targetBranch) throws IOException, GitAPIException {
-        log.info("Prepare tree parsers for git branches");
-        var currentTreeParser = prepareTreeParser(repository, currentBranch);
-        var targetTreeParser = prepareTreeParser(repository, targetBranch);
+                                                    String targetBranch,
+                                                    GitDiffOptions options) throws IOException {
+        try (var walk = new RevWalk(repository)) {
+            var currentCommit = parseCommit(repository, walk, currentBranch);
+            var targetCommit = parseCommit(repository, walk, targetBranch);
+            var baseCommit = options.isMergeBase() ? findMergeBase(walk, currentCommit, targetCommit) : targetCommit;
 
-        var git = new Git(repository);
+            var cacheKey = (options.isMergeBase() ? "merge-base-" : "tip-") + diffSettings(repository, true)
+                    + "-" + baseCommit.name() + "-" + currentCommit.name();
+            var diffCache = options.getCacheDir() == null ? null : new GitDiffCache(options.getCacheDir());
+            if (diffCache != null) {
+                var cachedDiffs = diffCache.find(cacheKey);
+                if (cachedDiffs.isPresent()) {
+                    return selectChanges(cachedDiffs.get(), options);
+                }
+            }
 
-        var diffFormatter = new DiffFormatter(new ByteArrayOutputStream());
-        diffFormatter.setRepository(repository);
+            var changes = compareCommits(repository, baseCommit, currentCommit, options);
 
-        log.info("Calling git diff for target and current branches");
-        var diffEntries = git.diff()
-                .setOldTree(targetTreeParser)
-                .setNewTree(currentTreeParser)
-                .call();
+            if (diffCache != null) {
+                diffCache.store(cacheKey, changes);
+            }
+            return selectChanges(changes, options);
+        }
+    }
 
-        var changes = new ArrayList<GitDiff>();
+    private static List<GitDiff> compareCommits(Repository repository,
+                                                RevCommit baseCommit,
+                                                RevCommit currentCommit,
+                                                GitDiffOptions options) throws IOException {
+        try (var diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+            diffFormatter.setRepository(repository);
+            // Filter is applied during the tree walk, so edit lists are computed only for java files
+            diffFormatter.setPathFilter(PathSuffixFilter.create(FILE_EXTENSION));
+            diffFormatter.setDetectRenames(detectRenames(repository));
 
-        for (var diffEntry : diffEntries) {
-            var editList = diffFormatter.toFileHeader(diffEntry).toEditList();
-            var className = diffEntry.getNewPath();
+            log.info("Calling git diff for {} and {}", baseCommit.name(), currentCommit.name());
+            var diffEntries = diffFormatter.scan(baseCommit.getTree(), currentCommit.getTree())
+                    .stream()
+                    .filter(diffEntry -> diffEntry.getChangeType() != DiffEntry.ChangeType.DELETE)
+                    .toList();
 
-            if (!StringUtils.endsWith(className, FILE_EXTENSION)) {
-                continue;
+            if (options.getWorkers() > 1 && diffEntries.size() > 1) {
+                return computeEditListsInParallel(repository, diffEntries, options.getWorkers());
             }
 
-            if (className.contains("/")) {
-                className = StringUtils.substringAfterLast(diffEntry.getNewPath(), "/");
+            var changes = new ArrayList<GitDiff>();
+            for (var diffEntry : diffEntries) {
+                addChanges(diffFormatter, diffEntry, changes);
             }
+            return changes;
+        }
+    }
 
-            var changesBuilder = GitDiff.builder().changedFileName(className);
-
-            for (var edit : editList) {
-                //We are not interested in deleted lines
-                if (edit.getType() != Edit.Type.DELETE) {
-                    var change = changesBuilder.beginChanges(edit.getBeginB())
-                            .endChanges(edit.getEndB())
-                            .build();
-                    changes.add(change);
+    /**
+     * Splits diff entries into chunks, every chunk is diffed with its own formatter and object reader.
+     * Chunks are concatenated in the order of entries, so changes are the same as computed on one thread
+     */
+    private static List<GitDiff> computeEditListsInParallel(Repository repository,
+                                                            List<DiffEntry> diffEntries,
+                                                            int workers) {
+        var chunkSize = Math.max(1, diffEntries.size() / (workers * CHUNKS_PER_WORKER));
+        var tasks = new ArrayList<Callable<List<GitDiff>>>();
+        for (var from = 0; from < diffEntries.size(); from += chunkSize) {
+            var chunk = diffEntries.subList(from, Math.min(from + chunkSize, diffEntries.size()));
+            tasks.add(() -> {
+                try (var diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+                    diffFormatter.setRepository(repository);
+                    var changes = new ArrayList<GitDiff>();
+                    for (var diffEntry : chunk) {
+                        addChanges(diffFormatter, diffEntry, changes);
+                    }
+                    return changes;
                 }
+            });
+        }
+
+        log.info("Computing edit lists of {} files with {} workers", diffEntries.size(), workers);
+        var pool = new ForkJoinPool(Math.min(workers, tasks.size()));
+        try {
+            var changes = new ArrayList<GitDiff>();
+            for (var future : pool.invokeAll(tasks)) {
+                changes.addAll(future.get());
             }
+            return changes;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CoverageTaskException(ex);
+        } catch (ExecutionException ex) {
+            log.error("Could not compute edit lists of changed files");
+            throw ex.getCause() instanceof CoverageTaskException cte ? cte : new CoverageTaskException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
         }
+    }
 
-        return changes;
+    private static void addChanges(DiffFormatter diffFormatter, DiffEntry diffEntry, List<GitDiff> changes)
+            throws IOException {
+        addChanges(diffEntry.getNewPath(), diffFormatter.toFileHeader(diffEntry).toEditList(), changes);
     }
 
-    private static AbstractTreeIterator prepareTreeParser(Repository repository, String ref) throws IOException {
-        var head = repository.exactRef(ref);
-        var walk = new RevWalk(repository);
-        if (head == null) {
-            throw new CoverageTaskException("The HEAD of ref is NULL");
+    /**
+     * Adds every edit including deletions, deleted lines are not new code but shift lines of the current version
+     */
+    private static void addChanges(String path, EditList editList, List<GitDiff> changes) {
+        for (var edit : editList) {
+            changes.add(changedLines(path, edit.getBeginA(), edit.getEndA(), edit.getBeginB(), edit.getEndB()));
         }
-        var commit = walk.parseCommit(head.getObjectId());
-        var tree = walk.parseTree(commit.getTree().getId());
+    }
 
-        var treeParser = new CanonicalTreeParser();
-        var reader = repository.newObjectReader();
+    /**
+     * @return changes without diffs of deleted lines unless they are requested by the options
+     */
+    private static List<GitDiff> selectChanges(List<GitDiff> changes, GitDiffOptions options) {
+        return options.isDeletions() ? changes : changes.stream().filter(diff -> !diff.isDeletion()).toList();
+    }
 
-        treeParser.reset(reader, tree.getId());
+    private static GitDiff changedLines(String path,
+                                        int baseBeginChanges,
+                                        int baseEndChanges,
+                                        int beginChanges,
+                                        int endChanges) {
+        var className = path;
 
-        walk.dispose();
+        if (className.contains("/")) {
+            className = StringUtils.substringAfterLast(path, "/");
+        }
+
+        return GitDiff.builder()
+                .filePath(path)
+                .changedFileName(className)
+                .beginChanges(beginChanges)
+                .endChanges(endChanges)
+                .baseBeginChanges(baseBeginChanges)
+                .baseEndChanges(baseEndChanges)
+                .build();
+    }
+
+    /**
+     * @param renames whether renamed files may be compared with their previous version, as when commits are compared
+     * @return settings of the repository changing the computed hunks, they are a part of every diff cache key
+     */
+    private static String diffSettings(Repository repository, boolean renames) {
+        var settings = diffAlgorithm(repository).name().toLowerCase(Locale.ROOT);
+        return renames && detectRenames(repository) ? settings + "-renames" : settings;
+    }
 
-        return treeParser;
+    /**
+     * @return whether renamed files are compared with their previous version, as git does unless diff.renames is off
+     */
+    private static boolean detectRenames(Repository repository) {
+        var config = repository.getConfig();
+        return config.getString(ConfigConstants.CONFIG_DIFF_SECTION, null, ConfigConstants.CONFIG_KEY_RENAMES) == null
+                || config.get(DiffConfig.KEY).isRenameDetectionEnabled();
+    }
+
+    /**
+     * @return diff algorithm configured for the repository, the same as chosen by the diff formatter
+     */
+    private static DiffAlgorithm.SupportedAlgorithm diffAlgorithm(Repository repository) {
+        return repository.getConfig().getEnum(ConfigConstants.CONFIG_DIFF_SECTION, null,
+                ConfigConstants.CONFIG_KEY_ALGORITHM, DiffAlgorithm.SupportedAlgorithm.HISTOGRAM);
+    }
+
+    private static RevCommit findMergeBase(RevWalk walk, RevCommit currentCommit, RevCommit targetCommit)
+            throws IOException {
+        walk.reset();
+        walk.setRevFilter(RevFilter.MERGE_BASE);
+        walk.markStart(currentCommit);
+        walk.markStart(targetCommit);
+        var mergeBase = walk.next();
+        if (mergeBase == null) {
+            throw new CoverageTaskException("Current and target branches have no common ancestor");
+        }
+        walk.reset();
+        walk.setRevFilter(RevFilter.ALL);
+        return walk.parseCommit(mergeBase);
+    }
+
+    /**
+     * Branch refs which do not exist are resolved as any other revision, e.g. origin/main, a tag or a commit id
+     */
+    private static RevCommit parseCommit(Repository repository, RevWalk walk, String ref) throws IOException {
+        var head = repository.exactRef(ref);
+        var objectId = head != null ? head.getObjectId() : repository.resolve(ref);
+        if (objectId == null && ref.startsWith(Constants.R_HEADS)) {
+            objectId = repository.resolve(ref.substring(Constants.R_HEADS.length()));
+        }
+        if (objectId == null) {
+            throw new CoverageTaskException("Could not resolve commit of " + ref);
+        }
+        return walk.parseCommit(objectId);
     }
 }
@@ -0,0 +1,107 @@
+package ru.spb.coverage.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Source file mapped into memory with an index of line offsets.
+ * Lines are split like {@link java.nio.file.Files#readAllLines(Path)} does it,
+ * but decoded only when they are requested
+ */
+@Slf4j
+public class IndexedSourceFile {
+
+    private static final byte LINE_FEED = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+
+    private final ByteBuffer content;
+    private final int[] lineStarts;
+    private final int[] lineEnds;
+    private final int lineCount;
+
+    private IndexedSourceFile(ByteBuffer content) {
+        this.content = content;
+
+        var starts = new int[64];
+        var ends = new int[64];
+        var count = 0;
+        var lineStart = 0;
+        var limit = content.limit();
+
+        for (var i = 0; i < limit; i++) {
+            var b = content.get(i);
+            if (b != LINE_FEED && b != CARRIAGE_RETURN) {
+                continue;
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = lineStart;
+            ends[count] = i;
+            count++;
+
+            if (b == CARRIAGE_RETURN && i + 1 < limit && content.get(i + 1) == LINE_FEED) {
+                i++;
+            }
+            lineStart = i + 1;
+        }
+
+        if (lineStart < limit) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count + 1);
+                ends = Arrays.copyOf(ends, count + 1);
+            }
+            starts[count] = lineStart;
+            ends[count] = limit;
+            count++;
+        }
+
+        this.lineStarts = starts;
+        this.lineEnds = ends;
+        this.lineCount = count;
+    }
+
+    public static IndexedSourceFile open(Path path) {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new IndexedSourceFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException ex) {
+            log.error("Could not open source file");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    public static IndexedSourceFile of(byte[] content) {
+        return new IndexedSourceFile(ByteBuffer.wrap(content));
+    }
+
+    /**
+     * @return size of the file in bytes
+     */
+    public int size() {
+        return content.limit();
+    }
+
+    public int lineCount() {
+        return lineCount;
+    }
+
+    /**
+     * @param index zero based line index
+     * @return text of the line without line terminator
+     */
+    public String line(int index) {
+        Objects.checkIndex(index, lineCount);
+        var bytes = new byte[lineEnds[index] - lineStarts[index]];
+        content.get(lineStarts[index], bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
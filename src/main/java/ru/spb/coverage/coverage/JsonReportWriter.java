@@ -0,0 +1,246 @@
+package ru.spb.coverage.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.spb.coverage.domain.report.ChangedLineTests;
+import ru.spb.coverage.domain.report.CodeLine;
+import ru.spb.coverage.domain.report.CoverageChange;
+import ru.spb.coverage.domain.report.CoverageRegression;
+import ru.spb.coverage.domain.report.ReportTotals;
+import ru.spb.coverage.domain.report.UnitCoverage;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streams coverage changes into a JSON document without source text, every change is written as soon as it is computed:
+ * <pre>
+ * {"changes": [{"file": "src/A.java", "lines": 4, "coveredBranches": 1, "missedBranches": 1,
+ *               "uncoveredLines": [12, 13], "partlyCoveredLines": [{"line": 15, "covered": 1, "missed": 1}]}],
+ *  "methods": [{"file": "src/A.java", "class": "com.example.A", "method": "run", "firstLine": 10, "lastLine": 16,
+ *               "lines": 4, "coveredLines": 2, "branches": 2, "coveredBranches": 1}],
+ *  "classes": [{"file": "src/A.java", "class": "com.example.A", "firstLine": 3, "lastLine": 20, ...}],
+ *  "totals": {"lines": 4, "coveredLines": 2, "branches": 2, "coveredBranches": 1},
+ *  "newCodeCoverage": 50.0, "newBranchCoverage": 50.0}
+ * </pre>
+ * Line numbers are one based as in the text report.
+ * Methods and classes count only their changed lines, they are kept until the end of the report.
+ * If tests of changed lines are indexed, they are kept until the end of the report too and written
+ * after the classes for covered and uncovered changed lines:
+ * {@code "lineTests": [{"file": "src/A.java", "tests": {"12": ["testId"]}}]}.
+ * In delta mode unchanged lines which lost coverage since the target branch are streamed right after the changes:
+ * {@code "regressions": [{"file": "src/B.java", "uncoveredLines": [7], "lostBranchLines": [{"line": 9, ...}]}]},
+ * the array is written only if any line lost coverage
+ */
+@Slf4j
+public class JsonReportWriter implements ReportWriter {
+
+    private final Writer writer;
+    private final List<UnitCoverage> methods = new ArrayList<>();
+    private final List<UnitCoverage> classes = new ArrayList<>();
+    private final List<ChangedLineTests> lineTests = new ArrayList<>();
+    private boolean hasChanges;
+    private int regressions;
+
+    public JsonReportWriter(Path reportFile) {
+        try {
+            if (reportFile.getParent() != null) {
+                Files.createDirectories(reportFile.getParent());
+            }
+            this.writer = Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8);
+            writer.write("{\"changes\": [");
+        } catch (IOException ex) {
+            log.error("Could not make and save json report file");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    @Override
+    public void accept(CoverageChange change) {
+        var json = new StringBuilder(hasChanges ? ",\n  " : "\n  ");
+        hasChanges = true;
+
+        json.append("{\"file\": ");
+        appendString(json, change.getFileName());
+        json.append(", \"lines\": ").append(change.getAcceptableLinesForCovering())
+                .append(", \"coveredBranches\": ").append(change.getCoveredBranches())
+                .append(", \"missedBranches\": ").append(change.getMissedBranches())
+                .append(", \"uncoveredLines\": [");
+        appendLineNumbers(json, change.getUncoveredCodeLines());
+        json.append("], \"partlyCoveredLines\": [");
+        appendBranchLines(json, change.getPartlyCoveredCodeLines());
+        json.append("]}");
+
+        write(json);
+    }
+
+    @Override
+    public void acceptUnits(List<UnitCoverage> units) {
+        for (var unit : units) {
+            (unit.getLevel() == UnitCoverage.Level.METHOD ? methods : classes).add(unit);
+        }
+    }
+
+    @Override
+    public void acceptLineTests(ChangedLineTests lineTests) {
+        this.lineTests.add(lineTests);
+    }
+
+    /**
+     * The first regression closes the array of changes, no change may be accepted after it
+     */
+    @Override
+    public void acceptRegression(CoverageRegression regression) {
+        var json = new StringBuilder(regressions > 0 ? ",\n  " : closingOfChanges() + "\"regressions\": [\n  ");
+        regressions++;
+
+        json.append("{\"file\": ");
+        appendString(json, regression.getFileName());
+        json.append(", \"uncoveredLines\": [");
+        appendLineNumbers(json, regression.getUncoveredCodeLines());
+        json.append("], \"lostBranchLines\": [");
+        appendBranchLines(json, regression.getLostBranchCodeLines());
+        json.append("]}");
+
+        write(json);
+    }
+
+    @Override
+    public void finish(ReportTotals totals) {
+        var json = new StringBuilder(regressions > 0 ? "\n],\n" : closingOfChanges());
+        appendUnits(json, "methods", methods);
+        appendUnits(json, "classes", classes);
+        if (!lineTests.isEmpty()) {
+            appendLineTests(json, lineTests);
+        }
+        json.append("\"totals\": {\"lines\": ").append(totals.getAllLines())
+                .append(", \"coveredLines\": ").append(totals.getCoveredLines())
+                .append(", \"branches\": ").append(totals.getAllBranches())
+                .append(", \"coveredBranches\": ").append(totals.getCoveredBranches())
+                .append("},\n");
+        json.append("\"newCodeCoverage\": ").append(percent(totals.getCoveredLines(), totals.getAllLines()))
+                .append(",\n\"newBranchCoverage\": ").append(percent(totals.getCoveredBranches(), totals.getAllBranches()))
+                .append("\n}\n");
+        write(json);
+    }
+
+    @Override
+    public void close() {
+        try {
+            writer.close();
+        } catch (IOException ex) {
+            log.error("Could not make and save json report file");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    private void write(CharSequence json) {
+        try {
+            writer.append(json);
+        } catch (IOException ex) {
+            log.error("Could not make and save json report file");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    private static void appendUnits(StringBuilder json, String name, List<UnitCoverage> units) {
+        json.append('"').append(name).append("\": [");
+        for (var i = 0; i < units.size(); i++) {
+            var unit = units.get(i);
+            json.append(i == 0 ? "\n  " : ",\n  ").append("{\"file\": ");
+            appendString(json, unit.getFileName());
+            json.append(", \"class\": ");
+            appendString(json, unit.getClassName().replace('/', '.'));
+            if (unit.getMethodName() != null) {
+                json.append(", \"method\": ");
+                appendString(json, unit.getMethodName());
+            }
+            json.append(", \"firstLine\": ").append(unit.getFirstLine())
+                    .append(", \"lastLine\": ").append(unit.getLastLine())
+                    .append(", \"lines\": ").append(unit.getAllLines())
+                    .append(", \"coveredLines\": ").append(unit.getCoveredLines())
+                    .append(", \"branches\": ").append(unit.getAllBranches())
+                    .append(", \"coveredBranches\": ").append(unit.getCoveredBranches())
+                    .append('}');
+        }
+        json.append(units.isEmpty() ? "],\n" : "\n],\n");
+    }
+
+    private static void appendLineTests(StringBuilder json, List<ChangedLineTests> files) {
+        json.append("\"lineTests\": [");
+        for (var i = 0; i < files.size(); i++) {
+            json.append(i == 0 ? "\n  " : ",\n  ").append("{\"file\": ");
+            appendString(json, files.get(i).getFileName());
+            json.append(", \"tests\": {");
+            var first = true;
+            for (var lineTests : files.get(i).getLineTests().entrySet()) {
+                json.append(first ? "\"" : ", \"").append(lineTests.getKey() + 1).append("\": [");
+                for (var j = 0; j < lineTests.getValue().size(); j++) {
+                    if (j > 0) {
+                        json.append(", ");
+                    }
+                    appendString(json, lineTests.getValue().get(j));
+                }
+                json.append(']');
+                first = false;
+            }
+            json.append("}}");
+        }
+        json.append("\n],\n");
+    }
+
+    private String closingOfChanges() {
+        return hasChanges ? "\n],\n" : "],\n";
+    }
+
+    private static void appendBranchLines(StringBuilder json, List<CodeLine> lines) {
+        for (var i = 0; i < lines.size(); i++) {
+            var line = lines.get(i);
+            json.append(i == 0 ? "" : ", ")
+                    .append("{\"line\": ").append(line.getLineNumber() + 1)
+                    .append(", \"covered\": ").append(line.getBranch().getCovered())
+                    .append(", \"missed\": ").append(line.getBranch().getMissed())
+                    .append('}');
+        }
+    }
+
+    private static void appendLineNumbers(StringBuilder json, List<CodeLine> lines) {
+        for (var i = 0; i < lines.size(); i++) {
+            json.append(i == 0 ? "" : ", ").append(lines.get(i).getLineNumber() + 1);
+        }
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (var i = 0; i < value.length(); i++) {
+            var c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * Code without lines or branches to cover is fully covered, JSON has no NaN
+     */
+    private static String percent(int covered, int all) {
+        return String.format(Locale.ROOT, "%.2f", all == 0 ? 100.0 : covered * 100.0 / all);
+    }
+}
@@ -0,0 +1,83 @@
+package ru.spb.coverage.coverage;
+
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.ISourceNode;
+
+import java.util.BitSet;
+
+/**
+ * Compact line coverage of a single source file.
+ * Status and branch counters of every line are kept in primitive arrays indexed by line number,
+ * lines which are not covered at all are marked in a bitset
+ */
+public final class LineCoverageTable {
+
+    private final int firstLine;
+    private final byte[] statuses;
+    private final int[] coveredBranches;
+    private final int[] missedBranches;
+    private final BitSet uncoveredLines;
+
+    private LineCoverageTable(int firstLine, int size) {
+        this.firstLine = firstLine;
+        this.statuses = new byte[size];
+        this.coveredBranches = new int[size];
+        this.missedBranches = new int[size];
+        this.uncoveredLines = new BitSet();
+    }
+
+    public static LineCoverageTable of(ISourceNode sourceCoverage) {
+        var firstLine = sourceCoverage.getFirstLine();
+        if (firstLine == ISourceNode.UNKNOWN_LINE) {
+            return new LineCoverageTable(0, 0);
+        }
+
+        var table = new LineCoverageTable(firstLine, sourceCoverage.getLastLine() - firstLine + 1);
+        for (var nr = firstLine; nr <= sourceCoverage.getLastLine(); nr++) {
+            var line = sourceCoverage.getLine(nr);
+            var index = nr - firstLine;
+            var status = line.getStatus();
+
+            table.statuses[index] = (byte) status;
+            table.coveredBranches[index] = line.getBranchCounter().getCoveredCount();
+            table.missedBranches[index] = line.getBranchCounter().getMissedCount();
+            if (status == ICounter.NOT_COVERED) {
+                table.uncoveredLines.set(nr);
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @param line one based line number
+     * @return status of the line as defined in {@link ICounter}
+     */
+    public int status(int line) {
+        var index = line - firstLine;
+        return index >= 0 && index < statuses.length ? statuses[index] : ICounter.EMPTY;
+    }
+
+    public int coveredBranches(int line) {
+        var index = line - firstLine;
+        return index >= 0 && index < coveredBranches.length ? coveredBranches[index] : 0;
+    }
+
+    public int missedBranches(int line) {
+        var index = line - firstLine;
+        return index >= 0 && index < missedBranches.length ? missedBranches[index] : 0;
+    }
+
+    public boolean hasBranches(int line) {
+        return coveredBranches(line) + missedBranches(line) != 0;
+    }
+
+    /**
+     * @param fromLine one based first line, inclusive
+     * @param toLine   one based last line, exclusive
+     * @return true if any line of the range is not covered at all
+     */
+    public boolean hasUncoveredLines(int fromLine, int toLine) {
+        var uncoveredLine = uncoveredLines.nextSetBit(fromLine);
+        return uncoveredLine >= 0 && uncoveredLine < toLine;
+    }
+}
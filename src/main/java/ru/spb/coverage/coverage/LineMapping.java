@@ -0,0 +1,71 @@
+package ru.spb.coverage.coverage;
+
+import ru.spb.coverage.domain.GitDiff;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Maps lines of the current version of a file to the version it is compared with, using the edit list of the file.
+ * Edits do not overlap, so all unchanged lines between two edits are shifted by the same offset
+ * which is found by a binary search over the edits
+ */
+public final class LineMapping {
+
+    /**
+     * Mapping of a file without changes, every line keeps its number
+     */
+    public static final LineMapping IDENTITY = new LineMapping(List.of());
+
+    private final int[] beginChanges;
+    private final int[] endChanges;
+    private final int[] baseEndChanges;
+
+    private LineMapping(List<GitDiff> diffs) {
+        var sortedDiffs = diffs.stream()
+                .sorted(Comparator.comparingInt(GitDiff::getBeginChanges)
+                        .thenComparingInt(GitDiff::getBaseBeginChanges))
+                .toList();
+        this.beginChanges = new int[sortedDiffs.size()];
+        this.endChanges = new int[sortedDiffs.size()];
+        this.baseEndChanges = new int[sortedDiffs.size()];
+        for (var i = 0; i < sortedDiffs.size(); i++) {
+            beginChanges[i] = sortedDiffs.get(i).getBeginChanges();
+            endChanges[i] = sortedDiffs.get(i).getEndChanges();
+            baseEndChanges[i] = sortedDiffs.get(i).getBaseEndChanges();
+        }
+    }
+
+    /**
+     * @param diffs all edits of a single file including deletions, in any order
+     */
+    public static LineMapping of(List<GitDiff> diffs) {
+        return diffs.isEmpty() ? IDENTITY : new LineMapping(diffs);
+    }
+
+    /**
+     * @param line zero based line of the current version
+     * @return zero based line of the compared version, -1 if the line was added or changed
+     */
+    public int baseLine(int line) {
+        // Last edit starting at or before the line, lines deleted right before the line start at the line too
+        var low = 0;
+        var high = beginChanges.length;
+        while (low < high) {
+            var middle = (low + high) >>> 1;
+            if (beginChanges[middle] <= line) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        var edit = low - 1;
+        if (edit < 0) {
+            return line;
+        }
+        if (line < endChanges[edit]) {
+            return -1;
+        }
+        return baseEndChanges[edit] + line - endChanges[edit];
+    }
+}
@@ -0,0 +1,113 @@
+package ru.spb.coverage.coverage;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of zero based line numbers of a single file, kept as sorted disjoint runs of lines
+ * like the run containers of a roaring bitmap. Changed lines come in hunks, so a file with thousands of
+ * changed lines takes a few runs and overlapping or adjacent hunks are merged into one run
+ */
+public final class LineSet {
+
+    private static final int INITIAL_RUNS = 4;
+
+    /**
+     * Begin (inclusive) and end (exclusive) of every run one after another
+     */
+    private int[] runs = new int[INITIAL_RUNS * 2];
+    private int runCount;
+
+    /**
+     * Adds lines from begin (inclusive) to end (exclusive), hunks in ascending order are appended without search
+     */
+    public void add(int begin, int end) {
+        if (begin >= end) {
+            return;
+        }
+        if (runCount == 0 || begin > runs[runCount * 2 - 1]) {
+            insertRun(runCount, begin, end);
+            return;
+        }
+
+        // First run ending at or after begin and the first run starting after end, runs in between are merged
+        var first = firstRunEndingFrom(begin);
+        var last = first;
+        while (last < runCount && runs[last * 2] <= end) {
+            last++;
+        }
+        if (first == last) {
+            insertRun(first, begin, end);
+            return;
+        }
+
+        runs[first * 2] = Math.min(begin, runs[first * 2]);
+        runs[first * 2 + 1] = Math.max(end, runs[(last - 1) * 2 + 1]);
+        System.arraycopy(runs, last * 2, runs, (first + 1) * 2, (runCount - last) * 2);
+        runCount -= last - first - 1;
+    }
+
+    public boolean contains(int line) {
+        var run = firstRunEndingFrom(line + 1);
+        return run < runCount && runs[run * 2] <= line;
+    }
+
+    /**
+     * @return number of lines in the set
+     */
+    public int cardinality() {
+        var cardinality = 0;
+        for (var run = 0; run < runCount; run++) {
+            cardinality += runs[run * 2 + 1] - runs[run * 2];
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return runCount == 0;
+    }
+
+    public int runCount() {
+        return runCount;
+    }
+
+    /**
+     * @return first line of the run, inclusive
+     */
+    public int runBegin(int run) {
+        return runs[run * 2];
+    }
+
+    /**
+     * @return line after the last line of the run
+     */
+    public int runEnd(int run) {
+        return runs[run * 2 + 1];
+    }
+
+    /**
+     * @return index of the first run ending after the line, the run count if there is none
+     */
+    private int firstRunEndingFrom(int line) {
+        var low = 0;
+        var high = runCount;
+        while (low < high) {
+            var middle = (low + high) >>> 1;
+            if (runs[middle * 2 + 1] < line) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void insertRun(int run, int begin, int end) {
+        if (runs.length == runCount * 2) {
+            runs = Arrays.copyOf(runs, runs.length * 2);
+        }
+        System.arraycopy(runs, run * 2, runs, (run + 1) * 2, (runCount - run) * 2);
+        runs[run * 2] = begin;
+        runs[run * 2 + 1] = end;
+        runCount++;
+    }
+}
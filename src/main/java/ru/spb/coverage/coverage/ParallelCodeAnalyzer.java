@@ -0,0 +1,315 @@
+package ru.spb.coverage.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jacoco.core.analysis.Analyzer;
+import org.jacoco.core.analysis.CoverageBuilder;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.data.ExecutionDataStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipFile;
+
+/**
+ * Analyzes class files and archives with several JaCoCo analyzers at once.
+ * Directories and archives are split into single class entries which are shared between workers,
+ * every worker has its own Analyzer and CoverageBuilder per module, results are merged into one CoverageBuilder per module.
+ * Class files found in the analysis cache are not analyzed again.
+ * Analyzed classes, read bytes and bytes allocated by pool workers are counted for metrics
+ */
+@Slf4j
+public class ParallelCodeAnalyzer {
+
+    private static final List<String> ARCHIVE_EXTENSIONS = List.of(".jar", ".zip", ".war", ".ear");
+    private static final String CLASS_EXTENSION = ".class";
+    private static final String SINGLE_MODULE = "";
+
+    private final ExecutionDataStore executionDataStore;
+    private final int workers;
+    private final AnalysisCache analysisCache;
+    private final AtomicInteger analyzedClasses = new AtomicInteger();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong workerAllocatedBytes = new AtomicLong();
+
+    public ParallelCodeAnalyzer(ExecutionDataStore executionDataStore, int workers) {
+        this(executionDataStore, workers, null);
+    }
+
+    /**
+     * @param analysisCache cache of analyzed classes, null if analysis results should not be cached
+     */
+    public ParallelCodeAnalyzer(ExecutionDataStore executionDataStore, int workers, AnalysisCache analysisCache) {
+        this.executionDataStore = executionDataStore;
+        this.workers = Math.max(1, workers);
+        this.analysisCache = analysisCache;
+    }
+
+    public CoverageBuilder analyze(List<File> classFiles) {
+        return analyze(Map.of(SINGLE_MODULE, classFiles)).get(SINGLE_MODULE);
+    }
+
+    /**
+     * Analyzes class files of several modules at once
+     *
+     * @param classFilesByModule class files or directories to analyze grouped by module name
+     * @return CoverageBuilder with analyzed classes for every module
+     */
+    public Map<String, CoverageBuilder> analyze(Map<String, List<File>> classFilesByModule) {
+        var entries = new ArrayList<ClassEntry>();
+        classFilesByModule.forEach((module, classFiles) -> {
+            for (var classFile : classFiles) {
+                collectEntries(module, classFile, entries);
+            }
+        });
+
+        var workersCount = Math.min(workers, Math.max(1, entries.size()));
+        log.info("Analyzing {} class entries of {} modules with {} workers",
+                entries.size(), classFilesByModule.size(), workersCount);
+
+        var merged = new LinkedHashMap<String, CoverageBuilder>();
+        classFilesByModule.keySet().forEach(module -> merged.put(module, new CoverageBuilder()));
+
+        if (workersCount == 1) {
+            mergeInto(merged, new Worker(entries, new AtomicInteger(), false).call());
+            logCacheStatistics();
+            return merged;
+        }
+
+        var nextEntry = new AtomicInteger();
+        var pool = new ForkJoinPool(workersCount);
+        try {
+            var futures = new ArrayList<Future<Map<String, CoverageBuilder>>>();
+            for (var i = 0; i < workersCount; i++) {
+                futures.add(pool.submit(new Worker(entries, nextEntry, true)));
+            }
+
+            for (var future : futures) {
+                mergeInto(merged, future.get());
+            }
+            logCacheStatistics();
+            return merged;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CoverageTaskException(ex);
+        } catch (ExecutionException ex) {
+            log.error("Something goes wrong during parallel analyzing classes");
+            throw ex.getCause() instanceof CoverageTaskException cte ? cte : new CoverageTaskException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return number of classes analyzed or restored from the cache
+     */
+    public int getAnalyzedClasses() {
+        return analyzedClasses.get();
+    }
+
+    /**
+     * @return size of all class files and archive entries which were analyzed
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * @return bytes allocated by pool workers, allocations of the calling thread are not included,
+     * {@link CoverageMetrics#UNSUPPORTED} if the JVM does not measure allocations
+     */
+    public long getWorkerAllocatedBytes() {
+        return workerAllocatedBytes.get();
+    }
+
+    private static void mergeInto(Map<String, CoverageBuilder> merged, Map<String, CoverageBuilder> workerResult) {
+        workerResult.forEach((module, coverageBuilder) ->
+                coverageBuilder.getClasses().forEach(merged.get(module)::visitCoverage));
+    }
+
+    private void logCacheStatistics() {
+        if (analysisCache != null) {
+            log.info("Analysis cache hits: {}, misses: {}", analysisCache.getHits(), analysisCache.getMisses());
+        }
+    }
+
+    private void collectEntries(String module, File file, List<ClassEntry> entries) {
+        if (file.isDirectory()) {
+            var children = file.listFiles();
+            if (children != null) {
+                Arrays.sort(children);
+                for (var child : children) {
+                    collectEntries(module, child, entries);
+                }
+            }
+        } else if (isArchive(file)) {
+            try (var zipFile = new ZipFile(file)) {
+                zipFile.stream()
+                        .filter(entry -> !entry.isDirectory())
+                        .forEach(entry -> entries.add(new ClassEntry(module, file, entry.getName(), entry.getSize())));
+            } catch (IOException ex) {
+                log.error("Could not read archive {}", file);
+                throw new CoverageTaskException(ex);
+            }
+        } else if (file.isFile()) {
+            entries.add(new ClassEntry(module, file, null, file.length()));
+        }
+    }
+
+    private static boolean isArchive(File file) {
+        var name = file.getName().toLowerCase();
+        return ARCHIVE_EXTENSIONS.stream().anyMatch(name::endsWith);
+    }
+
+    /**
+     * Single class file or an entry of an archive of the module
+     */
+    private record ClassEntry(String module, File file, String archiveEntry, long size) {
+
+        boolean isClassFile() {
+            var name = archiveEntry == null ? file.getName() : archiveEntry;
+            return name.endsWith(CLASS_EXTENSION);
+        }
+
+        String location() {
+            return archiveEntry == null ? file.getPath() : file + "@" + archiveEntry;
+        }
+    }
+
+    private class Worker implements Callable<Map<String, CoverageBuilder>> {
+        private final List<ClassEntry> entries;
+        private final AtomicInteger nextEntry;
+        private final boolean measureAllocations;
+        private final Map<File, ZipFile> openedArchives = new HashMap<>();
+        private final Map<String, CoverageBuilder> coverageBuilders = new HashMap<>();
+        private CoverageBuilder currentCoverageBuilder;
+        private String analyzedClassKey;
+
+        /**
+         * @param measureAllocations true if the worker runs on its own thread and its allocations should be counted
+         */
+        Worker(List<ClassEntry> entries, AtomicInteger nextEntry, boolean measureAllocations) {
+            this.entries = entries;
+            this.nextEntry = nextEntry;
+            this.measureAllocations = measureAllocations;
+        }
+
+        @Override
+        public Map<String, CoverageBuilder> call() {
+            var analyzer = new Analyzer(executionDataStore, this::visitCoverage);
+            var startAllocatedBytes = measureAllocations ? CoverageMetrics.currentThreadAllocatedBytes() : 0;
+
+            try {
+                for (var i = nextEntry.getAndIncrement(); i < entries.size(); i = nextEntry.getAndIncrement()) {
+                    var entry = entries.get(i);
+                    currentCoverageBuilder = coverageBuilders.computeIfAbsent(entry.module(), k -> new CoverageBuilder());
+                    analyzeEntry(analyzer, entry);
+                    bytesRead.addAndGet(Math.max(0, entry.size()));
+                }
+            } catch (IOException ex) {
+                log.error("Something goes wrong during analyzing class");
+                throw new CoverageTaskException(ex);
+            } finally {
+                closeArchives();
+                if (measureAllocations) {
+                    addWorkerAllocatedBytes(startAllocatedBytes, CoverageMetrics.currentThreadAllocatedBytes());
+                }
+            }
+
+            return coverageBuilders;
+        }
+
+        private void addWorkerAllocatedBytes(long startAllocatedBytes, long endAllocatedBytes) {
+            if (startAllocatedBytes == CoverageMetrics.UNSUPPORTED || endAllocatedBytes == CoverageMetrics.UNSUPPORTED) {
+                workerAllocatedBytes.set(CoverageMetrics.UNSUPPORTED);
+            } else {
+                workerAllocatedBytes.getAndUpdate(bytes -> bytes == CoverageMetrics.UNSUPPORTED
+                        ? bytes
+                        : bytes + endAllocatedBytes - startAllocatedBytes);
+            }
+        }
+
+        private void visitCoverage(IClassCoverage classCoverage) {
+            analyzedClasses.incrementAndGet();
+            currentCoverageBuilder.visitCoverage(classCoverage);
+            if (analyzedClassKey != null) {
+                analysisCache.store(analyzedClassKey, classCoverage);
+            }
+        }
+
+        private void analyzeEntry(Analyzer analyzer, ClassEntry entry) throws IOException {
+            if (analysisCache != null && entry.isClassFile()) {
+                analyzeCachedClass(analyzer, entry);
+                return;
+            }
+
+            if (entry.archiveEntry() == null) {
+                analyzer.analyzeAll(entry.file());
+                return;
+            }
+
+            try (var input = openArchiveEntry(entry)) {
+                analyzer.analyzeAll(input, entry.location());
+            }
+        }
+
+        private void analyzeCachedClass(Analyzer analyzer, ClassEntry entry) throws IOException {
+            byte[] classBytes;
+            if (entry.archiveEntry() == null) {
+                classBytes = Files.readAllBytes(entry.file().toPath());
+            } else {
+                try (var input = openArchiveEntry(entry)) {
+                    classBytes = input.readAllBytes();
+                }
+            }
+
+            var key = analysisCache.key(classBytes, executionDataStore);
+            var cachedCoverage = analysisCache.find(key);
+            if (cachedCoverage.isPresent()) {
+                analyzedClasses.incrementAndGet();
+                currentCoverageBuilder.visitCoverage(cachedCoverage.get());
+                return;
+            }
+
+            analyzedClassKey = key;
+            try {
+                analyzer.analyzeClass(classBytes, entry.location());
+            } finally {
+                analyzedClassKey = null;
+            }
+        }
+
+        private InputStream openArchiveEntry(ClassEntry entry) throws IOException {
+            var zipFile = openedArchives.get(entry.file());
+            if (zipFile == null) {
+                zipFile = new ZipFile(entry.file());
+                openedArchives.put(entry.file(), zipFile);
+            }
+            return zipFile.getInputStream(zipFile.getEntry(entry.archiveEntry()));
+        }
+
+        private void closeArchives() {
+            for (var zipFile : openedArchives.values()) {
+                try {
+                    zipFile.close();
+                } catch (IOException ex) {
+                    log.warn("Could not close archive {}", zipFile.getName());
+                }
+            }
+            openedArchives.clear();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package ru.spb.coverage.coverage;
+
+import ru.spb.coverage.domain.report.ChangedLineTests;
+import ru.spb.coverage.domain.report.CoverageChange;
+import ru.spb.coverage.domain.report.CoverageRegression;
+import ru.spb.coverage.domain.report.Report;
+import ru.spb.coverage.domain.report.ReportTotals;
+import ru.spb.coverage.domain.report.UnitCoverage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects all coverage changes into in-memory Report
+ */
+public class ReportCollector implements CoverageReportSink {
+
+    private final List<CoverageChange> changes = new ArrayList<>();
+    private final List<UnitCoverage> units = new ArrayList<>();
+    private final List<CoverageRegression> regressions = new ArrayList<>();
+    private final List<ChangedLineTests> lineTests = new ArrayList<>();
+    private Report report;
+
+    @Override
+    public void accept(CoverageChange change) {
+        changes.add(change);
+    }
+
+    @Override
+    public void acceptUnits(List<UnitCoverage> units) {
+        this.units.addAll(units);
+    }
+
+    @Override
+    public void acceptLineTests(ChangedLineTests lineTests) {
+        this.lineTests.add(lineTests);
+    }
+
+    @Override
+    public void acceptRegression(CoverageRegression regression) {
+        regressions.add(regression);
+    }
+
+    @Override
+    public void finish(ReportTotals totals) {
+        report = Report.builder()
+                .changes(changes)
+                .units(units)
+                .regressions(regressions)
+                .lineTests(lineTests)
+                .allLines(totals.getAllLines())
+                .coveredLines(totals.getCoveredLines())
+                .allBranches(totals.getAllBranches())
+                .coveredBranches(totals.getCoveredBranches())
+                .build();
+    }
+
+    public Report getReport() {
+        return report;
+    }
+}
@@ -0,0 +1,63 @@
+package ru.spb.coverage.coverage;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Formats of the report file, all of them are written from the same coverage changes
+ */
+public enum ReportFormat {
+    /**
+     * Human readable report with the changed code
+     */
+    TEXT("txt"),
+    /**
+     * Line numbers and counters of every change for dashboards, without source text
+     */
+    JSON("json"),
+    /**
+     * Varint encoded line numbers and counters, see {@link BinaryReportWriter}
+     */
+    BINARY("bin");
+
+    private final String extension;
+
+    ReportFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return report file of this format next to the text report, e.g. report.json for report.txt
+     */
+    public Path besideReport(Path textReportFile) {
+        var fileName = textReportFile.getFileName().toString();
+        var extensionStart = fileName.lastIndexOf('.');
+        var baseName = extensionStart > 0 ? fileName.substring(0, extensionStart) : fileName;
+        return textReportFile.resolveSibling(baseName + "." + extension);
+    }
+
+    public ReportWriter open(Path reportFile) {
+        return switch (this) {
+            case TEXT -> new TextReportWriter(reportFile);
+            case JSON -> new JsonReportWriter(reportFile);
+            case BINARY -> new BinaryReportWriter(reportFile);
+        };
+    }
+
+    /**
+     * @param name case insensitive name of the format
+     * @throws IllegalArgumentException if there is no such format
+     */
+    public static ReportFormat of(String name) {
+        return Arrays.stream(values())
+                .filter(format -> format.name().equalsIgnoreCase(name))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown report format " + name
+                        + ", expected one of: " + Arrays.toString(values()).toLowerCase(Locale.ROOT)));
+    }
+}
@@ -1,130 +1,84 @@
 package ru.spb.coverage.coverage;
 
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.lang3.StringUtils;
-import ru.spb.coverage.domain.report.CodeLine;
-import ru.spb.coverage.domain.report.CoverageChange;
 import ru.spb.coverage.domain.report.Report;
 import ru.spb.coverage.domain.report.ReportResults;
+import ru.spb.coverage.domain.report.ReportTotals;
 
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.PrintWriter;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 @Slf4j
 public class ReportPrinter {
 
-    private static final String SEPARATOR = "============================================\n";
-    private static final String SUMMARIZE_BRANCHES_COVERED_PREFIX = "Summarize: Branches covered ";
-    private static final String SUMMARIZE_LINES_COVERED_PREFIX = "Summarize: Lines covered ";
-    private static final String UNCOVERED_LINES_PREFIX = "Uncovered lines:";
-    private static final String BRANCH_COVERED_PREFIX = "Branch covered:";
     private static final String REPORT_FILE_NAME = "report.txt";
-    private static final String SOURCE_FILENAME_PREFIX = "Source filename: ";
-    private static final String TOTAL_COVERAGE_BRANCHES_PREFIX = "TOTAL COVERAGE BRANCHES: ";
-    private static final String TOTAL_COVERAGE_LINES_PREFIX = "TOTAL COVERAGE LINES: ";
 
-    public ReportResults saveReportAsFile(Report report) {
-        var coverageChanges = report.getChanges();
-
-        log.info("Starting creating and saving report file");
-
-        try (FileWriter fileWriter = new FileWriter(REPORT_FILE_NAME);
-             PrintWriter printWriter = new PrintWriter(fileWriter)) {
-
-            if (coverageChanges.isEmpty()) {
-                log.info("No data to make coverageChanges. CoverageChange file would be empty");
-                return new ReportResults(100.0, 100.0);
-            }
-
-            printWriter.println(SEPARATOR);
-
-            coverageChanges.forEach(r -> {
-                printWriter.println(SOURCE_FILENAME_PREFIX + r.getFileName() + "\n");
-
-                printWriter.println(r.getNewCodeBlock());
-
-                printLineCoverage(r, printWriter);
-                printWriter.println();
-                printBranchCoverage(r, printWriter);
-
-                printWriter.println(SEPARATOR);
-            });
-
-            printTotalBranchCoverage(report, printWriter);
-            printTotalLinesCoverage(report, printWriter);
-
-        } catch (IOException ex) {
-            log.error("Could not make and save report file");
-            throw new CoverageTaskException(ex);
-        }
+    private final Path reportFile;
+    private final Map<ReportFormat, Path> additionalReports;
+    private final List<ReportWriter> additionalWriters;
 
-        log.info("Report file successfully saved");
-
-        return new ReportResults(
-                calcCoveragePercent(report.getCoveredLines(), report.getAllLines()),
-                calcCoveragePercent(report.getCoveredBranches(), report.getAllBranches())
-        );
+    public ReportPrinter() {
+        this(Path.of(REPORT_FILE_NAME));
     }
 
-    private void printTotalBranchCoverage(Report report, PrintWriter printWriter) {
-        var totalBranches = coveragePercent(report.getCoveredBranches(),
-                report.getAllBranches(),
-                TOTAL_COVERAGE_BRANCHES_PREFIX
-        );
-        printWriter.println(totalBranches);
+    public ReportPrinter(Path reportFile) {
+        this(reportFile, Map.of());
     }
 
-    private void printTotalLinesCoverage(Report report, PrintWriter printWriter) {
-        var totalLines = coveragePercent(report.getCoveredLines(),
-                report.getAllLines(),
-                TOTAL_COVERAGE_LINES_PREFIX
-        );
-        printWriter.println(totalLines);
+    /**
+     * @param reportFile        text report file, coverage results are computed from it
+     * @param additionalReports reports in other formats written from the same changes
+     */
+    public ReportPrinter(Path reportFile, Map<ReportFormat, Path> additionalReports) {
+        this(reportFile, additionalReports, List.of());
     }
 
-    private void printLineCoverage(CoverageChange r, PrintWriter printWriter) {
-        var allLines = r.getAcceptableLinesForCovering();
-        var coveredLines = allLines - r.getUncoveredCodeLines().size();
-
-        var format = coveragePercent(coveredLines, allLines, SUMMARIZE_LINES_COVERED_PREFIX);
-        printWriter.println(format);
-
-        printWriter.println(UNCOVERED_LINES_PREFIX);
-        for (var line : r.getUncoveredCodeLines()) {
-            printWriter.println(formatCodeLine(line));
-        }
+    /**
+     * @param additionalWriters writers receiving the same changes, e.g. the coverage history
+     */
+    public ReportPrinter(Path reportFile,
+                         Map<ReportFormat, Path> additionalReports,
+                         List<ReportWriter> additionalWriters) {
+        this.reportFile = reportFile;
+        this.additionalReports = additionalReports;
+        this.additionalWriters = additionalWriters;
     }
 
-    private void printBranchCoverage(CoverageChange r, PrintWriter printWriter) {
-        if (!r.getPartlyCoveredCodeLines().isEmpty()) {
-            var allBranches = r.getMissedBranches() + r.getCoveredBranches();
-            var formatBranches = coveragePercent(r.getCoveredBranches(), allBranches, SUMMARIZE_BRANCHES_COVERED_PREFIX);
-            printWriter.println(formatBranches);
-        }
-
-        for (var line : r.getPartlyCoveredCodeLines()) {
-            var allBranches = line.getBranch().getMissed() + line.getBranch().getCovered();
-            var formatStats = coveragePercent(line.getBranch().getCovered(), allBranches, BRANCH_COVERED_PREFIX);
-            printWriter.println(formatStats);
-            printWriter.println(formatCodeLine(line));
-        }
+    public ReportResults saveReportAsFile(Report report) {
+        return saveReport(reportWriter -> {
+            report.getChanges().forEach(reportWriter::accept);
+            if (!report.getUnits().isEmpty()) {
+                reportWriter.acceptUnits(report.getUnits());
+            }
+            report.getLineTests().forEach(reportWriter::acceptLineTests);
+            report.getRegressions().forEach(reportWriter::acceptRegression);
+            reportWriter.finish(ReportTotals.builder()
+                    .allLines(report.getAllLines())
+                    .coveredLines(report.getCoveredLines())
+                    .allBranches(report.getAllBranches())
+                    .coveredBranches(report.getCoveredBranches())
+                    .build());
+        });
     }
 
-    private String formatCodeLine(CodeLine codeLine) {
-        return (codeLine.getLineNumber() + 1) + ": " + StringUtils.trim(codeLine.getText());
+    /**
+     * Streams the report of the coverage service into the report files
+     */
+    public ReportResults saveReportAsFile(CoverageService coverageService) {
+        return saveReport(coverageService::evaluate);
     }
 
-    private String coveragePercent(int covered, int all, String messagePrefix) {
-        return String.format("%s %d of %d (%.2f %%)",
-                messagePrefix,
-                covered,
-                all,
-                calcCoveragePercent(covered, all)
-        );
-    }
+    private ReportResults saveReport(Consumer<CoverageReportSink> changes) {
+        log.info("Starting creating and saving report file");
+
+        var textReportWriter = new TextReportWriter(reportFile);
+        try (var reportWriter = CompositeReportWriter.open(textReportWriter, additionalReports, additionalWriters)) {
+            changes.accept(reportWriter);
 
-    private static double calcCoveragePercent(int covered, int all) {
-        return ((double) covered / all) * 100;
+            log.info("Report file successfully saved");
+        }
+        return textReportWriter.getResults();
     }
 }
@@ -0,0 +1,15 @@
+package ru.spb.coverage.coverage;
+
+import java.io.Closeable;
+
+/**
+ * Report file written while coverage changes are computed
+ */
+public interface ReportWriter extends CoverageReportSink, Closeable {
+
+    /**
+     * @throws CoverageTaskException if the report could not be written
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,47 @@
+package ru.spb.coverage.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * State kept warm between evaluations of a long-lived process:
+ * opened git repositories with their pack indexes and analysis caches with recent results in memory
+ */
+@Slf4j
+public class SharedCoverageState implements Closeable {
+
+    private static final int MAX_MEMORY_ANALYSIS_ENTRIES = 200_000;
+
+    private final Map<File, Repository> repositories = new ConcurrentHashMap<>();
+    private final Map<File, AnalysisCache> analysisCaches = new ConcurrentHashMap<>();
+
+    public Repository repository(File gitDir) {
+        return repositories.computeIfAbsent(gitDir.getAbsoluteFile(), dir -> {
+            try {
+                log.info("Opening git repository {}", dir);
+                return GitUtils.openRepository(dir.getPath());
+            } catch (IOException ex) {
+                log.error("Could not open git repository");
+                throw new CoverageTaskException(ex);
+            }
+        });
+    }
+
+    public AnalysisCache analysisCache(File cacheDir) {
+        return analysisCaches.computeIfAbsent(cacheDir.getAbsoluteFile(),
+                dir -> new AnalysisCache(dir, MAX_MEMORY_ANALYSIS_ENTRIES));
+    }
+
+    @Override
+    public void close() {
+        repositories.values().forEach(Repository::close);
+        repositories.clear();
+        analysisCaches.clear();
+    }
+}
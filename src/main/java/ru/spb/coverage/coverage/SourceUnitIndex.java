@@ -0,0 +1,146 @@
+package ru.spb.coverage.coverage;
+
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.ISourceNode;
+import ru.spb.coverage.domain.report.UnitCoverage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Line ranges of the methods and classes of a single source file.
+ * Ranges are kept in an array sorted by the first line, which is an implicit balanced tree:
+ * every element also keeps the max last line of its subtree, so ranges overlapping a diff are found
+ * in logarithmic time plus the number of found ranges instead of scanning all methods for every diff
+ */
+final class SourceUnitIndex {
+
+    static final SourceUnitIndex EMPTY = new SourceUnitIndex(List.of());
+
+    private final Unit[] units;
+    private final int[] maxLastLines;
+
+    private SourceUnitIndex(List<Unit> units) {
+        this.units = units.stream()
+                .sorted(Comparator.comparingInt(Unit::firstLine).thenComparingInt(Unit::order))
+                .toArray(Unit[]::new);
+        this.maxLastLines = new int[this.units.length];
+        buildMaxLastLines(0, this.units.length);
+    }
+
+    /**
+     * Methods of every class follow each other and are followed by the class, units without lines are skipped
+     *
+     * @param classes classes compiled from the source file
+     */
+    static SourceUnitIndex of(List<IClassCoverage> classes) {
+        var units = new ArrayList<Unit>();
+        for (var classCoverage : classes) {
+            for (var method : classCoverage.getMethods()) {
+                add(units, classCoverage, method.getName(), method);
+            }
+            add(units, classCoverage, null, classCoverage);
+        }
+        return units.isEmpty() ? EMPTY : new SourceUnitIndex(units);
+    }
+
+    private static void add(List<Unit> units, IClassCoverage classCoverage, String methodName, ISourceNode node) {
+        if (node.getFirstLine() != ISourceNode.UNKNOWN_LINE) {
+            units.add(new Unit(units.size(), classCoverage, methodName, node));
+        }
+    }
+
+    int size() {
+        return units.length;
+    }
+
+    /**
+     * Passes every unit having any line of the range to the consumer, in the order of first lines
+     *
+     * @param fromLine one based first line, inclusive
+     * @param toLine   one based last line, inclusive
+     */
+    void overlapping(int fromLine, int toLine, Consumer<Unit> consumer) {
+        overlapping(0, units.length, fromLine, toLine, consumer);
+    }
+
+    /**
+     * @param line one based line
+     * @return the narrowest method having code on the line, null if there is none
+     */
+    Unit enclosingMethod(int line) {
+        var enclosing = new Unit[1];
+        overlapping(line, line, unit -> {
+            if (unit.isMethod()
+                    && unit.node().getLine(line).getStatus() != ICounter.EMPTY
+                    && (enclosing[0] == null || unit.lineCount() < enclosing[0].lineCount())) {
+                enclosing[0] = unit;
+            }
+        });
+        return enclosing[0];
+    }
+
+    private void overlapping(int low, int high, int fromLine, int toLine, Consumer<Unit> consumer) {
+        if (low >= high) {
+            return;
+        }
+        var middle = (low + high) >>> 1;
+        if (maxLastLines[middle] < fromLine) {
+            return;
+        }
+
+        overlapping(low, middle, fromLine, toLine, consumer);
+        var unit = units[middle];
+        // Units of the right subtree start at the same line or later
+        if (unit.firstLine() > toLine) {
+            return;
+        }
+        if (unit.lastLine() >= fromLine) {
+            consumer.accept(unit);
+        }
+        overlapping(middle + 1, high, fromLine, toLine, consumer);
+    }
+
+    private int buildMaxLastLines(int low, int high) {
+        if (low >= high) {
+            return Integer.MIN_VALUE;
+        }
+        var middle = (low + high) >>> 1;
+        var maxLastLine = Math.max(units[middle].lastLine(),
+                Math.max(buildMaxLastLines(low, middle), buildMaxLastLines(middle + 1, high)));
+        maxLastLines[middle] = maxLastLine;
+        return maxLastLine;
+    }
+
+    /**
+     * Method or class of the source file
+     *
+     * @param order      position of the unit as given to {@link #of(List)}
+     * @param methodName null for a class
+     */
+    record Unit(int order, IClassCoverage classCoverage, String methodName, ISourceNode node) {
+
+        boolean isMethod() {
+            return methodName != null;
+        }
+
+        int firstLine() {
+            return node.getFirstLine();
+        }
+
+        int lastLine() {
+            return node.getLastLine();
+        }
+
+        int lineCount() {
+            return lastLine() - firstLine() + 1;
+        }
+
+        String displayName() {
+            return UnitCoverage.displayName(classCoverage.getName(), methodName);
+        }
+    }
+}
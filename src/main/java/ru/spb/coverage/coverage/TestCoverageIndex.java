@@ -0,0 +1,233 @@
+package ru.spb.coverage.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.jacoco.core.analysis.Analyzer;
+import org.jacoco.core.analysis.CoverageBuilder;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.internal.data.CRC64;
+import ru.spb.coverage.domain.GitDiff;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+/**
+ * Tests covering every changed line, built from exec files with a session per test.
+ * The session id is taken as the test id, e.g. when the JaCoCo agent is dumped and reset with a new session id
+ * after every test. Only execution data of the changed classes is kept, every session is analyzed only
+ * for the changed classes it executed and only changed lines are indexed
+ */
+@Slf4j
+public class TestCoverageIndex {
+
+    private static final String UNKNOWN_SESSION = "unknown";
+
+    private final Map<String, Map<Integer, SortedSet<String>>> testsByFile = new HashMap<>();
+    private int sessions;
+    private int analyzedClasses;
+
+    /**
+     * @param execFiles  exec files with sessions of tests
+     * @param classFiles class files compiled from changed sources
+     * @param gitDiffs   changed lines
+     * @param workers    sessions analyzed at once
+     */
+    public static TestCoverageIndex build(List<File> execFiles,
+                                          List<File> classFiles,
+                                          Collection<GitDiff> gitDiffs,
+                                          int workers) {
+        var index = new TestCoverageIndex();
+        var classes = readClasses(classFiles);
+        var classIds = classes.stream().map(ChangedClass::id).collect(Collectors.toSet());
+        var sessionStores = readSessions(execFiles, classIds);
+        index.sessions = sessionStores.size();
+
+        var diffsByFileName = gitDiffs.stream().collect(Collectors.groupingBy(GitDiff::getChangedFileName));
+        var tasks = new ArrayList<Callable<SessionLines>>();
+        sessionStores.forEach((testId, store) -> tasks.add(() -> coveredLines(testId, store, classes, diffsByFileName)));
+
+        var pool = new ForkJoinPool(Math.max(1, Math.min(workers, tasks.size())));
+        try {
+            for (Future<SessionLines> future : pool.invokeAll(tasks)) {
+                index.add(future.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CoverageTaskException(ex);
+        } catch (ExecutionException ex) {
+            log.error("Could not index tests of changed lines");
+            throw ex.getCause() instanceof CoverageTaskException cte ? cte : new CoverageTaskException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        log.info("Indexed {} test sessions covering changed lines of {} files", index.sessions, index.testsByFile.size());
+        return index;
+    }
+
+    /**
+     * @param fileName source file name with the package as in the report
+     * @return tests by one based line number, only changed lines covered by any test are present
+     */
+    public Map<Integer, SortedSet<String>> fileTests(String fileName) {
+        return testsByFile.getOrDefault(fileName, Map.of());
+    }
+
+    /**
+     * @return tests covering any changed line
+     */
+    public SortedSet<String> allTests() {
+        var tests = new TreeSet<String>();
+        testsByFile.values().forEach(lines -> lines.values().forEach(tests::addAll));
+        return tests;
+    }
+
+    public int getSessions() {
+        return sessions;
+    }
+
+    public int getAnalyzedClasses() {
+        return analyzedClasses;
+    }
+
+    /**
+     * Writes tests covering changed lines, one test id per line, so CI can re-run only them
+     */
+    public void writeAffectedTests(Path affectedTestsFile) {
+        try {
+            if (affectedTestsFile.getParent() != null) {
+                Files.createDirectories(affectedTestsFile.getParent());
+            }
+            Files.write(affectedTestsFile, allTests(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            log.error("Could not save affected tests file");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    private static SessionLines coveredLines(String testId,
+                                             ExecutionDataStore store,
+                                             List<ChangedClass> classes,
+                                             Map<String, List<GitDiff>> diffsByFileName) throws IOException {
+        var coverageBuilder = new CoverageBuilder();
+        var analyzer = new Analyzer(store, coverageBuilder);
+        var analyzed = 0;
+        for (var changedClass : classes) {
+            if (store.get(changedClass.id()) != null) {
+                analyzer.analyzeClass(changedClass.bytes(), changedClass.location());
+                analyzed++;
+            }
+        }
+
+        var lines = new HashMap<String, Set<Integer>>();
+        for (var sourceFile : coverageBuilder.getSourceFiles()) {
+            var fileName = String.join("/", sourceFile.getPackageName(), sourceFile.getName());
+            for (var diff : diffsByFileName.getOrDefault(sourceFile.getName(), List.of())) {
+                if (!isSameFile(diff, fileName)) {
+                    continue;
+                }
+                for (var line = diff.getBeginChanges() + 1; line <= diff.getEndChanges(); line++) {
+                    var status = sourceFile.getLine(line).getStatus();
+                    if (status == ICounter.FULLY_COVERED || status == ICounter.PARTLY_COVERED) {
+                        lines.computeIfAbsent(fileName, k -> new HashSet<>()).add(line);
+                    }
+                }
+            }
+        }
+        return new SessionLines(testId, lines, analyzed);
+    }
+
+    private void add(SessionLines sessionLines) {
+        analyzedClasses += sessionLines.analyzedClasses();
+        sessionLines.lines().forEach((fileName, lines) -> {
+            var fileTests = testsByFile.computeIfAbsent(fileName, k -> new TreeMap<>());
+            for (var line : lines) {
+                fileTests.computeIfAbsent(line, k -> new TreeSet<>()).add(sessionLines.testId());
+            }
+        });
+    }
+
+    /**
+     * Diffs are grouped by the simple file name, the package distinguishes files of the same name
+     */
+    private static boolean isSameFile(GitDiff diff, String fileName) {
+        var suffix = fileName.startsWith("/") ? fileName : "/" + fileName;
+        return ("/" + diff.getFilePath()).endsWith(suffix);
+    }
+
+    private static List<ChangedClass> readClasses(List<File> classFiles) {
+        var classes = new ArrayList<ChangedClass>();
+        for (var classFile : classFiles) {
+            if (!classFile.isFile()) {
+                continue;
+            }
+            try {
+                var bytes = Files.readAllBytes(classFile.toPath());
+                classes.add(new ChangedClass(CRC64.classId(bytes), bytes, classFile.getPath()));
+            } catch (IOException ex) {
+                log.error("Could not read class file {}", classFile);
+                throw new CoverageTaskException(ex);
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * @return execution data of the changed classes by session id
+     */
+    private static Map<String, ExecutionDataStore> readSessions(List<File> execFiles, Set<Long> classIds) {
+        var sessionStores = new LinkedHashMap<String, ExecutionDataStore>();
+        for (var execFile : execFiles) {
+            if (!execFile.isFile()) {
+                continue;
+            }
+
+            try (var in = new BufferedInputStream(Files.newInputStream(execFile.toPath()))) {
+                var reader = FilteringExecutionDataReader.of(in, classIds, null);
+                var currentStore = new ExecutionDataStore[1];
+                reader.setSessionInfoVisitor(info ->
+                        currentStore[0] = sessionStores.computeIfAbsent(info.getId(), id -> new ExecutionDataStore()));
+                reader.setExecutionDataVisitor(data -> {
+                    if (currentStore[0] == null) {
+                        currentStore[0] = sessionStores.computeIfAbsent(UNKNOWN_SESSION, id -> new ExecutionDataStore());
+                    }
+                    currentStore[0].put(data);
+                });
+                reader.read();
+            } catch (IOException ex) {
+                log.error("Could not read jacoco exec file {}", execFile);
+                throw new CoverageTaskException(ex);
+            }
+        }
+
+        // Sessions which did not execute any changed class cover no changed line
+        sessionStores.values().removeIf(store -> store.getContents().isEmpty());
+        return sessionStores;
+    }
+
+    private record ChangedClass(long id, byte[] bytes, String location) {
+    }
+
+    private record SessionLines(String testId, Map<String, Set<Integer>> lines, int analyzedClasses) {
+    }
+}
@@ -0,0 +1,227 @@
+package ru.spb.coverage.coverage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import ru.spb.coverage.domain.report.CodeLine;
+import ru.spb.coverage.domain.report.CoverageChange;
+import ru.spb.coverage.domain.report.CoverageRegression;
+import ru.spb.coverage.domain.report.ReportResults;
+import ru.spb.coverage.domain.report.ReportTotals;
+import ru.spb.coverage.domain.report.UnitCoverage;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Writes coverage changes to the text report as soon as they are computed,
+ * nothing except the output buffer is kept in memory
+ */
+@Slf4j
+public class TextReportWriter implements ReportWriter {
+
+    private static final String SEPARATOR = "============================================\n";
+    private static final String SUMMARIZE_BRANCHES_COVERED_PREFIX = "Summarize: Branches covered ";
+    private static final String SUMMARIZE_LINES_COVERED_PREFIX = "Summarize: Lines covered ";
+    private static final String UNCOVERED_LINES_PREFIX = "Uncovered lines:";
+    private static final String BRANCH_COVERED_PREFIX = "Branch covered:";
+    private static final String METHOD_PREFIX = "    (in ";
+    private static final String SOURCE_FILENAME_PREFIX = "Source filename: ";
+    private static final String TOTAL_COVERAGE_BRANCHES_PREFIX = "TOTAL COVERAGE BRANCHES: ";
+    private static final String TOTAL_COVERAGE_LINES_PREFIX = "TOTAL COVERAGE LINES: ";
+    private static final String UNCHANGED_SOURCE_FILENAME_PREFIX = "Lost coverage of unchanged code in: ";
+    private static final String LOST_LINES_PREFIX = "Lines covered on the target branch and not covered now:";
+    private static final String LOST_BRANCHES_PREFIX = "Lines with less covered branches than on the target branch:";
+    private static final String TOTAL_LOST_LINES_PREFIX = "TOTAL UNCHANGED LINES WHICH LOST COVERAGE: ";
+
+    private final PrintWriter printWriter;
+    private boolean hasChanges;
+    private boolean separatorPrinted;
+    private int lostLines;
+    private UnitCoverage worstMethod;
+    private UnitCoverage worstClass;
+    private ReportResults results;
+
+    public TextReportWriter(Path reportFile) {
+        try {
+            if (reportFile.getParent() != null) {
+                Files.createDirectories(reportFile.getParent());
+            }
+            this.printWriter = new PrintWriter(Files.newBufferedWriter(reportFile, StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            log.error("Could not make and save report file");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    @Override
+    public void accept(CoverageChange change) {
+        printFirstSeparator();
+        hasChanges = true;
+
+        printWriter.println(SOURCE_FILENAME_PREFIX + change.getFileName() + "\n");
+
+        printWriter.println(change.getNewCodeBlock());
+
+        printLineCoverage(change);
+        printWriter.println();
+        printBranchCoverage(change);
+
+        printWriter.println(SEPARATOR);
+    }
+
+    /**
+     * Units are not printed, only the worst covered method and class are kept for the results
+     */
+    @Override
+    public void acceptUnits(List<UnitCoverage> units) {
+        for (var unit : units) {
+            if (unit.getLevel() == UnitCoverage.Level.METHOD) {
+                worstMethod = worse(worstMethod, unit);
+            } else {
+                worstClass = worse(worstClass, unit);
+            }
+        }
+    }
+
+    @Override
+    public void acceptRegression(CoverageRegression regression) {
+        printFirstSeparator();
+        printWriter.println(UNCHANGED_SOURCE_FILENAME_PREFIX + regression.getFileName() + "\n");
+
+        if (!regression.getUncoveredCodeLines().isEmpty()) {
+            printWriter.println(LOST_LINES_PREFIX);
+            for (var line : regression.getUncoveredCodeLines()) {
+                printWriter.println(line.getMethod() == null
+                        ? formatCodeLine(line)
+                        : formatCodeLine(line) + METHOD_PREFIX + line.getMethod() + ")");
+            }
+        }
+        if (!regression.getLostBranchCodeLines().isEmpty()) {
+            printWriter.println(LOST_BRANCHES_PREFIX);
+            printBranchLines(regression.getLostBranchCodeLines());
+        }
+        lostLines += regression.getUncoveredCodeLines().size() + regression.getLostBranchCodeLines().size();
+
+        printWriter.println(SEPARATOR);
+    }
+
+    @Override
+    public void finish(ReportTotals totals) {
+        if (lostLines > 0) {
+            log.warn("{} unchanged lines lost coverage since the target branch", lostLines);
+            printWriter.println(TOTAL_LOST_LINES_PREFIX + lostLines);
+        }
+        if (!hasChanges) {
+            log.info("No data to make coverageChanges. CoverageChange file would be empty");
+            results = new ReportResults(100.0, 100.0, worstMethod, worstClass);
+            return;
+        }
+
+        printWriter.println(coveragePercent(totals.getCoveredBranches(),
+                totals.getAllBranches(),
+                TOTAL_COVERAGE_BRANCHES_PREFIX
+        ));
+        printWriter.println(coveragePercent(totals.getCoveredLines(),
+                totals.getAllLines(),
+                TOTAL_COVERAGE_LINES_PREFIX
+        ));
+
+        results = new ReportResults(
+                calcCoveragePercent(totals.getCoveredLines(), totals.getAllLines()),
+                calcCoveragePercent(totals.getCoveredBranches(), totals.getAllBranches()),
+                worstMethod,
+                worstClass
+        );
+    }
+
+    /**
+     * @return coverage results, available after {@link #finish(ReportTotals)}
+     */
+    public ReportResults getResults() {
+        return results;
+    }
+
+    @Override
+    public void close() {
+        printWriter.close();
+        if (printWriter.checkError()) {
+            log.error("Could not make and save report file");
+            throw new CoverageTaskException("Could not write report file");
+        }
+    }
+
+    private void printLineCoverage(CoverageChange r) {
+        var allLines = r.getAcceptableLinesForCovering();
+        var coveredLines = allLines - r.getUncoveredCodeLines().size();
+
+        var format = coveragePercent(coveredLines, allLines, SUMMARIZE_LINES_COVERED_PREFIX);
+        printWriter.println(format);
+
+        printWriter.println(UNCOVERED_LINES_PREFIX);
+        for (var line : r.getUncoveredCodeLines()) {
+            printWriter.println(line.getMethod() == null
+                    ? formatCodeLine(line)
+                    : formatCodeLine(line) + METHOD_PREFIX + line.getMethod() + ")");
+        }
+    }
+
+    private void printBranchCoverage(CoverageChange r) {
+        if (!r.getPartlyCoveredCodeLines().isEmpty()) {
+            var allBranches = r.getMissedBranches() + r.getCoveredBranches();
+            var formatBranches = coveragePercent(r.getCoveredBranches(), allBranches, SUMMARIZE_BRANCHES_COVERED_PREFIX);
+            printWriter.println(formatBranches);
+        }
+
+        printBranchLines(r.getPartlyCoveredCodeLines());
+    }
+
+    private void printBranchLines(List<CodeLine> lines) {
+        for (var line : lines) {
+            var allBranches = line.getBranch().getMissed() + line.getBranch().getCovered();
+            var formatStats = coveragePercent(line.getBranch().getCovered(), allBranches, BRANCH_COVERED_PREFIX);
+            printWriter.println(formatStats);
+            printWriter.println(formatCodeLine(line));
+        }
+    }
+
+    private void printFirstSeparator() {
+        if (!separatorPrinted) {
+            printWriter.println(SEPARATOR);
+            separatorPrinted = true;
+        }
+    }
+
+    private String formatCodeLine(CodeLine codeLine) {
+        return (codeLine.getLineNumber() + 1) + ": " + StringUtils.trim(codeLine.getText());
+    }
+
+    private String coveragePercent(int covered, int all, String messagePrefix) {
+        return String.format("%s %d of %d (%.2f %%)",
+                messagePrefix,
+                covered,
+                all,
+                calcCoveragePercent(covered, all)
+        );
+    }
+
+    /**
+     * @return the unit with the lower line coverage, with more uncovered lines if both are covered equally
+     */
+    private static UnitCoverage worse(UnitCoverage worst, UnitCoverage unit) {
+        if (worst == null || unit.lineCoverage() < worst.lineCoverage()) {
+            return unit;
+        }
+        var uncoveredLines = unit.getAllLines() - unit.getCoveredLines();
+        return unit.lineCoverage() == worst.lineCoverage() && uncoveredLines > worst.getAllLines() - worst.getCoveredLines()
+                ? unit
+                : worst;
+    }
+
+    private static double calcCoveragePercent(int covered, int all) {
+        return ((double) covered / all) * 100;
+    }
+}
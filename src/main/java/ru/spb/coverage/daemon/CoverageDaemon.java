@@ -0,0 +1,205 @@
+package ru.spb.coverage.daemon;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.spb.coverage.coverage.CoverageService;
+import ru.spb.coverage.coverage.ReportPrinter;
+import ru.spb.coverage.coverage.SharedCoverageState;
+import ru.spb.coverage.history.CoverageHistoryRecorder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Long-lived coverage evaluation server listening on a localhost port.
+ * Git repositories and analysis results stay warm between requests, so repeated evaluations
+ * of the same branch only load exec files and read the changed sources.
+ * Requests are handled one by one, class analysis of a request is parallel anyway.
+ * Any local user may connect to the port, so only requests with the random token of the daemon are handled.
+ * The token is written to a file readable by the owner only, see {@link #tokenFile(Path, int)}
+ */
+@Slf4j
+public class CoverageDaemon implements Closeable {
+
+    public static final int DEFAULT_PORT = 47655;
+
+    private static final String DEFAULT_DIR = ".new-code-coverage";
+    private static final int TOKEN_BYTES = 32;
+    private static final int DEFAULT_REQUEST_TIMEOUT_MILLIS = 10_000;
+
+    private final ServerSocket serverSocket;
+    private final SharedCoverageState sharedState = new SharedCoverageState();
+    private final Path tokenFile;
+    private final byte[] token;
+    private final int requestTimeoutMillis;
+
+    /**
+     * @param port localhost port, 0 to pick a free one
+     */
+    public CoverageDaemon(int port) throws IOException {
+        this(port, defaultDir());
+    }
+
+    /**
+     * @param dir directory of the token file, clients read the token from it
+     */
+    public CoverageDaemon(int port, Path dir) throws IOException {
+        this(port, dir, DEFAULT_REQUEST_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param requestTimeoutMillis time to wait for a request after a client connected,
+     *                             so an idle client never blocks the requests of others
+     */
+    CoverageDaemon(int port, Path dir, int requestTimeoutMillis) throws IOException {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        this.serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        var randomBytes = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(randomBytes);
+        this.token = HexFormat.of().formatHex(randomBytes).getBytes(StandardCharsets.US_ASCII);
+        this.tokenFile = tokenFile(dir, getPort());
+        try {
+            writeOwnerOnly(tokenFile, token);
+        } catch (IOException ex) {
+            serverSocket.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * @return directory of daemon tokens of the current user
+     */
+    public static Path defaultDir() {
+        return Path.of(System.getProperty("user.home"), DEFAULT_DIR);
+    }
+
+    /**
+     * @return file with the token of the daemon listening on the port
+     */
+    public static Path tokenFile(Path dir, int port) {
+        return dir.resolve("daemon-" + port + ".token");
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Handles requests until a shutdown request comes or the daemon is closed
+     */
+    public void serve() {
+        log.info("Coverage daemon is listening on port {}", getPort());
+        while (!serverSocket.isClosed()) {
+            try (var socket = serverSocket.accept()) {
+                socket.setSoTimeout(requestTimeoutMillis);
+                if (!handle(socket)) {
+                    break;
+                }
+            } catch (IOException | RuntimeException ex) {
+                if (!serverSocket.isClosed()) {
+                    log.warn("Could not handle coverage daemon request", ex);
+                }
+            }
+        }
+        log.info("Coverage daemon stopped");
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        sharedState.close();
+        Files.deleteIfExists(tokenFile);
+    }
+
+    /**
+     * @return false if the daemon should stop
+     */
+    private boolean handle(Socket socket) throws IOException {
+        Properties request;
+        try {
+            request = DaemonProtocol.read(socket.getInputStream());
+        } catch (IOException | IllegalArgumentException ex) {
+            log.warn("Rejected malformed coverage daemon request: {}", ex.getMessage());
+            DaemonProtocol.write(DaemonProtocol.errorResponse("Malformed coverage daemon request: " + ex.getMessage()),
+                    socket.getOutputStream());
+            return true;
+        }
+        var requestToken = request.getProperty(DaemonProtocol.TOKEN, "");
+        if (!MessageDigest.isEqual(token, requestToken.getBytes(StandardCharsets.US_ASCII))) {
+            log.warn("Rejected coverage daemon request without a valid token");
+            DaemonProtocol.write(DaemonProtocol.errorResponse("Invalid coverage daemon token"),
+                    socket.getOutputStream());
+            return true;
+        }
+        var command = request.getProperty(DaemonProtocol.COMMAND);
+
+        if (DaemonProtocol.COMMAND_SHUTDOWN.equals(command)) {
+            DaemonProtocol.write(DaemonProtocol.okResponse(null), socket.getOutputStream());
+            return false;
+        }
+
+        Properties response;
+        if (DaemonProtocol.COMMAND_EVALUATE.equals(command)) {
+            response = evaluate(request);
+        } else {
+            response = DaemonProtocol.errorResponse("Unknown command " + command);
+        }
+        DaemonProtocol.write(response, socket.getOutputStream());
+        return true;
+    }
+
+    private Properties evaluate(Properties request) {
+        try {
+            var settings = DaemonProtocol.readSettings(request);
+            var coverageService = new CoverageService(settings, sharedState);
+            var historyDir = DaemonProtocol.readHistoryDir(request);
+            var reportPrinter = new ReportPrinter(DaemonProtocol.readReportFile(request),
+                    DaemonProtocol.readAdditionalReports(request),
+                    historyDir == null
+                            ? List.of()
+                            : List.of(CoverageHistoryRecorder.of(settings, historyDir)));
+            var results = reportPrinter.saveReportAsFile(coverageService);
+
+            var metricsFile = DaemonProtocol.readMetricsFile(request);
+            if (metricsFile != null) {
+                coverageService.getMetrics().writeJson(metricsFile);
+            }
+            log.info("Evaluated coverage in {} ms", coverageService.getMetrics().getTotalWallTimeNanos() / 1_000_000);
+            return DaemonProtocol.okResponse(results);
+        } catch (RuntimeException ex) {
+            log.error("Could not evaluate coverage", ex);
+            return DaemonProtocol.errorResponse(ex.getMessage() != null ? ex.getMessage() : ex.toString());
+        }
+    }
+
+    /**
+     * The file is created without any permission for others, so the token is never readable by other users
+     */
+    private static void writeOwnerOnly(Path file, byte[] content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.deleteIfExists(file);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(file);
+            var ownerOnly = file.toFile();
+            if (!(ownerOnly.setReadable(false, false) && ownerOnly.setReadable(true, true)
+                    && ownerOnly.setWritable(false, false) && ownerOnly.setWritable(true, true))) {
+                throw new IOException("Could not make coverage daemon token file " + file + " owner only");
+            }
+        }
+        Files.write(file, content);
+    }
+}
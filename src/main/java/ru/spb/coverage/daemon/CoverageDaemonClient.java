@@ -0,0 +1,72 @@
+package ru.spb.coverage.daemon;
+
+import ru.spb.coverage.coverage.ReportFormat;
+import ru.spb.coverage.domain.CoverageSettings;
+import ru.spb.coverage.domain.report.ReportResults;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Sends requests to the coverage daemon on a localhost port, together with the token the daemon wrote for its owner
+ */
+public class CoverageDaemonClient {
+
+    private final int port;
+    private final Path tokenDir;
+
+    public CoverageDaemonClient(int port) {
+        this(port, CoverageDaemon.defaultDir());
+    }
+
+    /**
+     * @param tokenDir directory the daemon wrote its token to
+     */
+    public CoverageDaemonClient(int port, Path tokenDir) {
+        this.port = port;
+        this.tokenDir = tokenDir;
+    }
+
+    /**
+     * Asks the daemon to evaluate coverage and to write the reports and the metrics
+     *
+     * @param additionalReports reports in other formats written besides the text report
+     * @param metricsFile       metrics file, null if metrics are not needed
+     * @param historyDir        coverage history the run is appended to, null if the history is not kept
+     * @throws IOException if the daemon is not running or the connection failed
+     */
+    public ReportResults evaluate(CoverageSettings settings, Path reportFile, Map<ReportFormat, Path> additionalReports,
+                                  Path metricsFile, Path historyDir) throws IOException {
+        var response = send(DaemonProtocol.evaluateRequest(settings, reportFile, additionalReports, metricsFile,
+                historyDir));
+        return DaemonProtocol.readResults(response);
+    }
+
+    /**
+     * @throws ru.spb.coverage.coverage.CoverageTaskException if the daemon rejected the request, e.g. its token
+     */
+    public void shutdown() throws IOException {
+        var request = new Properties();
+        request.setProperty(DaemonProtocol.COMMAND, DaemonProtocol.COMMAND_SHUTDOWN);
+        DaemonProtocol.requireOk(send(request));
+    }
+
+    /**
+     * @throws IOException also if the token file is missing, e.g. no daemon of the current user runs on the port
+     */
+    private Properties send(Properties request) throws IOException {
+        var token = Files.readString(CoverageDaemon.tokenFile(tokenDir, port), StandardCharsets.US_ASCII);
+        request.setProperty(DaemonProtocol.TOKEN, token.strip());
+        try (var socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DaemonProtocol.write(request, socket.getOutputStream());
+            socket.shutdownOutput();
+            return DaemonProtocol.read(socket.getInputStream());
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package ru.spb.coverage.daemon;
+
+import ru.spb.coverage.coverage.CoverageTaskException;
+import ru.spb.coverage.coverage.ReportFormat;
+import ru.spb.coverage.domain.CoverageSettings;
+import ru.spb.coverage.domain.DiffMode;
+import ru.spb.coverage.domain.ModuleLayout;
+import ru.spb.coverage.domain.report.ReportResults;
+import ru.spb.coverage.domain.report.UnitCoverage;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Requests and responses of the coverage daemon.
+ * Every message is a properties document, the client closes its output after the request
+ * and the daemon closes the connection after the response. Every request carries the token of the daemon.
+ * All paths are sent absolute, the daemon does not share the working directory of the client
+ */
+final class DaemonProtocol {
+
+    static final String COMMAND = "command";
+    static final String COMMAND_EVALUATE = "evaluate";
+    static final String COMMAND_SHUTDOWN = "shutdown";
+    static final String TOKEN = "token";
+    /**
+     * Requests are small, settings and paths only, a longer message is rejected before it is parsed
+     */
+    static final int MAX_MESSAGE_BYTES = 1 << 20;
+
+    static final String STATUS = "status";
+    static final String STATUS_OK = "ok";
+    static final String STATUS_ERROR = "error";
+    static final String MESSAGE = "message";
+
+    private static final String TARGET_BRANCH = "targetBranch";
+    private static final String HEAD_REVISION = "headRevision";
+    private static final String GIT_DIR = "gitDir";
+    private static final String WORK_DIR = "workDir";
+    private static final String ANALYSIS_WORKERS = "analysisWorkers";
+    private static final String EVALUATION_WORKERS = "evaluationWorkers";
+    private static final String FULL_SCAN = "fullScan";
+    private static final String ANALYSIS_CACHE = "analysisCache";
+    private static final String DIFF_AGAINST_MERGE_BASE = "diffAgainstMergeBase";
+    private static final String DIFF_CACHE = "diffCache";
+    private static final String DIFF_MODE = "diffMode";
+    private static final String ADDITIONAL_EXEC_FILES = "additionalExecFiles";
+    private static final String BASELINE_CLASSES_DIRS = "baselineClassesDirs";
+    private static final String BASELINE_EXEC_FILES = "baselineExecFiles";
+    private static final String MODULES = "modules";
+    private static final String MODULE_PREFIX = "module.";
+    private static final String REPORT_FILE = "reportFile";
+    private static final String METRICS_FILE = "metricsFile";
+    private static final String ADDITIONAL_REPORT_PREFIX = "additionalReport.";
+    private static final String HISTORY_DIR = "historyDir";
+    private static final String AFFECTED_TESTS_FILE = "affectedTestsFile";
+    private static final String NEW_CODE_COVERAGE = "newCodeCoverage";
+    private static final String NEW_BRANCH_COVERAGE = "newBranchCoverage";
+    private static final String WORST_METHOD_PREFIX = "worstMethod.";
+    private static final String WORST_CLASS_PREFIX = "worstClass.";
+
+    private DaemonProtocol() {
+    }
+
+    static Properties evaluateRequest(CoverageSettings settings, Path reportFile,
+                                      Map<ReportFormat, Path> additionalReports, Path metricsFile,
+                                      Path historyDir) {
+        var request = new Properties();
+        request.setProperty(COMMAND, COMMAND_EVALUATE);
+        request.setProperty(TARGET_BRANCH, settings.getTargetBranch());
+        if (settings.getHeadRevision() != null) {
+            request.setProperty(HEAD_REVISION, settings.getHeadRevision());
+        }
+        request.setProperty(GIT_DIR, settings.getGitDir().getAbsolutePath());
+        request.setProperty(WORK_DIR, settings.getWorkDir().getAbsolutePath());
+        request.setProperty(ANALYSIS_WORKERS, String.valueOf(settings.getAnalysisWorkers()));
+        request.setProperty(EVALUATION_WORKERS, String.valueOf(settings.getEvaluationWorkers()));
+        request.setProperty(FULL_SCAN, String.valueOf(settings.isFullScan()));
+        request.setProperty(ANALYSIS_CACHE, String.valueOf(settings.isAnalysisCache()));
+        request.setProperty(DIFF_AGAINST_MERGE_BASE, String.valueOf(settings.isDiffAgainstMergeBase()));
+        request.setProperty(DIFF_CACHE, String.valueOf(settings.isDiffCache()));
+        request.setProperty(DIFF_MODE, settings.getDiffMode().name());
+        request.setProperty(ADDITIONAL_EXEC_FILES, joinFiles(settings.getAdditionalExecFiles()));
+        request.setProperty(BASELINE_CLASSES_DIRS, joinFiles(settings.getBaselineClassesDirs()));
+        request.setProperty(BASELINE_EXEC_FILES, joinFiles(settings.getBaselineExecFiles()));
+        if (settings.getAffectedTestsFile() != null) {
+            request.setProperty(AFFECTED_TESTS_FILE, settings.getAffectedTestsFile().getAbsolutePath());
+        }
+
+        var modules = settings.getModules();
+        request.setProperty(MODULES, String.valueOf(modules.size()));
+        for (var i = 0; i < modules.size(); i++) {
+            var module = modules.get(i);
+            var prefix = MODULE_PREFIX + i + ".";
+            request.setProperty(prefix + "name", module.getName());
+            request.setProperty(prefix + "classesDirs", joinFiles(module.getClassesDirs()));
+            request.setProperty(prefix + "sourceDirs", joinFiles(module.getSourceDirs()));
+            request.setProperty(prefix + "execFiles", joinFiles(module.getExecFiles()));
+        }
+
+        request.setProperty(REPORT_FILE, reportFile.toAbsolutePath().toString());
+        additionalReports.forEach((format, file) ->
+                request.setProperty(ADDITIONAL_REPORT_PREFIX + format.name(), file.toAbsolutePath().toString()));
+        if (metricsFile != null) {
+            request.setProperty(METRICS_FILE, metricsFile.toAbsolutePath().toString());
+        }
+        if (historyDir != null) {
+            request.setProperty(HISTORY_DIR, historyDir.toAbsolutePath().toString());
+        }
+        return request;
+    }
+
+    static CoverageSettings readSettings(Properties request) {
+        var modulesCount = Integer.parseInt(required(request, MODULES));
+        var modules = new ArrayList<ModuleLayout>(modulesCount);
+        for (var i = 0; i < modulesCount; i++) {
+            var prefix = MODULE_PREFIX + i + ".";
+            modules.add(ModuleLayout.builder()
+                    .name(required(request, prefix + "name"))
+                    .classesDirs(splitFiles(request.getProperty(prefix + "classesDirs")))
+                    .sourceDirs(splitFiles(request.getProperty(prefix + "sourceDirs")))
+                    .execFiles(splitFiles(request.getProperty(prefix + "execFiles")))
+                    .build());
+        }
+
+        return CoverageSettings.builder()
+                .targetBranch(required(request, TARGET_BRANCH))
+                .headRevision(request.getProperty(HEAD_REVISION))
+                .modules(modules)
+                .additionalExecFiles(splitFiles(request.getProperty(ADDITIONAL_EXEC_FILES)))
+                .gitDir(new File(required(request, GIT_DIR)))
+                .workDir(new File(required(request, WORK_DIR)))
+                .analysisWorkers(Integer.parseInt(required(request, ANALYSIS_WORKERS)))
+                .evaluationWorkers(Integer.parseInt(request.getProperty(EVALUATION_WORKERS, "1")))
+                .fullScan(Boolean.parseBoolean(request.getProperty(FULL_SCAN)))
+                .analysisCache(Boolean.parseBoolean(request.getProperty(ANALYSIS_CACHE)))
+                .diffAgainstMergeBase(Boolean.parseBoolean(request.getProperty(DIFF_AGAINST_MERGE_BASE)))
+                .diffCache(Boolean.parseBoolean(request.getProperty(DIFF_CACHE)))
+                .diffMode(DiffMode.of(request.getProperty(DIFF_MODE, DiffMode.BRANCH.name())))
+                .affectedTestsFile(request.getProperty(AFFECTED_TESTS_FILE) == null
+                        ? null
+                        : new File(request.getProperty(AFFECTED_TESTS_FILE)))
+                .baselineClassesDirs(splitFiles(request.getProperty(BASELINE_CLASSES_DIRS)))
+                .baselineExecFiles(splitFiles(request.getProperty(BASELINE_EXEC_FILES)))
+                .build();
+    }
+
+    static Path readReportFile(Properties request) {
+        return Path.of(required(request, REPORT_FILE));
+    }
+
+    static Map<ReportFormat, Path> readAdditionalReports(Properties request) {
+        var additionalReports = new EnumMap<ReportFormat, Path>(ReportFormat.class);
+        for (var format : ReportFormat.values()) {
+            var reportFile = request.getProperty(ADDITIONAL_REPORT_PREFIX + format.name());
+            if (reportFile != null) {
+                additionalReports.put(format, Path.of(reportFile));
+            }
+        }
+        return additionalReports;
+    }
+
+    /**
+     * @return metrics file or null if metrics are not requested
+     */
+    static Path readMetricsFile(Properties request) {
+        var metricsFile = request.getProperty(METRICS_FILE);
+        return metricsFile == null ? null : Path.of(metricsFile);
+    }
+
+    /**
+     * @return coverage history directory or null if the run is not appended to the history
+     */
+    static Path readHistoryDir(Properties request) {
+        var historyDir = request.getProperty(HISTORY_DIR);
+        return historyDir == null ? null : Path.of(historyDir);
+    }
+
+    static Properties okResponse(ReportResults results) {
+        var response = new Properties();
+        response.setProperty(STATUS, STATUS_OK);
+        if (results != null) {
+            response.setProperty(NEW_CODE_COVERAGE, String.valueOf(results.newCodeCoverage()));
+            response.setProperty(NEW_BRANCH_COVERAGE, String.valueOf(results.newBranchCoverage()));
+            writeUnit(response, WORST_METHOD_PREFIX, results.worstMethod());
+            writeUnit(response, WORST_CLASS_PREFIX, results.worstClass());
+        }
+        return response;
+    }
+
+    static Properties errorResponse(String message) {
+        var response = new Properties();
+        response.setProperty(STATUS, STATUS_ERROR);
+        response.setProperty(MESSAGE, message == null ? "Unknown error" : message);
+        return response;
+    }
+
+    /**
+     * @throws CoverageTaskException if the daemon could not evaluate coverage
+     */
+    static ReportResults readResults(Properties response) {
+        requireOk(response);
+        return new ReportResults(Double.parseDouble(required(response, NEW_CODE_COVERAGE)),
+                Double.parseDouble(required(response, NEW_BRANCH_COVERAGE)),
+                readUnit(response, WORST_METHOD_PREFIX, UnitCoverage.Level.METHOD),
+                readUnit(response, WORST_CLASS_PREFIX, UnitCoverage.Level.CLASS));
+    }
+
+    /**
+     * @throws CoverageTaskException if the daemon rejected or failed the request
+     */
+    static void requireOk(Properties response) {
+        if (!STATUS_OK.equals(response.getProperty(STATUS))) {
+            throw new CoverageTaskException("Coverage daemon failed: " + response.getProperty(MESSAGE));
+        }
+    }
+
+    private static void writeUnit(Properties response, String prefix, UnitCoverage unit) {
+        if (unit == null) {
+            return;
+        }
+        response.setProperty(prefix + "fileName", unit.getFileName());
+        response.setProperty(prefix + "className", unit.getClassName());
+        if (unit.getMethodName() != null) {
+            response.setProperty(prefix + "methodName", unit.getMethodName());
+        }
+        response.setProperty(prefix + "lines", unit.getFirstLine() + "-" + unit.getLastLine());
+        response.setProperty(prefix + "coveredLines", unit.getCoveredLines() + "/" + unit.getAllLines());
+        response.setProperty(prefix + "coveredBranches", unit.getCoveredBranches() + "/" + unit.getAllBranches());
+    }
+
+    /**
+     * @return unit written by {@link #writeUnit(Properties, String, UnitCoverage)} or null if there is none
+     */
+    private static UnitCoverage readUnit(Properties response, String prefix, UnitCoverage.Level level) {
+        if (response.getProperty(prefix + "className") == null) {
+            return null;
+        }
+        var lines = required(response, prefix + "lines").split("-");
+        var coveredLines = required(response, prefix + "coveredLines").split("/");
+        var coveredBranches = required(response, prefix + "coveredBranches").split("/");
+        return UnitCoverage.builder()
+                .level(level)
+                .fileName(required(response, prefix + "fileName"))
+                .className(required(response, prefix + "className"))
+                .methodName(response.getProperty(prefix + "methodName"))
+                .firstLine(Integer.parseInt(lines[0]))
+                .lastLine(Integer.parseInt(lines[1]))
+                .coveredLines(Integer.parseInt(coveredLines[0]))
+                .allLines(Integer.parseInt(coveredLines[1]))
+                .coveredBranches(Integer.parseInt(coveredBranches[0]))
+                .allBranches(Integer.parseInt(coveredBranches[1]))
+                .build();
+    }
+
+    static void write(Properties message, OutputStream out) throws IOException {
+        var writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        message.store(writer, null);
+        writer.flush();
+    }
+
+    /**
+     * @throws IOException              if the message is longer than {@link #MAX_MESSAGE_BYTES}
+     * @throws IllegalArgumentException if the message has a malformed escape
+     */
+    static Properties read(InputStream in) throws IOException {
+        var bytes = in.readNBytes(MAX_MESSAGE_BYTES + 1);
+        if (bytes.length > MAX_MESSAGE_BYTES) {
+            throw new IOException("Coverage daemon message is longer than " + MAX_MESSAGE_BYTES + " bytes");
+        }
+        var message = new Properties();
+        message.load(new InputStreamReader(new ByteArrayInputStream(bytes), StandardCharsets.UTF_8));
+        return message;
+    }
+
+    private static String required(Properties message, String key) {
+        var value = message.getProperty(key);
+        if (value == null) {
+            throw new CoverageTaskException("Missing " + key + " in coverage daemon message");
+        }
+        return value;
+    }
+
+    private static String joinFiles(List<File> files) {
+        return String.join(File.pathSeparator, files.stream().map(File::getAbsolutePath).toList());
+    }
+
+    private static List<File> splitFiles(String files) {
+        if (files == null || files.isEmpty()) {
+            return List.of();
+        }
+        return Arrays.stream(files.split(File.pathSeparator)).map(File::new).toList();
+    }
+}
@@ -0,0 +1,28 @@
+package ru.spb.coverage.domain;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Pull request or commit evaluated in a batch: changes of the head revision against the base revision
+ * covered by the given exec files
+ */
+@Value
+@Builder
+public class BatchCandidate implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    String baseRevision;
+    String headRevision;
+    @Builder.Default
+    List<File> execFiles = List.of();
+    /**
+     * Classes compiled from the head revision, classes of the batch modules are used if empty
+     */
+    @Builder.Default
+    List<File> classesDirs = List.of();
+}
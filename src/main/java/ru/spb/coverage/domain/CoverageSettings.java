@@ -0,0 +1,68 @@
+package ru.spb.coverage.domain;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.List;
+
+@Value
+@Builder(toBuilder = true)
+public class CoverageSettings implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    String targetBranch;
+    /**
+     * Revision to evaluate instead of the checked out branch, its sources are read from git
+     */
+    String headRevision;
+    /**
+     * Staged and working tree modes compare uncommitted code with the target branch, the head revision is not used
+     */
+    @Builder.Default
+    DiffMode diffMode = DiffMode.BRANCH;
+    @Builder.Default
+    List<ModuleLayout> modules = List.of(ModuleLayout.defaultLayout());
+    @Builder.Default
+    List<File> additionalExecFiles = List.of();
+    @Builder.Default
+    File gitDir = new File(".git");
+    @Builder.Default
+    File workDir = new File("build/new-code-coverage");
+    @Builder.Default
+    int analysisWorkers = Runtime.getRuntime().availableProcessors();
+    /**
+     * Changed files evaluated at once after the analysis, the report is the same for any number of workers
+     */
+    @Builder.Default
+    int evaluationWorkers = 1;
+    @Builder.Default
+    boolean fullScan = false;
+    @Builder.Default
+    boolean analysisCache = true;
+    @Builder.Default
+    boolean diffAgainstMergeBase = false;
+    @Builder.Default
+    boolean diffCache = true;
+    /**
+     * File of tests covering changed lines, exec files should have a session per test.
+     * Tests of lines are not indexed if null
+     */
+    File affectedTestsFile;
+    /**
+     * Class directories built from the target branch, unchanged lines which were covered there and are not covered now
+     * are reported as regressions. Delta mode is off if empty
+     */
+    @Builder.Default
+    List<File> baselineClassesDirs = List.of();
+    /**
+     * Jacoco exec files collected on the target branch together with the baseline classes
+     */
+    @Builder.Default
+    List<File> baselineExecFiles = List.of();
+
+    public boolean isDeltaMode() {
+        return !baselineClassesDirs.isEmpty();
+    }
+}
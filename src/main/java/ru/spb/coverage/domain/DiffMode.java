@@ -0,0 +1,43 @@
+package ru.spb.coverage.domain;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Which state of the code is compared with the target branch
+ */
+public enum DiffMode {
+    /**
+     * Commit of the checked out branch or of the head revision
+     */
+    BRANCH,
+    /**
+     * Git index, changes staged for the next commit
+     */
+    STAGED,
+    /**
+     * Files of the working tree including not staged and untracked ones, ignored files are skipped
+     */
+    WORKING_TREE;
+
+    public boolean isUncommitted() {
+        return this != BRANCH;
+    }
+
+    /**
+     * @param name case insensitive name of the mode, dashes may be used instead of underscores
+     * @throws IllegalArgumentException if there is no such mode
+     */
+    public static DiffMode of(String name) {
+        return Arrays.stream(values())
+                .filter(mode -> mode.name().equalsIgnoreCase(name.replace('-', '_')))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown diff mode " + name
+                        + ", expected one of: branch, staged, working-tree"));
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+}
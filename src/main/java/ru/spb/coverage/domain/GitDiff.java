@@ -6,7 +6,30 @@ import lombok.Value;
 @Value
 @Builder
 public class GitDiff {
+    /**
+     * Path of the changed file relative to the repository root, changed files are identified by it
+     */
+    String filePath;
+    /**
+     * Name of the changed file without directories, files of other packages may have the same name
+     */
     String changedFileName;
+    /**
+     * Zero based range of the changed lines in the current version, the end is exclusive.
+     * The range is empty if lines were only deleted, such diffs are computed only on demand
+     */
     int beginChanges;
     int endChanges;
+    /**
+     * Zero based range of the replaced lines in the version the changes are compared with, the end is exclusive
+     */
+    int baseBeginChanges;
+    int baseEndChanges;
+
+    /**
+     * @return true if lines were only deleted and the current version has no changed lines
+     */
+    public boolean isDeletion() {
+        return beginChanges == endChanges;
+    }
 }
@@ -0,0 +1,27 @@
+package ru.spb.coverage.domain;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.io.File;
+
+@Value
+@Builder
+public class GitDiffOptions {
+    boolean mergeBase;
+    File cacheDir;
+    /**
+     * Threads computing edit lists of changed files, every thread has its own diff formatter
+     */
+    @Builder.Default
+    int workers = 1;
+    /**
+     * Keeps diffs of lines which were only deleted, they are needed to map lines of the current version
+     * to the compared version
+     */
+    boolean deletions;
+
+    public static GitDiffOptions defaults() {
+        return GitDiffOptions.builder().build();
+    }
+}
@@ -0,0 +1,38 @@
+package ru.spb.coverage.domain;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.List;
+
+@Value
+@Builder
+public class ModuleLayout implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final String DEFAULT_MODULE_NAME = ":";
+    private static final String DEFAULT_EXEC_FILE = "build/jacoco/test.exec";
+    private static final String DEFAULT_CLASSES_DIR = "build/classes/java/main";
+    private static final String DEFAULT_SOURCE_DIR = "src/main/java";
+
+    String name;
+    @Builder.Default
+    List<File> classesDirs = List.of();
+    @Builder.Default
+    List<File> sourceDirs = List.of();
+    @Builder.Default
+    List<File> execFiles = List.of();
+
+    /**
+     * @return layout of a single gradle module in the working directory
+     */
+    public static ModuleLayout defaultLayout() {
+        return ModuleLayout.builder()
+                .name(DEFAULT_MODULE_NAME)
+                .classesDirs(List.of(new File(DEFAULT_CLASSES_DIR)))
+                .sourceDirs(List.of(new File(DEFAULT_SOURCE_DIR)))
+                .execFiles(List.of(new File(DEFAULT_EXEC_FILE)))
+                .build();
+    }
+}
@@ -0,0 +1,16 @@
+package ru.spb.coverage.domain.report;
+
+import ru.spb.coverage.domain.BatchCandidate;
+
+import java.nio.file.Path;
+
+/**
+ * Outcome of a single batch candidate, either results or the error message of the failed evaluation
+ */
+public record CandidateResult(BatchCandidate candidate, Path reportFile,
+                              ReportResults results, ReportTotals totals, String error) {
+
+    public boolean isFailed() {
+        return error != null;
+    }
+}
@@ -0,0 +1,21 @@
+package ru.spb.coverage.domain.report;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests covering changed lines of a single source file, covered or not
+ */
+@Value
+@Builder
+public class ChangedLineTests {
+    String fileName;
+    /**
+     * Tests by zero based line number in the order of lines, only changed lines covered by any test are present
+     */
+    @Builder.Default
+    Map<Integer, List<String>> lineTests = Map.of();
+}
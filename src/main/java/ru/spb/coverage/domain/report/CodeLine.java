@@ -7,6 +7,11 @@ import lombok.Value;
 @Builder
 public class CodeLine {
     String text;
-    Integer lineNumber;
+    int lineNumber;
     CoverageBranchStats branch;
+    /**
+     * Method having code on the line, e.g. com.example.Foo#run, null if unknown.
+     * Set only for uncovered lines
+     */
+    String method;
 }
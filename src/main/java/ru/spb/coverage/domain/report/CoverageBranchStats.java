@@ -6,6 +6,6 @@ import lombok.Value;
 @Builder
 @Value
 public class CoverageBranchStats {
-    Integer missed;
-    Integer covered;
+    int missed;
+    int covered;
 }
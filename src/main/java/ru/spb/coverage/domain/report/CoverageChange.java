@@ -14,7 +14,7 @@ public class CoverageChange {
     List<CodeLine> uncoveredCodeLines = List.of();
     @Builder.Default
     List<CodeLine> partlyCoveredCodeLines = List.of();
-    Integer acceptableLinesForCovering;
-    Integer coveredBranches;
-    Integer missedBranches;
+    int acceptableLinesForCovering;
+    int coveredBranches;
+    int missedBranches;
 }
@@ -0,0 +1,25 @@
+package ru.spb.coverage.domain.report;
+
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * Unchanged lines of a single source file which were covered on the target branch and lost coverage in the current code
+ */
+@Value
+@Builder
+public class CoverageRegression {
+    String fileName;
+    /**
+     * Lines covered on the target branch and not covered now
+     */
+    @Builder.Default
+    List<CodeLine> uncoveredCodeLines = List.of();
+    /**
+     * Lines with less covered branches than on the target branch, branches are counted in the current code
+     */
+    @Builder.Default
+    List<CodeLine> lostBranchCodeLines = List.of();
+}
@@ -0,0 +1,34 @@
+package ru.spb.coverage.domain.report;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Coverage of a whole run or of a single file in the run, as kept in the coverage history
+ */
+@Value
+@Builder
+public class HistoryEntry {
+    String commitId;
+    long timestamp;
+    /**
+     * Null for the totals of the run
+     */
+    String fileName;
+    int allLines;
+    int coveredLines;
+    int allBranches;
+    int coveredBranches;
+
+    public double lineCoverage() {
+        return percent(coveredLines, allLines);
+    }
+
+    public double branchCoverage() {
+        return percent(coveredBranches, allBranches);
+    }
+
+    private static double percent(int covered, int all) {
+        return all == 0 ? 100.0 : covered * 100.0 / all;
+    }
+}
@@ -10,8 +10,23 @@ import java.util.List;
 public class Report {
     @Builder.Default
     List<CoverageChange> changes = List.of();
-    Integer allBranches;
-    Integer coveredBranches;
-    Integer allLines;
-    Integer coveredLines;
+    /**
+     * Methods and classes having changed lines
+     */
+    @Builder.Default
+    List<UnitCoverage> units = List.of();
+    /**
+     * Unchanged code which lost coverage since the target branch, empty unless compared with a baseline
+     */
+    @Builder.Default
+    List<CoverageRegression> regressions = List.of();
+    /**
+     * Tests of changed lines by file, empty unless tests are indexed
+     */
+    @Builder.Default
+    List<ChangedLineTests> lineTests = List.of();
+    int allBranches;
+    int coveredBranches;
+    int allLines;
+    int coveredLines;
 }
@@ -1,4 +1,13 @@
 package ru.spb.coverage.domain.report;
 
-public record ReportResults(double newCodeCoverage, double newBranchCoverage) {
+/**
+ * @param worstMethod method with the lowest coverage of changed lines, null if no method has changed lines
+ * @param worstClass  class with the lowest coverage of changed lines, null if no class has changed lines
+ */
+public record ReportResults(double newCodeCoverage, double newBranchCoverage,
+                            UnitCoverage worstMethod, UnitCoverage worstClass) {
+
+    public ReportResults(double newCodeCoverage, double newBranchCoverage) {
+        this(newCodeCoverage, newBranchCoverage, null, null);
+    }
 }
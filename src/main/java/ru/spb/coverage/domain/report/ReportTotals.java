@@ -0,0 +1,13 @@
+package ru.spb.coverage.domain.report;
+
+import lombok.Builder;
+import lombok.Value;
+
+@Value
+@Builder
+public class ReportTotals {
+    int allBranches;
+    int coveredBranches;
+    int allLines;
+    int coveredLines;
+}
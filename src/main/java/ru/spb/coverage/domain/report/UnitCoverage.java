@@ -0,0 +1,67 @@
+package ru.spb.coverage.domain.report;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Coverage of the changed lines of a single method or class
+ */
+@Value
+@Builder
+public class UnitCoverage {
+    Level level;
+    /**
+     * Source file as named in the report
+     */
+    String fileName;
+    /**
+     * VM name of the class, e.g. com/example/Foo$Bar
+     */
+    String className;
+    /**
+     * Null for a class
+     */
+    String methodName;
+    /**
+     * One based line range of the whole method or class, not only of its changed lines
+     */
+    int firstLine;
+    int lastLine;
+    int allLines;
+    int coveredLines;
+    int allBranches;
+    int coveredBranches;
+
+    public double lineCoverage() {
+        return percent(coveredLines, allLines);
+    }
+
+    public double branchCoverage() {
+        return percent(coveredBranches, allBranches);
+    }
+
+    /**
+     * @return class name with dots and the method name after '#', e.g. com.example.Foo$Bar#run
+     */
+    public String displayName() {
+        return displayName(className, methodName);
+    }
+
+    /**
+     * @param className  VM name of the class
+     * @param methodName null for the class itself
+     */
+    public static String displayName(String className, String methodName) {
+        var name = className.replace('/', '.');
+        return methodName == null ? name : name + "#" + methodName;
+    }
+
+    private static double percent(int covered, int all) {
+        return all == 0 ? 100.0 : covered * 100.0 / all;
+    }
+
+    public enum Level {
+        METHOD,
+        CLASS
+    }
+}
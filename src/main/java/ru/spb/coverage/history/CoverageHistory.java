@@ -0,0 +1,372 @@
+package ru.spb.coverage.history;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.spb.coverage.coverage.CoverageTaskException;
+import ru.spb.coverage.domain.report.HistoryEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only coverage history of a repository.
+ * Every run appends a run record with the totals, followed by a record per file. A run record links to the previous
+ * run and a file record links to the previous record of the same file, so a trend of the last N commits reads
+ * N records of the memory-mapped data file. Heads of the chains are kept in a small index file,
+ * which is brought up to date from the records appended after it, e.g. by another process
+ */
+@Slf4j
+public class CoverageHistory {
+
+    private static final String DEFAULT_DIR = "new-code-coverage";
+    private static final String DATA_FILE = "history.bin";
+    private static final String INDEX_FILE = "history.idx";
+    private static final int MAGIC = 0x4E434348;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final byte RUN_RECORD = 1;
+    private static final byte FILE_RECORD = 2;
+    private static final long NO_RECORD = -1;
+    private static final int COUNTERS_SIZE = 4 * Integer.BYTES;
+    private static final int RUN_RECORD_SIZE = 1 + Long.BYTES + Long.BYTES + COUNTERS_SIZE + Integer.BYTES + Short.BYTES;
+    private static final int FILE_RECORD_SIZE = 1 + Long.BYTES + Long.BYTES + COUNTERS_SIZE + Short.BYTES;
+
+    private final Path dataFile;
+    private final Path indexFile;
+
+    private long indexedLength;
+    private long lastRunOffset = NO_RECORD;
+    private final Map<String, Long> commitHeads = new HashMap<>();
+    private final Map<String, Long> fileHeads = new HashMap<>();
+
+    public CoverageHistory(Path historyDir) {
+        this.dataFile = historyDir.resolve(DATA_FILE);
+        this.indexFile = historyDir.resolve(INDEX_FILE);
+    }
+
+    /**
+     * @return history directory inside the git directory, it is kept by clean builds and is not committed
+     */
+    public static Path defaultDir(File gitDir) {
+        return new File(gitDir, DEFAULT_DIR).toPath();
+    }
+
+    /**
+     * Appends the run and coverage of its files
+     *
+     * @param run   commit id, timestamp and totals of the run
+     * @param files coverage of every changed file, commit id and timestamp are taken from the run
+     */
+    public synchronized void append(HistoryEntry run, List<HistoryEntry> files) {
+        try {
+            Files.createDirectories(dataFile.getParent());
+            try (var channel = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+                 var ignored = channel.lock()) {
+                if (channel.size() == 0) {
+                    channel.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip(), 0);
+                }
+                refresh(channel);
+                // An incomplete record left by an interrupted append is dropped
+                channel.truncate(indexedLength);
+
+                var runOffset = indexedLength;
+                var records = new ByteArrayOutputStream();
+                records.writeBytes(encodeRun(run, files.size()));
+                for (var file : files) {
+                    var fileOffset = runOffset + records.size();
+                    records.writeBytes(encodeFile(file, runOffset));
+                    fileHeads.put(file.getFileName(), fileOffset);
+                }
+                channel.write(ByteBuffer.wrap(records.toByteArray()), runOffset);
+
+                lastRunOffset = runOffset;
+                commitHeads.put(run.getCommitId(), runOffset);
+                indexedLength = runOffset + records.size();
+                writeIndex();
+            }
+            log.info("Appended coverage of {} files of commit {} to history", files.size(), run.getCommitId());
+        } catch (IOException | RuntimeException ex) {
+            // Heads are read again from the files by the next call
+            resetHeads();
+            log.error("Could not append coverage history");
+            throw ex instanceof CoverageTaskException cte ? cte : new CoverageTaskException(ex);
+        }
+    }
+
+    /**
+     * @return totals of the last runs, the latest first
+     */
+    public synchronized List<HistoryEntry> trend(int limit) {
+        return read(data -> {
+            var entries = new ArrayList<HistoryEntry>();
+            for (var offset = lastRunOffset; offset != NO_RECORD && entries.size() < limit; ) {
+                entries.add(readRun(data, offset));
+                offset = data.getLong((int) offset + 1);
+            }
+            return entries;
+        });
+    }
+
+    /**
+     * @return coverage of the file in the last runs which changed it, the latest first
+     */
+    public synchronized List<HistoryEntry> fileTrend(String fileName, int limit) {
+        return read(data -> {
+            var entries = new ArrayList<HistoryEntry>();
+            for (long offset = fileHeads.getOrDefault(fileName, NO_RECORD);
+                 offset != NO_RECORD && entries.size() < limit; ) {
+                entries.add(readFile(data, offset));
+                offset = data.getLong((int) offset + 1);
+            }
+            return entries;
+        });
+    }
+
+    /**
+     * @return coverage of the files of the latest run of the commit, empty if the commit has no runs
+     */
+    public synchronized List<HistoryEntry> commitFiles(String commitId) {
+        return read(data -> {
+            var entries = new ArrayList<HistoryEntry>();
+            var runOffset = commitHeads.get(commitId);
+            if (runOffset == null) {
+                return entries;
+            }
+
+            var fileCount = data.getInt(runOffset.intValue() + 1 + Long.BYTES + Long.BYTES + COUNTERS_SIZE);
+            var offset = (int) (runOffset + recordSize(data, runOffset.intValue()));
+            for (var i = 0; i < fileCount; i++) {
+                entries.add(readFile(data, offset));
+                offset += recordSize(data, offset);
+            }
+            return entries;
+        });
+    }
+
+    private <T> List<T> read(HistoryQuery<T> query) {
+        if (!Files.isRegularFile(dataFile)) {
+            return List.of();
+        }
+
+        try (var channel = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+            refresh(channel);
+            if (indexedLength > Integer.MAX_VALUE) {
+                throw new CoverageTaskException("Coverage history " + dataFile + " is larger than 2 GB");
+            }
+            return query.run(channel.map(FileChannel.MapMode.READ_ONLY, 0, indexedLength));
+        } catch (IOException ex) {
+            log.error("Could not read coverage history");
+            throw new CoverageTaskException(ex);
+        }
+    }
+
+    /**
+     * Brings heads up to date with the data file, only records appended after the last known length are read
+     */
+    private void refresh(FileChannel channel) throws IOException {
+        var size = channel.size();
+        if (indexedLength == 0) {
+            readIndex(size);
+        }
+        if (indexedLength > size) {
+            log.warn("Coverage history {} is shorter than its index, rebuilding the index", dataFile);
+            resetHeads();
+        }
+        if (indexedLength == size) {
+            return;
+        }
+
+        var data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        if (indexedLength == 0) {
+            if (size < HEADER_SIZE || data.getInt(0) != MAGIC || data.getInt(Integer.BYTES) != VERSION) {
+                throw new CoverageTaskException("Not a coverage history file: " + dataFile);
+            }
+            indexedLength = HEADER_SIZE;
+        }
+        scan(data);
+    }
+
+    private void scan(ByteBuffer data) {
+        var offset = (int) indexedLength;
+        while (offset < data.limit()) {
+            var size = recordSize(data, offset);
+            if (size < 0 || offset + size > data.limit()) {
+                log.warn("Coverage history {} ends with an incomplete record at {}", dataFile, offset);
+                break;
+            }
+            if (data.get(offset) == RUN_RECORD) {
+                lastRunOffset = offset;
+                commitHeads.put(readRun(data, offset).getCommitId(), (long) offset);
+            } else {
+                fileHeads.put(readString(data, offset + FILE_RECORD_SIZE - Short.BYTES), (long) offset);
+            }
+            offset += size;
+        }
+        indexedLength = offset;
+    }
+
+    /**
+     * @return size of the record or -1 if the record is incomplete
+     */
+    private static int recordSize(ByteBuffer data, int offset) {
+        var fixedSize = data.get(offset) == RUN_RECORD ? RUN_RECORD_SIZE : FILE_RECORD_SIZE;
+        if (offset + fixedSize > data.limit()) {
+            return -1;
+        }
+        return fixedSize + Short.toUnsignedInt(data.getShort(offset + fixedSize - Short.BYTES));
+    }
+
+    private static HistoryEntry readRun(ByteBuffer data, long recordOffset) {
+        var offset = (int) recordOffset + 1 + Long.BYTES;
+        return HistoryEntry.builder()
+                .timestamp(data.getLong(offset))
+                .allLines(data.getInt(offset + Long.BYTES))
+                .coveredLines(data.getInt(offset + Long.BYTES + Integer.BYTES))
+                .allBranches(data.getInt(offset + Long.BYTES + 2 * Integer.BYTES))
+                .coveredBranches(data.getInt(offset + Long.BYTES + 3 * Integer.BYTES))
+                .commitId(readString(data, (int) recordOffset + RUN_RECORD_SIZE - Short.BYTES))
+                .build();
+    }
+
+    private static HistoryEntry readFile(ByteBuffer data, long recordOffset) {
+        var offset = (int) recordOffset + 1 + Long.BYTES;
+        var run = readRun(data, data.getLong(offset));
+        return HistoryEntry.builder()
+                .commitId(run.getCommitId())
+                .timestamp(run.getTimestamp())
+                .allLines(data.getInt(offset + Long.BYTES))
+                .coveredLines(data.getInt(offset + Long.BYTES + Integer.BYTES))
+                .allBranches(data.getInt(offset + Long.BYTES + 2 * Integer.BYTES))
+                .coveredBranches(data.getInt(offset + Long.BYTES + 3 * Integer.BYTES))
+                .fileName(readString(data, (int) recordOffset + FILE_RECORD_SIZE - Short.BYTES))
+                .build();
+    }
+
+    /**
+     * @param offset offset of the string length
+     */
+    private static String readString(ByteBuffer data, int offset) {
+        var bytes = new byte[Short.toUnsignedInt(data.getShort(offset))];
+        data.get(offset + Short.BYTES, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private byte[] encodeRun(HistoryEntry run, int fileCount) {
+        var commitId = encodeString(run.getCommitId());
+        var record = ByteBuffer.allocate(RUN_RECORD_SIZE + commitId.length)
+                .put(RUN_RECORD)
+                .putLong(lastRunOffset)
+                .putLong(run.getTimestamp());
+        putCounters(record, run)
+                .putInt(fileCount)
+                .putShort((short) commitId.length)
+                .put(commitId);
+        return record.array();
+    }
+
+    private byte[] encodeFile(HistoryEntry file, long runOffset) {
+        var fileName = encodeString(file.getFileName());
+        var record = ByteBuffer.allocate(FILE_RECORD_SIZE + fileName.length)
+                .put(FILE_RECORD)
+                .putLong(fileHeads.getOrDefault(file.getFileName(), NO_RECORD))
+                .putLong(runOffset);
+        putCounters(record, file)
+                .putShort((short) fileName.length)
+                .put(fileName);
+        return record.array();
+    }
+
+    private static ByteBuffer putCounters(ByteBuffer record, HistoryEntry entry) {
+        return record.putInt(entry.getAllLines())
+                .putInt(entry.getCoveredLines())
+                .putInt(entry.getAllBranches())
+                .putInt(entry.getCoveredBranches());
+    }
+
+    private static byte[] encodeString(String value) {
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new CoverageTaskException("Too long name for coverage history: " + value);
+        }
+        return bytes;
+    }
+
+    private void readIndex(long dataSize) {
+        if (!Files.isRegularFile(indexFile)) {
+            return;
+        }
+
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("Unknown coverage history index {}, rebuilding it", indexFile);
+                return;
+            }
+            var length = in.readLong();
+            if (length > dataSize) {
+                return;
+            }
+            lastRunOffset = in.readLong();
+            readHeads(in, commitHeads);
+            readHeads(in, fileHeads);
+            indexedLength = length;
+        } catch (IOException ex) {
+            log.warn("Could not read coverage history index {}, rebuilding it", indexFile, ex);
+            resetHeads();
+        }
+    }
+
+    private static void readHeads(DataInputStream in, Map<String, Long> heads) throws IOException {
+        var count = in.readInt();
+        for (var i = 0; i < count; i++) {
+            heads.put(in.readUTF(), in.readLong());
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        var tempFile = Files.createTempFile(indexFile.getParent(), INDEX_FILE, ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(indexedLength);
+            out.writeLong(lastRunOffset);
+            writeHeads(out, commitHeads);
+            writeHeads(out, fileHeads);
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeHeads(DataOutputStream out, Map<String, Long> heads) throws IOException {
+        out.writeInt(heads.size());
+        for (var head : heads.entrySet()) {
+            out.writeUTF(head.getKey());
+            out.writeLong(head.getValue());
+        }
+    }
+
+    private void resetHeads() {
+        indexedLength = 0;
+        lastRunOffset = NO_RECORD;
+        commitHeads.clear();
+        fileHeads.clear();
+    }
+
+    private interface HistoryQuery<T> {
+        List<T> run(ByteBuffer data);
+    }
+}
@@ -0,0 +1,109 @@
+package ru.spb.coverage.history;
+
+import lombok.extern.slf4j.Slf4j;
+import ru.spb.coverage.coverage.GitUtils;
+import ru.spb.coverage.coverage.ReportWriter;
+import ru.spb.coverage.domain.CoverageSettings;
+import ru.spb.coverage.domain.report.CoverageChange;
+import ru.spb.coverage.domain.report.HistoryEntry;
+import ru.spb.coverage.domain.report.ReportTotals;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps totals of every changed file and appends them with the totals to the coverage history
+ * when the report is finished. Fully covered files are recorded too, files without changed code are skipped
+ */
+@Slf4j
+public class CoverageHistoryRecorder implements ReportWriter {
+
+    private final CoverageHistory history;
+    private final String commitId;
+    private final Map<String, ReportTotals> fileTotals = new LinkedHashMap<>();
+
+    /**
+     * @param commitId commit the coverage was evaluated for, null if uncommitted code was evaluated
+     *                 and nothing should be appended
+     */
+    public CoverageHistoryRecorder(CoverageHistory history, String commitId) {
+        this.history = history;
+        this.commitId = commitId;
+    }
+
+    /**
+     * @return recorder of the evaluated revision: the head revision of the settings or the checked out branch.
+     * Staged and working tree changes belong to no commit, so they are not recorded
+     */
+    public static CoverageHistoryRecorder of(CoverageSettings settings, Path historyDir) {
+        return of(settings, new CoverageHistory(historyDir));
+    }
+
+    /**
+     * @param history history shared by recorders of several evaluations running at the same time
+     */
+    public static CoverageHistoryRecorder of(CoverageSettings settings, CoverageHistory history) {
+        var commitId = settings.getDiffMode().isUncommitted()
+                ? null
+                : GitUtils.getCommitId(settings.getGitDir().getPath(), settings.getHeadRevision());
+        return new CoverageHistoryRecorder(history, commitId);
+    }
+
+    @Override
+    public void accept(CoverageChange change) {
+        // Changes are a part of the changed lines only, files are recorded from their totals
+    }
+
+    @Override
+    public void acceptFileTotals(String fileName, ReportTotals totals) {
+        if (totals.getAllLines() > 0 || totals.getAllBranches() > 0) {
+            fileTotals.merge(fileName, totals, CoverageHistoryRecorder::sum);
+        }
+    }
+
+    @Override
+    public void finish(ReportTotals totals) {
+        if (commitId == null) {
+            log.info("Coverage of uncommitted changes is not appended to the coverage history");
+            return;
+        }
+
+        var timestamp = System.currentTimeMillis();
+        var files = new ArrayList<HistoryEntry>(fileTotals.size());
+        fileTotals.forEach((fileName, fileTotal) -> files.add(HistoryEntry.builder()
+                .fileName(fileName)
+                .allLines(fileTotal.getAllLines())
+                .coveredLines(fileTotal.getCoveredLines())
+                .allBranches(fileTotal.getAllBranches())
+                .coveredBranches(fileTotal.getCoveredBranches())
+                .build()));
+
+        history.append(HistoryEntry.builder()
+                .commitId(commitId)
+                .timestamp(timestamp)
+                .allLines(totals.getAllLines())
+                .coveredLines(totals.getCoveredLines())
+                .allBranches(totals.getAllBranches())
+                .coveredBranches(totals.getCoveredBranches())
+                .build(), files);
+    }
+
+    @Override
+    public void close() {
+        // Everything is appended when the report is finished
+    }
+
+    /**
+     * Sources of the same name in several modules are recorded as one file
+     */
+    private static ReportTotals sum(ReportTotals first, ReportTotals second) {
+        return ReportTotals.builder()
+                .allLines(first.getAllLines() + second.getAllLines())
+                .coveredLines(first.getCoveredLines() + second.getCoveredLines())
+                .allBranches(first.getAllBranches() + second.getAllBranches())
+                .coveredBranches(first.getCoveredBranches() + second.getCoveredBranches())
+                .build();
+    }
+}
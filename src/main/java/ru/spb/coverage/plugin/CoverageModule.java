@@ -0,0 +1,44 @@
+package ru.spb.coverage.plugin;
+
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import ru.spb.coverage.domain.ModuleLayout;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Class directories, source roots and jacoco exec files of a module as task inputs
+ */
+public abstract class CoverageModule {
+
+    @Input
+    public abstract Property<String> getName();
+
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getClassesDirs();
+
+    @InputFiles
+    @IgnoreEmptyDirectories
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getSourceDirs();
+
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getExecFiles();
+
+    ModuleLayout toModuleLayout() {
+        return ModuleLayout.builder()
+                .name(getName().get())
+                .classesDirs(List.copyOf(getClassesDirs().getFiles()))
+                .sourceDirs(List.copyOf(getSourceDirs().getFiles()))
+                .execFiles(getExecFiles().getFiles().stream().sorted().toList())
+                .build();
+    }
+}
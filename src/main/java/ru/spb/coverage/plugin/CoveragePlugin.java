@@ -4,40 +4,118 @@ import lombok.extern.slf4j.Slf4j;
 import org.gradle.api.GradleException;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
-import ru.spb.coverage.coverage.ReportPrinter;
-import ru.spb.coverage.coverage.CoverageService;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.provider.Provider;
+import ru.spb.coverage.coverage.GitUtils;
+import ru.spb.coverage.coverage.ReportFormat;
+import ru.spb.coverage.domain.DiffMode;
+import ru.spb.coverage.history.CoverageHistory;
+
+import java.io.File;
+import java.util.LinkedHashMap;
 
 @Slf4j
 public class CoveragePlugin implements Plugin<Project> {
 
     private static final String EXTENSION_NAME = "coverage";
-    private static final String NEW_CODE_EX_MESSAGE = """
-            New code coverage is %.2f %%
-            Minimum required new code coverage is %.2f %%
-            Please, increase coverage of new code
-            """;
+    private static final String TASK_NAME = "newCodeCoverage";
+    private static final String WORK_DIR = "new-code-coverage";
+    private static final String REPORT_FILE = "reports/new-code-coverage/report.txt";
+    private static final String METRICS_FILE = "reports/new-code-coverage/metrics.json";
+    private static final String GIT_INDEX_FILE = "index";
+    private static final String AFFECTED_TESTS_FILE = "reports/new-code-coverage/affected-tests.txt";
 
     @Override
     public void apply(Project project) {
         var coverageSettings = project.getExtensions()
                 .create(EXTENSION_NAME, CoveragePluginExtension.class);
 
-        project.getTasks()
-                .register("newCodeCoverage")
-                .get()
-                .doLast(task -> {
-                    var minCoverage = coverageSettings.getMinCoverage();
-                    var coverageService = new CoverageService(coverageSettings.getBranch());
-
-                    var reportFromGitDiffs = coverageService.createReportFromGitDiffs();
-                    var reportPrinter = new ReportPrinter();
-                    var results = reportPrinter.saveReportAsFile(reportFromGitDiffs);
-
-                    if (results.newCodeCoverage() < minCoverage) {
-                        var exMessage = NEW_CODE_EX_MESSAGE.formatted(results.newCodeCoverage(), minCoverage);
-                        throw new GradleException(exMessage);
-                    }
-                });
+        project.getTasks().register(TASK_NAME, NewCodeCoverageTask.class,
+                task -> configureTask(project, task, coverageSettings));
     }
-}
 
+    /**
+     * Runs when the task is realized, after the build scripts have configured the extension
+     */
+    private void configureTask(Project project, NewCodeCoverageTask task, CoveragePluginExtension coverageSettings) {
+        var buildDirectory = project.getLayout().getBuildDirectory();
+        var gitDir = GitUtils.findGitDir(project.getRootDir());
+
+        task.setGroup("verification");
+        task.setDescription("Computes coverage of the code changed against the target branch");
+
+        task.getTargetBranch().set(coverageSettings.getBranch());
+        task.getGitDir().set(gitDir);
+        task.getCommitIds().set(project.getProviders().of(GitCommitIdsValueSource.class, spec -> {
+            spec.getParameters().getGitDir().set(gitDir);
+            spec.getParameters().getTargetBranch().set(coverageSettings.getBranch());
+        }));
+        task.getMinCoverage().set(coverageSettings.getMinCoverage());
+        task.getMinBranchCoverage().set(coverageSettings.getMinBranchCoverage());
+        task.getMinMethodCoverage().set(coverageSettings.getMinMethodCoverage());
+        task.getMinClassCoverage().set(coverageSettings.getMinClassCoverage());
+        task.getFullScan().set(coverageSettings.getFullScan());
+        task.getDiffAgainstMergeBase().set(coverageSettings.getDiffAgainstMergeBase());
+        var diffMode = diffMode(coverageSettings.getDiffMode());
+        task.getDiffMode().set(diffMode.toString());
+        if (diffMode == DiffMode.STAGED) {
+            task.getGitIndexFile().set(new File(gitDir, GIT_INDEX_FILE));
+        }
+
+        ModuleLayoutResolver.resolve(project, coverageSettings, task);
+        task.getAdditionalExecFiles().from(coverageSettings.getAdditionalExecFiles());
+        task.getBaselineClassesDirs().from(coverageSettings.getBaselineClassesDirs());
+        task.getBaselineExecFiles().from(coverageSettings.getBaselineExecFiles());
+
+        task.getWorkDir().set(buildDirectory.dir(WORK_DIR));
+        task.getAnalysisWorkers().set(coverageSettings.getAnalysisWorkers());
+        task.getEvaluationWorkers().set(coverageSettings.getEvaluationWorkers());
+        task.getAnalysisCache().set(coverageSettings.getAnalysisCache());
+        task.getDiffCache().set(coverageSettings.getDiffCache());
+        task.getLogMetrics().set(coverageSettings.getLogMetrics());
+        task.getWorkerIsolation().set(coverageSettings.getWorkerIsolation());
+        task.getWorkerMaxHeapSize().set(coverageSettings.getWorkerMaxHeapSize());
+        task.getDaemonPort().set(coverageSettings.getDaemonPort());
+
+        // Report files of other formats are derived from this provider, not from the report file of the task,
+        // mapped values of task outputs could not be queried while the task runs
+        Provider<RegularFile> reportFile = coverageSettings.getReportFile() != null
+                ? project.provider(() -> project.getLayout().getProjectDirectory().file(coverageSettings.getReportFile()))
+                : buildDirectory.file(REPORT_FILE);
+        task.getReportFile().set(reportFile);
+        var reportFormats = coverageSettings.getReportFormats().stream().map(CoveragePlugin::reportFormat).toList();
+        task.getAdditionalReportFiles().putAll(reportFile.map(file -> {
+            var additionalReportFiles = new LinkedHashMap<String, File>();
+            for (var format : reportFormats) {
+                additionalReportFiles.put(format.name(), format.besideReport(file.getAsFile().toPath()).toFile());
+            }
+            return additionalReportFiles;
+        }));
+        task.getMetricsFile().set(buildDirectory.file(METRICS_FILE));
+
+        if (coverageSettings.getHistory()) {
+            task.getHistoryDir().set(coverageSettings.getHistoryDir() != null
+                    ? project.file(coverageSettings.getHistoryDir())
+                    : CoverageHistory.defaultDir(gitDir).toFile());
+        }
+        if (coverageSettings.getAffectedTests()) {
+            task.getAffectedTestsFile().set(buildDirectory.file(AFFECTED_TESTS_FILE));
+        }
+    }
+
+    private static DiffMode diffMode(String name) {
+        try {
+            return DiffMode.of(name);
+        } catch (IllegalArgumentException ex) {
+            throw new GradleException(ex.getMessage(), ex);
+        }
+    }
+
+    private static ReportFormat reportFormat(String name) {
+        try {
+            return ReportFormat.of(name);
+        } catch (IllegalArgumentException ex) {
+            throw new GradleException(ex.getMessage(), ex);
+        }
+    }
+}
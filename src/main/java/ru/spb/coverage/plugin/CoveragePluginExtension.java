@@ -5,6 +5,9 @@ import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
 
+import java.util.ArrayList;
+import java.util.List;
+
 @NoArgsConstructor
 @AllArgsConstructor
 @Getter
@@ -15,4 +18,96 @@ public class CoveragePluginExtension {
     private String branch = "master";
 
     private Double minCoverage = 75.0;
+
+    /**
+     * Minimum branch coverage of new code, not checked if not set
+     */
+    private Double minBranchCoverage;
+
+    /**
+     * Minimum coverage of changed lines of every method, not checked if not set
+     */
+    private Double minMethodCoverage;
+
+    /**
+     * Minimum coverage of changed lines of every class, not checked if not set
+     */
+    private Double minClassCoverage;
+
+    private Integer analysisWorkers = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Changed files evaluated at once after the analysis, 1 evaluates files one by one
+     */
+    private Integer evaluationWorkers = 1;
+
+    private Boolean fullScan = false;
+
+    private Boolean analysisCache = true;
+
+    private Boolean diffAgainstMergeBase = false;
+
+    /**
+     * Code compared with the target branch: branch (the checked out commit), staged or working-tree,
+     * the last two check uncommitted changes
+     */
+    private String diffMode = "branch";
+
+    private Boolean diffCache = true;
+
+    private Boolean aggregate = false;
+
+    private Boolean logMetrics = false;
+
+    /**
+     * Report file relative to the project directory, build/reports/new-code-coverage/report.txt by default
+     */
+    private String reportFile;
+
+    /**
+     * Formats written besides the text report with the same name and the extension of the format: json, binary
+     */
+    private List<String> reportFormats = new ArrayList<>();
+
+    /**
+     * Appends coverage of every run to the coverage history of the repository
+     */
+    private Boolean history = false;
+
+    /**
+     * Directory of the coverage history relative to the project directory, .git/new-code-coverage by default
+     */
+    private String historyDir;
+
+    /**
+     * Writes tests covering changed lines for targeted re-runs, needs exec files with a session per test
+     */
+    private Boolean affectedTests = false;
+
+    /**
+     * Isolation of the gradle worker evaluating coverage: none, classloader or process
+     */
+    private String workerIsolation = NewCodeCoverageTask.ISOLATION_CLASSLOADER;
+
+    /**
+     * Max heap size of the worker process, e.g. "2g", used only with process isolation
+     */
+    private String workerMaxHeapSize;
+
+    /**
+     * Port of the coverage daemon started with "CoveragePluginApp daemon", not used if not set
+     */
+    private Integer daemonPort;
+
+    private List<String> additionalExecFiles = new ArrayList<>();
+
+    /**
+     * Class directories built from the target branch, unchanged lines which lost coverage since then are reported too
+     */
+    private List<String> baselineClassesDirs = new ArrayList<>();
+
+    /**
+     * Jacoco exec files collected on the target branch together with the baseline classes
+     */
+    private List<String> baselineExecFiles = new ArrayList<>();
 }
@@ -0,0 +1,29 @@
+package ru.spb.coverage.plugin;
+
+import org.eclipse.jgit.lib.Constants;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.ValueSource;
+import org.gradle.api.provider.ValueSourceParameters;
+import ru.spb.coverage.coverage.GitUtils;
+
+/**
+ * Ids of the current commit and of the target branch commit.
+ * Obtained on every build, so the task is out of date as soon as any of the branches moves
+ */
+public abstract class GitCommitIdsValueSource implements ValueSource<String, GitCommitIdsValueSource.Parameters> {
+
+    public interface Parameters extends ValueSourceParameters {
+
+        DirectoryProperty getGitDir();
+
+        Property<String> getTargetBranch();
+    }
+
+    @Override
+    public String obtain() {
+        var parameters = getParameters();
+        return GitUtils.getCommitIds(Constants.R_HEADS + parameters.getTargetBranch().get(),
+                parameters.getGitDir().get().getAsFile().getPath());
+    }
+}
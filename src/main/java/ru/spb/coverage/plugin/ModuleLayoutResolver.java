@@ -0,0 +1,75 @@
+package ru.spb.coverage.plugin;
+
+import lombok.extern.slf4j.Slf4j;
+import org.gradle.api.GradleException;
+import org.gradle.api.Project;
+import org.gradle.api.plugins.JavaPlugin;
+import org.gradle.api.plugins.JavaPluginExtension;
+import org.gradle.api.tasks.SourceSet;
+import org.gradle.api.tasks.testing.Test;
+
+import java.util.Comparator;
+
+/**
+ * Discovers class directories, source roots and jacoco exec files of gradle projects.
+ * Files are resolved lazily, exec files do not have to exist before tests run
+ */
+@Slf4j
+class ModuleLayoutResolver {
+
+    private static final String JACOCO_DIR = "jacoco";
+    private static final String EXEC_FILE_PATTERN = "*.exec";
+
+    private ModuleLayoutResolver() {
+    }
+
+    /**
+     * Adds layouts of all java projects of the build to the modules in aggregated mode,
+     * otherwise layout of the project named by moduleName or of the project itself.
+     * A project is added once the java plugin is applied to it, so projects evaluated after the task
+     * is realized are not missed and no project is configured by the coverage plugin.
+     * Tests of the modules, which write the exec files, are ordered before the coverage task
+     */
+    static void resolve(Project project,
+                        CoveragePluginExtension coverageSettings,
+                        NewCodeCoverageTask coverageTask) {
+        if (Boolean.TRUE.equals(coverageSettings.getAggregate())) {
+            project.getRootProject().allprojects(moduleProject -> addWhenJava(project, moduleProject, coverageTask));
+        } else {
+            addWhenJava(project, findModuleProject(project, coverageSettings.getModuleName()), coverageTask);
+        }
+    }
+
+    private static void addWhenJava(Project project, Project moduleProject, NewCodeCoverageTask coverageTask) {
+        moduleProject.getPlugins().withType(JavaPlugin.class, plugin -> {
+            var javaExtension = moduleProject.getExtensions().getByType(JavaPluginExtension.class);
+            var mainSourceSet = javaExtension.getSourceSets().getByName(SourceSet.MAIN_SOURCE_SET_NAME);
+            var module = project.getObjects().newInstance(CoverageModule.class);
+            module.getName().set(moduleProject.getPath());
+            module.getClassesDirs().from(mainSourceSet.getOutput().getClassesDirs());
+            module.getSourceDirs().from(mainSourceSet.getJava().getSourceDirectories());
+            module.getExecFiles().from(moduleProject.fileTree(moduleProject.getLayout().getBuildDirectory().dir(JACOCO_DIR),
+                    tree -> tree.include(EXEC_FILE_PATTERN)));
+            // Projects are evaluated in any order, modules are kept in the order of paths for stable task inputs
+            coverageTask.getModules().add(module);
+            coverageTask.getModules().sort(Comparator.comparing(layout -> layout.getName().get()));
+            coverageTask.mustRunAfter(moduleProject.getTasks().withType(Test.class));
+            log.debug("Project {} is added to new code coverage", moduleProject.getPath());
+        });
+    }
+
+    private static Project findModuleProject(Project project, String moduleName) {
+        if (moduleName == null || moduleName.isBlank()) {
+            return project;
+        }
+
+        var moduleProject = project.findProject(moduleName);
+        if (moduleProject == null) {
+            moduleProject = project.findProject(":" + moduleName);
+        }
+        if (moduleProject == null) {
+            throw new GradleException("Could not find module " + moduleName);
+        }
+        return moduleProject;
+    }
+}
@@ -0,0 +1,251 @@
+package ru.spb.coverage.plugin;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.LocalState;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.OutputFiles;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+import ru.spb.coverage.domain.CoverageSettings;
+import ru.spb.coverage.domain.DiffMode;
+
+import javax.inject.Inject;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Computes coverage of the code changed against the target branch and writes the report.
+ * The result depends only on the declared inputs: commits of both branches, sources, classes,
+ * exec files and thresholds, so unchanged reruns are up-to-date or taken from the build cache.
+ * The evaluation is submitted to the worker API, so the execution thread is free for other tasks
+ */
+@CacheableTask
+public abstract class NewCodeCoverageTask extends DefaultTask {
+
+    static final String ISOLATION_NONE = "none";
+    static final String ISOLATION_CLASSLOADER = "classloader";
+    static final String ISOLATION_PROCESS = "process";
+
+    private List<CoverageModule> modules = new ArrayList<>();
+
+    @Input
+    public abstract Property<String> getTargetBranch();
+
+    /**
+     * @see GitCommitIdsValueSource
+     */
+    @Input
+    public abstract Property<String> getCommitIds();
+
+    @Input
+    public abstract Property<Double> getMinCoverage();
+
+    @Optional
+    @Input
+    public abstract Property<Double> getMinBranchCoverage();
+
+    /**
+     * Minimum coverage of changed lines of every method, checked in the same pass as the whole new code
+     */
+    @Optional
+    @Input
+    public abstract Property<Double> getMinMethodCoverage();
+
+    @Optional
+    @Input
+    public abstract Property<Double> getMinClassCoverage();
+
+    @Input
+    public abstract Property<Boolean> getFullScan();
+
+    @Input
+    public abstract Property<Boolean> getDiffAgainstMergeBase();
+
+    /**
+     * Working tree changes are seen through the sources of the modules, staged changes through the git index file
+     */
+    @Input
+    public abstract Property<String> getDiffMode();
+
+    /**
+     * Git index, set only when staged changes are compared
+     */
+    @Optional
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getGitIndexFile();
+
+    /**
+     * Modules are added as the java plugin is applied to the projects, the list is complete once projects are evaluated
+     */
+    @Nested
+    public List<CoverageModule> getModules() {
+        return modules;
+    }
+
+    public void setModules(List<CoverageModule> modules) {
+        this.modules = modules;
+    }
+
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getAdditionalExecFiles();
+
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getBaselineClassesDirs();
+
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getBaselineExecFiles();
+
+    @Internal
+    public abstract DirectoryProperty getGitDir();
+
+    /**
+     * Directory of analysis and diff caches, they are kept between builds and do not affect the report
+     */
+    @Internal
+    public abstract DirectoryProperty getWorkDir();
+
+    @Internal
+    public abstract Property<Integer> getAnalysisWorkers();
+
+    /**
+     * Does not change the report, so it is not an input
+     */
+    @Internal
+    public abstract Property<Integer> getEvaluationWorkers();
+
+    @Internal
+    public abstract Property<Boolean> getAnalysisCache();
+
+    @Internal
+    public abstract Property<Boolean> getDiffCache();
+
+    @Internal
+    public abstract Property<Boolean> getLogMetrics();
+
+    /**
+     * Coverage history the run is appended to, not set if the history is disabled.
+     * Up-to-date and cached runs are not appended, they have the same commits as the run which produced them
+     */
+    @Internal
+    public abstract DirectoryProperty getHistoryDir();
+
+    /**
+     * Isolation of the worker: none, classloader or process
+     */
+    @Internal
+    public abstract Property<String> getWorkerIsolation();
+
+    /**
+     * Max heap size of the worker process, applied only with process isolation
+     */
+    @Internal
+    public abstract Property<String> getWorkerMaxHeapSize();
+
+    /**
+     * Port of the coverage daemon on localhost, coverage is evaluated in the worker if it is not set
+     */
+    @Internal
+    public abstract Property<Integer> getDaemonPort();
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    @OutputFile
+    public abstract RegularFileProperty getReportFile();
+
+    /**
+     * Reports in other formats by format name, written from the same changes as the text report
+     */
+    @OutputFiles
+    public abstract MapProperty<String, File> getAdditionalReportFiles();
+
+    /**
+     * Metrics describe the run itself, so they are not restored from the build cache
+     */
+    @LocalState
+    public abstract RegularFileProperty getMetricsFile();
+
+    /**
+     * Tests covering changed lines, one per line, not set if affected tests are not requested
+     */
+    @Optional
+    @OutputFile
+    public abstract RegularFileProperty getAffectedTestsFile();
+
+    @TaskAction
+    public void evaluate() {
+        if (modules.isEmpty()) {
+            throw new GradleException("No java projects found for new code coverage");
+        }
+        createWorkQueue().submit(NewCodeCoverageWorkAction.class, parameters -> {
+            parameters.getSettings().set(createSettings());
+            parameters.getMinCoverage().set(getMinCoverage());
+            parameters.getMinBranchCoverage().set(getMinBranchCoverage());
+            parameters.getMinMethodCoverage().set(getMinMethodCoverage());
+            parameters.getMinClassCoverage().set(getMinClassCoverage());
+            parameters.getReportFile().set(getReportFile());
+            parameters.getAdditionalReportFiles().set(getAdditionalReportFiles());
+            parameters.getMetricsFile().set(getMetricsFile());
+            parameters.getLogMetrics().set(getLogMetrics());
+            parameters.getDaemonPort().set(getDaemonPort());
+            parameters.getHistoryDir().set(getHistoryDir());
+        });
+    }
+
+    private WorkQueue createWorkQueue() {
+        var isolation = getWorkerIsolation().get().toLowerCase(Locale.ROOT);
+        return switch (isolation) {
+            case ISOLATION_NONE -> getWorkerExecutor().noIsolation();
+            case ISOLATION_CLASSLOADER -> getWorkerExecutor().classLoaderIsolation();
+            case ISOLATION_PROCESS -> getWorkerExecutor().processIsolation(spec -> {
+                if (getWorkerMaxHeapSize().isPresent()) {
+                    spec.forkOptions(options -> options.setMaxHeapSize(getWorkerMaxHeapSize().get()));
+                }
+            });
+            default -> throw new GradleException("Unknown worker isolation " + isolation
+                    + ", expected one of: none, classloader, process");
+        };
+    }
+
+    private CoverageSettings createSettings() {
+        return CoverageSettings.builder()
+                .targetBranch(getTargetBranch().get())
+                .modules(modules.stream().map(CoverageModule::toModuleLayout).toList())
+                .additionalExecFiles(List.copyOf(getAdditionalExecFiles().getFiles()))
+                .gitDir(getGitDir().get().getAsFile())
+                .workDir(getWorkDir().get().getAsFile())
+                .analysisWorkers(getAnalysisWorkers().get())
+                .evaluationWorkers(getEvaluationWorkers().get())
+                .fullScan(getFullScan().get())
+                .analysisCache(getAnalysisCache().get())
+                .diffAgainstMergeBase(getDiffAgainstMergeBase().get())
+                .diffMode(DiffMode.of(getDiffMode().get()))
+                .diffCache(getDiffCache().get())
+                .affectedTestsFile(getAffectedTestsFile().isPresent() ? getAffectedTestsFile().get().getAsFile() : null)
+                .baselineClassesDirs(List.copyOf(getBaselineClassesDirs().getFiles()))
+                .baselineExecFiles(List.copyOf(getBaselineExecFiles().getFiles()))
+                .build();
+    }
+}
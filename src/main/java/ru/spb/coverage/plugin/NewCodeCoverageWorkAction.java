@@ -0,0 +1,133 @@
+package ru.spb.coverage.plugin;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import ru.spb.coverage.coverage.CoverageGates;
+import ru.spb.coverage.coverage.CoverageService;
+import ru.spb.coverage.coverage.ReportFormat;
+import ru.spb.coverage.coverage.ReportPrinter;
+import ru.spb.coverage.coverage.ReportWriter;
+import ru.spb.coverage.daemon.CoverageDaemonClient;
+import ru.spb.coverage.domain.CoverageSettings;
+import ru.spb.coverage.domain.report.ReportResults;
+import ru.spb.coverage.history.CoverageHistoryRecorder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the whole coverage pipeline in a gradle worker, away from the task execution thread.
+ * If a daemon port is set, the running coverage daemon evaluates coverage instead
+ */
+public abstract class NewCodeCoverageWorkAction implements WorkAction<NewCodeCoverageWorkAction.Parameters> {
+
+    private static final Logger LOGGER = Logging.getLogger(NewCodeCoverageWorkAction.class);
+    private static final String NEW_CODE_EX_MESSAGE = """
+            %s
+            Please, increase coverage of new code
+            """;
+
+    public interface Parameters extends WorkParameters {
+
+        Property<CoverageSettings> getSettings();
+
+        Property<Double> getMinCoverage();
+
+        Property<Double> getMinBranchCoverage();
+
+        Property<Double> getMinMethodCoverage();
+
+        Property<Double> getMinClassCoverage();
+
+        RegularFileProperty getReportFile();
+
+        MapProperty<String, File> getAdditionalReportFiles();
+
+        RegularFileProperty getMetricsFile();
+
+        Property<Boolean> getLogMetrics();
+
+        Property<Integer> getDaemonPort();
+
+        DirectoryProperty getHistoryDir();
+    }
+
+    @Override
+    public void execute() {
+        var parameters = getParameters();
+        var results = parameters.getDaemonPort().isPresent() ? evaluateWithDaemon() : evaluate();
+
+        var gates = CoverageGates.builder()
+                .minCoverage(parameters.getMinCoverage().get())
+                .minBranchCoverage(parameters.getMinBranchCoverage().getOrNull())
+                .minMethodCoverage(parameters.getMinMethodCoverage().getOrNull())
+                .minClassCoverage(parameters.getMinClassCoverage().getOrNull())
+                .build();
+        var violations = gates.violations(results);
+        if (!violations.isEmpty()) {
+            throw new GradleException(NEW_CODE_EX_MESSAGE.formatted(String.join("\n", violations)));
+        }
+    }
+
+    private ReportResults evaluate() {
+        var parameters = getParameters();
+        var settings = parameters.getSettings().get();
+        var coverageService = new CoverageService(settings);
+
+        var historyWriters = parameters.getHistoryDir().isPresent()
+                ? List.<ReportWriter>of(CoverageHistoryRecorder.of(settings, historyDir()))
+                : List.<ReportWriter>of();
+        var reportPrinter = new ReportPrinter(parameters.getReportFile().get().getAsFile().toPath(),
+                additionalReports(), historyWriters);
+        var results = reportPrinter.saveReportAsFile(coverageService);
+
+        var metrics = coverageService.getMetrics();
+        metrics.writeJson(parameters.getMetricsFile().get().getAsFile().toPath());
+        if (parameters.getLogMetrics().get()) {
+            LOGGER.lifecycle(metrics.summary());
+        }
+        return results;
+    }
+
+    private ReportResults evaluateWithDaemon() {
+        var parameters = getParameters();
+        var port = parameters.getDaemonPort().get();
+        try {
+            var results = new CoverageDaemonClient(port).evaluate(parameters.getSettings().get(),
+                    parameters.getReportFile().get().getAsFile().toPath(),
+                    additionalReports(),
+                    parameters.getMetricsFile().get().getAsFile().toPath(),
+                    parameters.getHistoryDir().isPresent() ? historyDir() : null);
+            if (parameters.getLogMetrics().get()) {
+                LOGGER.lifecycle("Coverage evaluated by daemon on port {}, metrics are saved to {}",
+                        port, parameters.getMetricsFile().get().getAsFile());
+            }
+            return results;
+        } catch (IOException ex) {
+            LOGGER.warn("Coverage daemon on port {} is not available, evaluating coverage in the worker", port);
+            return evaluate();
+        }
+    }
+
+    private Path historyDir() {
+        return getParameters().getHistoryDir().get().getAsFile().toPath();
+    }
+
+    private Map<ReportFormat, Path> additionalReports() {
+        var additionalReports = new EnumMap<ReportFormat, Path>(ReportFormat.class);
+        getParameters().getAdditionalReportFiles().get()
+                .forEach((format, file) -> additionalReports.put(ReportFormat.of(format), file.toPath()));
+        return additionalReports;
+    }
+}
@@ -0,0 +1,56 @@
+package ru.spb.coverage.cli;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+class CandidatesFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testReadCandidatesSkippingCommentsAndEmptyLines() throws IOException {
+        var file = write("""
+                # base head exec [classes]
+                main feature-1 a.exec%sb.exec
+
+                  main   feature-2  c.exec  build/classes
+                """.formatted(File.pathSeparator));
+
+        var candidates = CandidatesFile.read(file);
+
+        Assertions.assertThat(candidates).hasSize(2);
+        Assertions.assertThat(candidates.get(0).getBaseRevision()).isEqualTo("main");
+        Assertions.assertThat(candidates.get(0).getHeadRevision()).isEqualTo("feature-1");
+        Assertions.assertThat(candidates.get(0).getExecFiles()).containsExactly(new File("a.exec"), new File("b.exec"));
+        Assertions.assertThat(candidates.get(0).getClassesDirs()).isEmpty();
+        Assertions.assertThat(candidates.get(1).getClassesDirs()).containsExactly(new File("build/classes"));
+    }
+
+    @Test
+    void testInvalidCandidates() throws IOException {
+        var shortLine = write("main feature-1\n");
+        Assertions.assertThatIllegalArgumentException()
+                .isThrownBy(() -> CandidatesFile.read(shortLine))
+                .withMessageStartingWith("Line 1 of ");
+        var longLine = write("# comment\nmain feature-1 a.exec classes extra\n");
+        Assertions.assertThatIllegalArgumentException()
+                .isThrownBy(() -> CandidatesFile.read(longLine))
+                .withMessageStartingWith("Line 2 of ");
+        var onlyComments = write("# nothing to evaluate\n\n");
+        Assertions.assertThatIllegalArgumentException()
+                .isThrownBy(() -> CandidatesFile.read(onlyComments))
+                .withMessageStartingWith("No candidates in ");
+    }
+
+    private Path write(String content) throws IOException {
+        return Files.writeString(Files.createTempFile(dir, "candidates", ".txt"), content);
+    }
+}
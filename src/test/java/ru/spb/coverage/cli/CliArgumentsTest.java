@@ -0,0 +1,71 @@
+package ru.spb.coverage.cli;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.spb.coverage.coverage.ReportFormat;
+import ru.spb.coverage.domain.DiffMode;
+
+import java.io.File;
+import java.util.List;
+
+class CliArgumentsTest {
+
+    @Test
+    void testParseOptions() {
+        var arguments = CliArguments.parse(List.of(
+                "--classes", "a" + File.pathSeparator + "b",
+                "--classes", "c",
+                "--sources", "src",
+                "--report", "out/report.txt",
+                "--report-formats", "json,binary",
+                "--min-coverage", "80.5",
+                "--min-branch-coverage", "60",
+                "--workers", "3",
+                "--evaluation-workers", "2",
+                "--daemon-port", "4000",
+                "--working-tree",
+                "--no-diff-cache"));
+
+        Assertions.assertThat(arguments.getClassesDirs()).containsExactly(new File("a"), new File("b"), new File("c"));
+        Assertions.assertThat(arguments.getSourceDirs()).containsExactly(new File("src"));
+        Assertions.assertThat(arguments.getReportFormats()).containsExactly(ReportFormat.JSON, ReportFormat.BINARY);
+        Assertions.assertThat(arguments.getMinCoverage()).isEqualTo(80.5);
+        Assertions.assertThat(arguments.getMinBranchCoverage()).isEqualTo(60.0);
+        Assertions.assertThat(arguments.getMinMethodCoverage()).isNull();
+        Assertions.assertThat(arguments.getWorkers()).isEqualTo(3);
+        Assertions.assertThat(arguments.getEvaluationWorkers()).isEqualTo(2);
+        Assertions.assertThat(arguments.getDaemonPort()).isEqualTo(4000);
+        Assertions.assertThat(arguments.getDiffMode()).isEqualTo(DiffMode.WORKING_TREE);
+        Assertions.assertThat(arguments.isDiffCache()).isFalse();
+        Assertions.assertThat(arguments.isAnalysisCache()).isTrue();
+        Assertions.assertThat(arguments.getTarget()).isEqualTo("master");
+    }
+
+    @Test
+    void testIntegerOptionsRejectFractionsAndOverflow() {
+        Assertions.assertThatIllegalArgumentException()
+                .isThrownBy(() -> CliArguments.parse(List.of("--workers", "2.5")))
+                .withMessage("Value of --workers is not an integer: 2.5");
+        Assertions.assertThatIllegalArgumentException()
+                .isThrownBy(() -> CliArguments.parse(List.of("--daemon-port", "4294967297")))
+                .withMessage("Value of --daemon-port is not an integer: 4294967297");
+        Assertions.assertThatIllegalArgumentException()
+                .isThrownBy(() -> CliArguments.parse(List.of("--limit", "1e3")));
+    }
+
+    @Test
+    void testInvalidArguments() {
+        Assertions.assertThatIllegalArgumentException()
+                .isThrownBy(() -> CliArguments.parse(List.of("--min-coverage", "high")))
+                .withMessage("Value of --min-coverage is not a number: high");
+        Assertions.assertThatIllegalArgumentException()
+                .isThrownBy(() -> CliArguments.parse(List.of("--report")))
+                .withMessage("Missing value of --report");
+        Assertions.assertThatIllegalArgumentException()
+                .isThrownBy(() -> CliArguments.parse(List.of("--unknown")))
+                .withMessage("Unknown option --unknown");
+        Assertions.assertThatIllegalArgumentException()
+                .isThrownBy(() -> CliArguments.parse(List.of("--sources", "src")).requireLayout(true));
+        Assertions.assertThat(CliArguments.parse(List.of("--sources", "src")).requireLayout(false)).isNotNull();
+    }
+}
@@ -0,0 +1,70 @@
+package ru.spb.coverage.cli;
+
+import org.assertj.core.api.Assertions;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+class CoverageCliTest {
+
+    @TempDir
+    Path dir;
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    CoverageCli cli = new CoverageCli(new PrintStream(out, true, StandardCharsets.UTF_8),
+            new PrintStream(err, true, StandardCharsets.UTF_8));
+
+    @Test
+    void testUsageErrors() {
+        Assertions.assertThat(cli.run("unknown")).isEqualTo(CoverageCli.EXIT_USAGE);
+        Assertions.assertThat(cli.run("--sources", "src")).isEqualTo(CoverageCli.EXIT_USAGE);
+        Assertions.assertThat(cli.run("--classes", "classes", "--sources", "src", "--workers", "2.5"))
+                .isEqualTo(CoverageCli.EXIT_USAGE);
+        Assertions.assertThat(cli.run("daemon", "port")).isEqualTo(CoverageCli.EXIT_USAGE);
+        Assertions.assertThat(err.toString(StandardCharsets.UTF_8))
+                .contains("Value of --workers is not an integer: 2.5")
+                .contains("Usage:");
+        Assertions.assertThat(cli.run("help")).isEqualTo(CoverageCli.EXIT_OK);
+    }
+
+    @Test
+    void testFailedEvaluation() {
+        var missingCandidates = dir.resolve("missing.txt").toString();
+
+        Assertions.assertThat(cli.run("batch", "--candidates", missingCandidates, "--sources", "src"))
+                .isEqualTo(CoverageCli.EXIT_FAILURE);
+        Assertions.assertThat(err.toString(StandardCharsets.UTF_8)).startsWith("New code coverage failed: ");
+    }
+
+    @Test
+    void testExitCodeOfCoverageGates() throws IOException, GitAPIException {
+        var repository = dir.resolve("repository");
+        try (var git = Git.init().setDirectory(repository.toFile()).setInitialBranch("master").call()) {
+            Files.writeString(repository.resolve("README.md"), "readme\n");
+            git.add().addFilepattern("README.md").call();
+            git.commit().setMessage("Initial commit").setSign(false).call();
+        }
+        // The checked out branch is the target, so there is no new code and its coverage is 100 %
+        var args = new String[]{"--git-dir", repository.resolve(".git").toString(),
+                "--classes", dir.resolve("classes").toString(),
+                "--sources", repository.resolve("src").toString(),
+                "--report", dir.resolve("report.txt").toString(),
+                "--work-dir", dir.resolve("work").toString(),
+                "--min-coverage", "100"};
+
+        Assertions.assertThat(cli.run(args)).isEqualTo(CoverageCli.EXIT_OK);
+
+        args[args.length - 1] = "100.5";
+        Assertions.assertThat(cli.run(args)).isEqualTo(CoverageCli.EXIT_BELOW_THRESHOLD);
+        Assertions.assertThat(err.toString(StandardCharsets.UTF_8)).contains("is below minimum 100.50 %");
+    }
+}
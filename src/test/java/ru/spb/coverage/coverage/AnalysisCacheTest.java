@@ -0,0 +1,225 @@
+package ru.spb.coverage.coverage;
+
+import org.assertj.core.api.Assertions;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.ISourceNode;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataStore;
+import org.jacoco.core.internal.data.CRC64;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+class AnalysisCacheTest {
+
+    private static final String SOURCE = """
+            package com.example;
+
+            import java.util.function.IntPredicate;
+
+            public class Sample {
+                public int classify(int value) {
+                    if (value > 10) {
+                        return 2;
+                    }
+                    return value < 0 ? 0 : 1;
+                }
+
+                public IntPredicate positive() {
+                    return value -> value > 0
+                            && value < 100;
+                }
+
+                public int noFirstLine(int value) {
+                    var sum = value * 2;
+                    for (var i = 0; i < value; i++) {
+                        sum += i;
+                    }
+                    return sum;
+                }
+            }
+            """;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testRestoredClassesHaveCountersOfFreshAnalysis() throws IOException {
+        var classFile = compileSample();
+        var execData = execData(Files.readAllBytes(classFile));
+        var cache = new AnalysisCache(tempDir.resolve("cache").toFile());
+
+        var fresh = analyze(classFile, execData, null);
+        analyze(classFile, execData, cache);
+        var restored = analyze(classFile, execData, cache);
+
+        Assertions.assertThat(cache.getHits()).isOne();
+        Assertions.assertThat(describe(restored)).isEqualTo(describe(fresh));
+        Assertions.assertThat(describe(fresh))
+                .anyMatch(line -> line.startsWith("noFirstLine") && line.contains("unknown line"));
+    }
+
+    @Test
+    void testOldAndLeastRecentlyUsedEntriesAreEvicted() throws IOException {
+        var classFile = compileSample();
+        var execData = execData(Files.readAllBytes(classFile));
+        var classCoverage = analyze(classFile, execData, null).get(0);
+        var cacheDir = tempDir.resolve("cache").toFile();
+        var cache = new AnalysisCache(cacheDir, 0, Duration.ofDays(1), Long.MAX_VALUE);
+        for (var key : List.of("aa01", "aa02", "bb03")) {
+            cache.store(key, classCoverage);
+        }
+        setAge(cacheDir, "aa01", Duration.ofDays(2));
+        setAge(cacheDir, "aa02", Duration.ofHours(2));
+
+        Assertions.assertThat(cache.evict()).isOne();
+        Assertions.assertThat(cache.find("aa01")).isEmpty();
+        Assertions.assertThat(cache.find("aa02")).isPresent();
+
+        var entrySize = Files.size(entryPath(cacheDir, "bb03"));
+        setAge(cacheDir, "bb03", Duration.ofHours(3));
+        var boundedCache = new AnalysisCache(cacheDir, 0, Duration.ofDays(1), entrySize);
+
+        // aa02 was refreshed when it was found, so bb03 is the least recently used entry
+        Assertions.assertThat(boundedCache.evict()).isOne();
+        Assertions.assertThat(boundedCache.find("bb03")).isEmpty();
+        Assertions.assertThat(boundedCache.find("aa02")).isPresent();
+    }
+
+    private Path compileSample() throws IOException {
+        var sourceFile = tempDir.resolve("src/com/example/Sample.java");
+        Files.createDirectories(sourceFile.getParent());
+        Files.writeString(sourceFile, SOURCE);
+        var classesDir = tempDir.resolve("classes");
+        var result = ToolProvider.getSystemJavaCompiler()
+                .run(null, null, null, "-g", "-d", classesDir.toString(), sourceFile.toString());
+        Assertions.assertThat(result).isZero();
+
+        var classFile = classesDir.resolve("com/example/Sample.class");
+        Files.write(classFile, withoutFirstLineNumber(Files.readAllBytes(classFile), "noFirstLine"));
+        return classFile;
+    }
+
+    /**
+     * Instructions before the second line number of the method have no line, as in code of some generators
+     */
+    private static byte[] withoutFirstLineNumber(byte[] classBytes, String methodName) {
+        var writer = new ClassWriter(0);
+        new ClassReader(classBytes).accept(new ClassVisitor(Opcodes.ASM9, writer) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor,
+                                             String signature, String[] exceptions) {
+                var visitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+                if (!name.equals(methodName)) {
+                    return visitor;
+                }
+                return new MethodVisitor(Opcodes.ASM9, visitor) {
+                    private boolean firstLine = true;
+
+                    @Override
+                    public void visitLineNumber(int line, Label start) {
+                        if (!firstLine) {
+                            super.visitLineNumber(line, start);
+                        }
+                        firstLine = false;
+                    }
+                };
+            }
+        }, 0);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Every other probe is hit, so the class has covered, missed and partly covered lines
+     */
+    private static ExecutionDataStore execData(byte[] classBytes) {
+        var probes = new boolean[64];
+        for (var i = 0; i < probes.length; i += 2) {
+            probes[i] = true;
+        }
+        var store = new ExecutionDataStore();
+        store.put(new ExecutionData(CRC64.classId(classBytes), new ClassReader(classBytes).getClassName(), probes));
+        return store;
+    }
+
+    private static List<IClassCoverage> analyze(Path classFile, ExecutionDataStore execData, AnalysisCache cache) {
+        var classes = new ParallelCodeAnalyzer(execData, 1, cache)
+                .analyze(List.of(classFile.toFile()))
+                .getClasses();
+        return classes.stream().sorted(Comparator.comparing(IClassCoverage::getName)).toList();
+    }
+
+    /**
+     * @return counters of the classes, their methods and every line of the methods
+     */
+    private static List<String> describe(List<IClassCoverage> classes) {
+        var description = new ArrayList<String>();
+        for (var classCoverage : classes) {
+            description.add(classCoverage.getName() + " " + counters(classCoverage));
+            var methods = classCoverage.getMethods().stream()
+                    .sorted(Comparator.comparing(method -> method.getName() + method.getDesc()))
+                    .toList();
+            for (var method : methods) {
+                var methodName = method.getName() + method.getDesc();
+                description.add(methodName + " " + method.getFirstLine() + "-" + method.getLastLine()
+                        + " " + counters(method));
+                if (method.getFirstLine() == ISourceNode.UNKNOWN_LINE) {
+                    continue;
+                }
+                for (var nr = method.getFirstLine(); nr <= method.getLastLine(); nr++) {
+                    var line = method.getLine(nr);
+                    description.add(methodName + " line " + nr + " " + line.getStatus()
+                            + " " + counter(line.getInstructionCounter()) + " " + counter(line.getBranchCounter()));
+                }
+                var lineInstructions = 0;
+                for (var nr = method.getFirstLine(); nr <= method.getLastLine(); nr++) {
+                    lineInstructions += method.getLine(nr).getInstructionCounter().getTotalCount();
+                }
+                var unknownLineInstructions = method.getInstructionCounter().getTotalCount() - lineInstructions;
+                if (unknownLineInstructions > 0) {
+                    description.add(methodName + " unknown line " + unknownLineInstructions);
+                }
+            }
+        }
+        return description;
+    }
+
+    private static String counters(ISourceNode node) {
+        return Stream.of(node.getInstructionCounter(), node.getBranchCounter(), node.getLineCounter(),
+                        node.getComplexityCounter(), node.getMethodCounter())
+                .map(AnalysisCacheTest::counter)
+                .toList()
+                .toString();
+    }
+
+    private static String counter(ICounter counter) {
+        return counter.getMissedCount() + "/" + counter.getCoveredCount();
+    }
+
+    private static void setAge(File cacheDir, String key, Duration age) throws IOException {
+        Files.setLastModifiedTime(entryPath(cacheDir, key), FileTime.from(Instant.now().minus(age)));
+    }
+
+    private static Path entryPath(File cacheDir, String key) {
+        return cacheDir.toPath().resolve(key.substring(0, 2)).resolve(key + ".bin");
+    }
+}
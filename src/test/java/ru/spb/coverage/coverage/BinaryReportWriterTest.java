@@ -0,0 +1,96 @@
+package ru.spb.coverage.coverage;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.spb.coverage.domain.report.ChangedLineTests;
+import ru.spb.coverage.domain.report.CodeLine;
+import ru.spb.coverage.domain.report.CoverageBranchStats;
+import ru.spb.coverage.domain.report.CoverageChange;
+import ru.spb.coverage.domain.report.CoverageRegression;
+import ru.spb.coverage.domain.report.Report;
+import ru.spb.coverage.domain.report.UnitCoverage;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+class BinaryReportWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testReadWrittenReport() {
+        var report = Report.builder()
+                .changes(List.of(
+                        change("src/main/java/A.java", List.of(line(300, null), line(2, null)),
+                                List.of(line(1000, branch(1, 3)))),
+                        change("src/main/java/B.java", List.of(), List.of()),
+                        change("src/main/java/A.java", List.of(line(7, null)), List.of())))
+                .units(List.of(
+                        unit(UnitCoverage.Level.METHOD, "run"),
+                        unit(UnitCoverage.Level.CLASS, null)))
+                .regressions(List.of(CoverageRegression.builder()
+                        .fileName("src/main/java/B.java")
+                        .uncoveredCodeLines(List.of(line(12, null)))
+                        .lostBranchCodeLines(List.of(line(3, branch(1, 1))))
+                        .build()))
+                .lineTests(List.of(ChangedLineTests.builder()
+                        .fileName("src/main/java/C.java")
+                        .lineTests(Map.of(6, List.of("ATest", "BTest"), 9, List.of("BTest")))
+                        .build()))
+                .allLines(20)
+                .coveredLines(16)
+                .allBranches(4)
+                .coveredBranches(1)
+                .build();
+        var binaryReport = tempDir.resolve("report.bin");
+
+        new ReportPrinter(tempDir.resolve("report.txt"), Map.of(ReportFormat.BINARY, binaryReport))
+                .saveReportAsFile(report);
+
+        Assertions.assertThat(BinaryReportReader.read(binaryReport))
+                .isEqualTo(report);
+    }
+
+    private static CoverageChange change(String fileName, List<CodeLine> uncovered, List<CodeLine> partlyCovered) {
+        return CoverageChange.builder()
+                .fileName(fileName)
+                .uncoveredCodeLines(uncovered)
+                .partlyCoveredCodeLines(partlyCovered)
+                .acceptableLinesForCovering(5)
+                .coveredBranches(1)
+                .missedBranches(3)
+                .build();
+    }
+
+    private static UnitCoverage unit(UnitCoverage.Level level, String methodName) {
+        return UnitCoverage.builder()
+                .level(level)
+                .fileName("src/main/java/A.java")
+                .className("A")
+                .methodName(methodName)
+                .firstLine(3)
+                .lastLine(40)
+                .allLines(6)
+                .coveredLines(2)
+                .allBranches(4)
+                .coveredBranches(1)
+                .build();
+    }
+
+    private static CodeLine line(int lineNumber, CoverageBranchStats branch) {
+        return CodeLine.builder()
+                .lineNumber(lineNumber)
+                .branch(branch)
+                .build();
+    }
+
+    private static CoverageBranchStats branch(int covered, int missed) {
+        return CoverageBranchStats.builder()
+                .covered(covered)
+                .missed(missed)
+                .build();
+    }
+}
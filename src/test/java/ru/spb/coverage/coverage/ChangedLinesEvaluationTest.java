@@ -0,0 +1,116 @@
+package ru.spb.coverage.coverage;
+
+import org.assertj.core.api.Assertions;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.internal.analysis.CounterImpl;
+import org.jacoco.core.internal.analysis.SourceFileCoverageImpl;
+import org.junit.jupiter.api.Test;
+import ru.spb.coverage.domain.GitDiff;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+class ChangedLinesEvaluationTest {
+
+    private static final ICounter COVERED = CounterImpl.getInstance(0, 1);
+    private static final ICounter NOT_COVERED = CounterImpl.getInstance(1, 0);
+
+    CoverageService coverageService = new CoverageService("master");
+
+    @Test
+    void testTotalsCountChangedLinesOfCoveredFilesToo() {
+        var coveredFile = changedFile("A.java", 3);
+        var coveredSource = new SourceFileCoverageImpl("A.java", "com/example");
+        for (var line = 1; line <= 3; line++) {
+            coveredSource.increment(COVERED, CounterImpl.COUNTER_0_0, line);
+        }
+        var uncoveredFile = changedFile("B.java", 2);
+        var uncoveredSource = new SourceFileCoverageImpl("B.java", "com/example");
+        for (var line = 1; line <= 2; line++) {
+            uncoveredSource.increment(NOT_COVERED, CounterImpl.COUNTER_0_0, line);
+        }
+
+        var totals = new CoverageService.TotalsCounter();
+        var covered = evaluate(coveredFile, coveredSource, 3);
+        var uncovered = evaluate(uncoveredFile, uncoveredSource, 2);
+        totals.add(covered.totals());
+        totals.add(uncovered.totals());
+
+        Assertions.assertThat(covered.changes()).isEmpty();
+        Assertions.assertThat(uncovered.changes()).singleElement()
+                .satisfies(change -> Assertions.assertThat(change.getUncoveredCodeLines()).hasSize(2));
+        var reportTotals = totals.toReportTotals();
+        Assertions.assertThat(reportTotals.getAllLines()).isEqualTo(5);
+        Assertions.assertThat(reportTotals.getCoveredLines()).isEqualTo(3);
+    }
+
+    @Test
+    void testMissedBranchesOfCoveredHunkAreCountedInTotalsOnly() {
+        var diff = changedFile("A.java", 2);
+        var source = new SourceFileCoverageImpl("A.java", "com/example");
+        source.increment(COVERED, CounterImpl.getInstance(1, 1), 1);
+        source.increment(COVERED, CounterImpl.COUNTER_0_0, 2);
+
+        var evaluation = evaluate(diff, source, 2);
+
+        Assertions.assertThat(evaluation.changes()).isEmpty();
+        var reportTotals = evaluation.totals().toReportTotals();
+        Assertions.assertThat(reportTotals.getAllLines()).isEqualTo(2);
+        Assertions.assertThat(reportTotals.getCoveredLines()).isEqualTo(2);
+        Assertions.assertThat(reportTotals.getAllBranches()).isEqualTo(2);
+        Assertions.assertThat(reportTotals.getCoveredBranches()).isOne();
+    }
+
+    @Test
+    void testTestsOfCoveredHunkAreReportedApartFromChanges() {
+        var diff = changedFile("A.java", 2);
+        var source = new SourceFileCoverageImpl("A.java", "com/example");
+        source.increment(COVERED, CounterImpl.COUNTER_0_0, 1);
+        source.increment(COVERED, CounterImpl.COUNTER_0_0, 2);
+        var fileTests = Map.<Integer, SortedSet<String>>of(2, new TreeSet<>(List.of("ATest")));
+
+        var withoutTests = evaluate(diff, source, 2, Map.of());
+        var withTests = evaluate(diff, source, 2, fileTests);
+
+        Assertions.assertThat(withoutTests.changes()).isEmpty();
+        Assertions.assertThat(withoutTests.lineTests()).isNull();
+        Assertions.assertThat(withTests.changes()).isEmpty();
+        Assertions.assertThat(withTests.lineTests().getFileName()).isEqualTo("com/example/A.java");
+        Assertions.assertThat(withTests.lineTests().getLineTests()).containsOnlyKeys(1);
+    }
+
+    private CoverageService.FileEvaluation evaluate(GitDiff diff, SourceFileCoverageImpl source, int lines) {
+        return evaluate(diff, source, lines, Map.of());
+    }
+
+    private CoverageService.FileEvaluation evaluate(GitDiff diff,
+                                                    SourceFileCoverageImpl source,
+                                                    int lines,
+                                                    Map<Integer, SortedSet<String>> fileTests) {
+        var changedLines = new LineSet();
+        changedLines.add(diff.getBeginChanges(), diff.getEndChanges());
+        var changedFile = new CoverageService.ChangedFile(diff, source, List.of(), changedLines);
+        return coverageService.evaluateChangedLines(changedFile, "com/example/" + source.getName(),
+                sourceFile(lines), fileTests);
+    }
+
+    private static GitDiff changedFile(String fileName, int lines) {
+        return GitDiff.builder()
+                .filePath("src/main/java/com/example/" + fileName)
+                .changedFileName(fileName)
+                .beginChanges(0)
+                .endChanges(lines)
+                .build();
+    }
+
+    private static IndexedSourceFile sourceFile(int lines) {
+        var content = new StringBuilder();
+        for (var line = 1; line <= lines; line++) {
+            content.append("line ").append(line).append('\n');
+        }
+        return IndexedSourceFile.of(content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
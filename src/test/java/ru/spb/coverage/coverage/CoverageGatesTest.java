@@ -0,0 +1,35 @@
+package ru.spb.coverage.coverage;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.spb.coverage.domain.report.ReportResults;
+import ru.spb.coverage.domain.report.UnitCoverage;
+
+class CoverageGatesTest {
+
+    @Test
+    void testBadlyCoveredMethodFailsEvenIfNewCodeIsCovered() {
+        var gates = CoverageGates.builder()
+                .minCoverage(75.0)
+                .minBranchCoverage(50.0)
+                .minMethodCoverage(50.0)
+                .build();
+        var worstMethod = UnitCoverage.builder()
+                .level(UnitCoverage.Level.METHOD)
+                .fileName("com/example/A.java")
+                .className("com/example/A")
+                .methodName("run")
+                .firstLine(10)
+                .lastLine(20)
+                .allLines(4)
+                .coveredLines(1)
+                .build();
+
+        var violations = gates.violations(new ReportResults(80.0, Double.NaN, worstMethod, null));
+
+        Assertions.assertThat(violations).singleElement().asString()
+                .startsWith("Method com.example.A#run (lines 10-20 of com/example/A.java)")
+                .contains("25.00 %");
+        Assertions.assertThat(gates.violations(new ReportResults(80.0, 60.0))).isEmpty();
+    }
+}
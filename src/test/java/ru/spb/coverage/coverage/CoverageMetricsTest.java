@@ -0,0 +1,56 @@
+package ru.spb.coverage.coverage;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.spb.coverage.coverage.CoverageMetrics.Stage;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class CoverageMetricsTest {
+
+    @Test
+    void testParallelMeasurementsOfStageCountWallTimeOnce() throws InterruptedException {
+        var metrics = new CoverageMetrics();
+        var workers = 4;
+        var started = new CountDownLatch(workers);
+        var threads = new Thread[workers];
+        var startNanos = System.nanoTime();
+        for (var i = 0; i < workers; i++) {
+            threads[i] = new Thread(() -> {
+                try (var ignored = metrics.start(Stage.LINE_EVALUATION)) {
+                    started.countDown();
+                    started.await();
+                    Thread.sleep(100);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            threads[i].start();
+        }
+
+        for (var thread : threads) {
+            thread.join();
+        }
+        var elapsedNanos = System.nanoTime() - startNanos;
+
+        var wallTimeNanos = metrics.get(Stage.LINE_EVALUATION).getWallTimeNanos();
+        Assertions.assertThat(wallTimeNanos)
+                .isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(100))
+                .isLessThanOrEqualTo(elapsedNanos);
+    }
+
+    @Test
+    void testCountersAreCopied() {
+        var stageMetrics = new CoverageMetrics().get(Stage.GIT_DIFF);
+        stageMetrics.count("diffHunks", 2);
+
+        var counters = stageMetrics.getCounters();
+        stageMetrics.count("diffHunks", 3);
+
+        Assertions.assertThat(counters).containsExactly(Assertions.entry("diffHunks", 2L));
+        Assertions.assertThat(stageMetrics.getCounters()).containsExactly(Assertions.entry("diffHunks", 5L));
+        Assertions.assertThatThrownBy(() -> counters.put("changedFiles", 1L))
+                .isInstanceOf(UnsupportedOperationException.class);
+    }
+}
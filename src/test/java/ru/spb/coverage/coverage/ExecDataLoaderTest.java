@@ -0,0 +1,50 @@
+package ru.spb.coverage.coverage;
+
+import org.assertj.core.api.Assertions;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.SessionInfo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+class ExecDataLoaderTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testKeepsOnlyGivenClassesAndReadsThemThroughIndex() throws IOException {
+        var execFile = dir.resolve("test.exec");
+        try (var out = Files.newOutputStream(execFile)) {
+            var writer = new ExecutionDataWriter(out);
+            writer.visitSessionInfo(new SessionInfo("first", 1, 2));
+            writer.visitClassExecution(new ExecutionData(1, "a/A", new boolean[]{true, false, false}));
+            var probes = new boolean[20];
+            probes[19] = true;
+            writer.visitClassExecution(new ExecutionData(2, "b/B", probes));
+            writer.visitSessionInfo(new SessionInfo("second", 3, 4));
+            writer.visitClassExecution(new ExecutionData(1, "a/A", new boolean[]{false, false, true}));
+            writer.visitClassExecution(new ExecutionData(3, "c/C", new boolean[]{true}));
+        }
+
+        var streamed = new ExecDataLoader(Set.of(1L, 3L), dir.resolve("index").toFile());
+        streamed.load(execFile.toFile());
+        var indexed = new ExecDataLoader(Set.of(1L, 3L), dir.resolve("index").toFile());
+        indexed.load(execFile.toFile());
+
+        Assertions.assertThat(streamed.getIndexedFiles()).isZero();
+        Assertions.assertThat(indexed.getIndexedFiles()).isOne();
+        for (var loader : new ExecDataLoader[]{streamed, indexed}) {
+            var store = loader.getExecutionDataStore();
+            Assertions.assertThat(store.getContents()).extracting(ExecutionData::getName)
+                    .containsExactlyInAnyOrder("a/A", "c/C");
+            Assertions.assertThat(store.get(1).getProbes()).containsExactly(true, false, true);
+            Assertions.assertThat(loader.getSkippedBlocks()).isOne();
+        }
+    }
+}
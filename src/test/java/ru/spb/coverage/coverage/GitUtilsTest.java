@@ -0,0 +1,208 @@
+package ru.spb.coverage.coverage;
+
+import org.assertj.core.api.Assertions;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.spb.coverage.domain.DiffMode;
+import ru.spb.coverage.domain.GitDiff;
+import ru.spb.coverage.domain.GitDiffOptions;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+class GitUtilsTest {
+
+    private static final String LINES = "class A {\n    int a;\n    int b;\n    int c;\n    int d;\n}\n";
+
+    @TempDir
+    Path repository;
+
+    private Git git;
+
+    @BeforeEach
+    void initRepository() throws GitAPIException, IOException {
+        git = Git.init().setDirectory(repository.toFile()).setInitialBranch("master").call();
+        write("src/A.java", LINES);
+        write("src/B.java", LINES.replace("A", "B"));
+        commit("Initial commit");
+    }
+
+    @AfterEach
+    void closeRepository() {
+        git.close();
+    }
+
+    @Test
+    void testMergeBaseIgnoresChangesOfTargetBranch() throws GitAPIException, IOException {
+        git.checkout().setCreateBranch(true).setName("feature").call();
+        write("src/A.java", LINES.replace("int b;", "int b;\n    int added;"));
+        commit("Feature change");
+        git.checkout().setName("master").call();
+        write("src/B.java", LINES.replace("A", "B").replace("int c;", "long c;"));
+        commit("Target change");
+        git.checkout().setName("feature").call();
+
+        var mergeBaseDiffs = changes(GitDiffOptions.builder().mergeBase(true).build());
+        var tipDiffs = changes(GitDiffOptions.builder().build());
+
+        Assertions.assertThat(mergeBaseDiffs)
+                .extracting(GitDiff::getFilePath, GitDiff::getBeginChanges, GitDiff::getEndChanges)
+                .containsExactly(Assertions.tuple("src/A.java", 3, 4));
+        Assertions.assertThat(tipDiffs)
+                .extracting(GitDiff::getFilePath, GitDiff::getBeginChanges, GitDiff::getEndChanges)
+                .containsExactly(Assertions.tuple("src/A.java", 3, 4), Assertions.tuple("src/B.java", 3, 4));
+    }
+
+    @Test
+    void testRenamesFollowConfigurationInBothModes() throws GitAPIException, IOException {
+        git.checkout().setCreateBranch(true).setName("feature").call();
+        git.rm().addFilepattern("src/A.java").call();
+        write("src/C.java", LINES.replace("int d;", "long d;"));
+        commit("Rename");
+
+        for (var mergeBase : List.of(true, false)) {
+            Assertions.assertThat(changes(GitDiffOptions.builder().mergeBase(mergeBase).build()))
+                    .extracting(GitDiff::getFilePath, GitDiff::getBeginChanges, GitDiff::getEndChanges)
+                    .containsExactly(Assertions.tuple("src/C.java", 4, 5));
+        }
+
+        setConfig("renames", "false");
+        for (var mergeBase : List.of(true, false)) {
+            Assertions.assertThat(changes(GitDiffOptions.builder().mergeBase(mergeBase).build()))
+                    .extracting(GitDiff::getFilePath, GitDiff::getBeginChanges, GitDiff::getEndChanges)
+                    .containsExactly(Assertions.tuple("src/C.java", 0, 6));
+        }
+    }
+
+    @Test
+    void testCachedDiffsAreKeyedByDiffSettings() throws GitAPIException, IOException {
+        git.checkout().setCreateBranch(true).setName("feature").call();
+        write("src/A.java", LINES.replace("    int a;\n", "").replace("int d;", "long d;"));
+        commit("Feature change");
+        var cacheDir = repository.resolve("build/diff-cache");
+        var options = GitDiffOptions.builder().cacheDir(cacheDir.toFile()).deletions(true).build();
+
+        var computed = changes(options);
+        var cached = changes(options);
+        setConfig("algorithm", "myers");
+        changes(options);
+
+        Assertions.assertThat(computed)
+                .extracting(GitDiff::getBaseBeginChanges, GitDiff::getBaseEndChanges,
+                        GitDiff::getBeginChanges, GitDiff::getEndChanges)
+                .containsExactly(Assertions.tuple(1, 2, 1, 1), Assertions.tuple(4, 5, 3, 4));
+        Assertions.assertThat(cached).isEqualTo(computed);
+        try (var entries = Files.list(cacheDir)) {
+            Assertions.assertThat(entries.map(entry -> entry.getFileName().toString()))
+                    .hasSize(2)
+                    .anyMatch(name -> name.startsWith("tip-histogram-renames-"))
+                    .anyMatch(name -> name.startsWith("tip-myers-renames-"));
+        }
+    }
+
+    @Test
+    void testCacheRoundTrip() {
+        var cache = new GitDiffCache(repository.resolve("build/diff-cache").toFile());
+        var diffs = List.of(
+                diff("src/main/java/A.java", 3, 3, 3, 8),
+                diff("src/main/java/A.java", 20, 24, 25, 25),
+                diff("B.java", 0, 0, 0, 40));
+
+        cache.store("key", diffs);
+
+        Assertions.assertThat(cache.find("key")).hasValue(diffs);
+        Assertions.assertThat(cache.find("other")).isEmpty();
+    }
+
+    @Test
+    void testStagedChangesAreTakenFromIndex() throws GitAPIException, IOException {
+        makeUncommittedChanges();
+
+        Assertions.assertThat(uncommittedChanges(DiffMode.STAGED, GitDiffOptions.defaults()))
+                .extracting(GitDiff::getFilePath, GitDiff::getBeginChanges, GitDiff::getEndChanges)
+                .containsExactly(Assertions.tuple("src/A.java", 1, 2));
+    }
+
+    @Test
+    void testWorkingTreeChangesIncludeUnstagedAndUntrackedFiles() throws GitAPIException, IOException {
+        makeUncommittedChanges();
+        var cacheDir = repository.resolve("build/diff-cache");
+        var options = GitDiffOptions.builder().cacheDir(cacheDir.toFile()).build();
+
+        var computed = uncommittedChanges(DiffMode.WORKING_TREE, options);
+        var cached = uncommittedChanges(DiffMode.WORKING_TREE, options);
+
+        Assertions.assertThat(computed)
+                .extracting(GitDiff::getFilePath, GitDiff::getBeginChanges, GitDiff::getEndChanges)
+                .containsExactly(
+                        Assertions.tuple("src/A.java", 1, 2),
+                        Assertions.tuple("src/A.java", 4, 5),
+                        Assertions.tuple("src/B.java", 3, 4),
+                        Assertions.tuple("src/C.java", 0, 6));
+        Assertions.assertThat(cached).isEqualTo(computed);
+        try (var entries = Files.list(cacheDir)) {
+            Assertions.assertThat(entries.map(entry -> entry.getFileName().toString()))
+                    .hasSize(3)
+                    .allMatch(name -> name.startsWith("file-histogram-"));
+        }
+    }
+
+    /**
+     * Staged edit of A.java with one more unstaged edit, unstaged edit of B.java, untracked C.java
+     * and ignored files, which are never compared
+     */
+    private void makeUncommittedChanges() throws GitAPIException, IOException {
+        write(".gitignore", "build/\n*.gen.java\n");
+        commit("Ignore build outputs");
+
+        write("src/A.java", LINES.replace("int a;", "long a;"));
+        git.add().addFilepattern("src/A.java").call();
+        write("src/A.java", LINES.replace("int a;", "long a;").replace("int d;", "long d;"));
+        write("src/B.java", LINES.replace("A", "B").replace("int c;", "long c;"));
+        write("src/C.java", LINES.replace("A", "C"));
+        write("src/D.gen.java", LINES.replace("A", "D"));
+        write("build/generated/E.java", LINES.replace("A", "E"));
+    }
+
+    private List<GitDiff> uncommittedChanges(DiffMode mode, GitDiffOptions options) {
+        return GitUtils.getUncommittedChanges(git.getRepository(), "master", mode, options);
+    }
+
+    private List<GitDiff> changes(GitDiffOptions options) {
+        return GitUtils.getChangesInNewBranch("master", repository.resolve(".git").toString(), options);
+    }
+
+    private void setConfig(String name, String value) throws IOException {
+        var config = git.getRepository().getConfig();
+        config.setString("diff", null, name, value);
+        config.save();
+    }
+
+    private void write(String path, String content) throws IOException {
+        var file = repository.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    private void commit(String message) throws GitAPIException {
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage(message).setSign(false).call();
+    }
+
+    private static GitDiff diff(String path, int baseBegin, int baseEnd, int begin, int end) {
+        return GitDiff.builder()
+                .filePath(path)
+                .changedFileName(path.substring(path.lastIndexOf('/') + 1))
+                .baseBeginChanges(baseBegin)
+                .baseEndChanges(baseEnd)
+                .beginChanges(begin)
+                .endChanges(end)
+                .build();
+    }
+}
@@ -0,0 +1,42 @@
+package ru.spb.coverage.coverage;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.stream.IntStream;
+
+class IndexedSourceFileTest {
+
+    @Test
+    void testSplitLinesLikeReadAllLines() {
+        var sourceFile = IndexedSourceFile.of("a\nb\r\nc\rd\n\n\u00e9t\u00e9".getBytes(StandardCharsets.UTF_8));
+
+        var lines = IntStream.range(0, sourceFile.lineCount())
+                .mapToObj(sourceFile::line)
+                .toList();
+
+        Assertions.assertThat(lines)
+                .containsExactly("a", "b", "c", "d", "", "\u00e9t\u00e9");
+    }
+
+    @Test
+    void testTrailingLineTerminatorDoesNotAddLine() {
+        var sourceFile = IndexedSourceFile.of("a\r\nb\n".getBytes(StandardCharsets.UTF_8));
+
+        Assertions.assertThat(sourceFile.lineCount())
+                .isEqualTo(2);
+        Assertions.assertThat(sourceFile.line(1))
+                .isEqualTo("b");
+    }
+
+    @Test
+    void testEmptyFileHasNoLines() {
+        var sourceFile = IndexedSourceFile.of(new byte[0]);
+
+        Assertions.assertThat(sourceFile.lineCount())
+                .isZero();
+        Assertions.assertThatThrownBy(() -> sourceFile.line(0))
+                .isInstanceOf(IndexOutOfBoundsException.class);
+    }
+}
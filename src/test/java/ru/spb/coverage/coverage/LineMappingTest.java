@@ -0,0 +1,43 @@
+package ru.spb.coverage.coverage;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import ru.spb.coverage.domain.GitDiff;
+
+import java.util.List;
+
+class LineMappingTest {
+
+    @Test
+    void testUnchangedLinesAreShiftedByInsertionsAndDeletions() {
+        // Lines 2-3 of the base are replaced by line 2, lines 6-8 are deleted
+        // and lines 10-11 are inserted before line 14 of the base
+        var mapping = LineMapping.of(List.of(
+                diff(10, 12, 14, 14),
+                diff(2, 3, 2, 4),
+                diff(5, 5, 6, 9)));
+
+        Assertions.assertThat(mapping.baseLine(0)).isZero();
+        Assertions.assertThat(mapping.baseLine(1)).isEqualTo(1);
+        Assertions.assertThat(mapping.baseLine(2)).isEqualTo(-1);
+        Assertions.assertThat(mapping.baseLine(3)).isEqualTo(4);
+        Assertions.assertThat(mapping.baseLine(4)).isEqualTo(5);
+        Assertions.assertThat(mapping.baseLine(5)).isEqualTo(9);
+        Assertions.assertThat(mapping.baseLine(9)).isEqualTo(13);
+        Assertions.assertThat(mapping.baseLine(10)).isEqualTo(-1);
+        Assertions.assertThat(mapping.baseLine(11)).isEqualTo(-1);
+        Assertions.assertThat(mapping.baseLine(12)).isEqualTo(14);
+        Assertions.assertThat(LineMapping.IDENTITY.baseLine(7)).isEqualTo(7);
+    }
+
+    private static GitDiff diff(int beginChanges, int endChanges, int baseBeginChanges, int baseEndChanges) {
+        return GitDiff.builder()
+                .filePath("src/main/java/A.java")
+                .changedFileName("A.java")
+                .beginChanges(beginChanges)
+                .endChanges(endChanges)
+                .baseBeginChanges(baseBeginChanges)
+                .baseEndChanges(baseEndChanges)
+                .build();
+    }
+}
@@ -0,0 +1,36 @@
+package ru.spb.coverage.coverage;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class LineSetTest {
+
+    @Test
+    void testOverlappingAndAdjacentHunksAreMergedIntoRuns() {
+        var lines = new LineSet();
+        lines.add(10, 15);
+        lines.add(30, 35);
+        lines.add(0, 2);
+        lines.add(13, 20);
+        lines.add(20, 22);
+        lines.add(25, 26);
+        lines.add(24, 31);
+
+        Assertions.assertThat(runs(lines)).containsExactly(List.of(0, 2), List.of(10, 22), List.of(24, 35));
+        Assertions.assertThat(lines.cardinality()).isEqualTo(2 + 12 + 11);
+        Assertions.assertThat(lines.contains(21)).isTrue();
+        Assertions.assertThat(lines.contains(22)).isFalse();
+        Assertions.assertThat(lines.contains(2)).isFalse();
+    }
+
+    private static List<List<Integer>> runs(LineSet lines) {
+        var runs = new ArrayList<List<Integer>>();
+        for (var run = 0; run < lines.runCount(); run++) {
+            runs.add(List.of(lines.runBegin(run), lines.runEnd(run)));
+        }
+        return runs;
+    }
+}
@@ -0,0 +1,153 @@
+package ru.spb.coverage.coverage;
+
+import org.assertj.core.api.Assertions;
+import org.jacoco.core.analysis.IClassCoverage;
+import org.jacoco.core.analysis.ICounter;
+import org.jacoco.core.analysis.ISourceNode;
+import org.jacoco.core.internal.analysis.ClassCoverageImpl;
+import org.jacoco.core.internal.analysis.CounterImpl;
+import org.jacoco.core.internal.analysis.MethodCoverageImpl;
+import org.junit.jupiter.api.Test;
+import ru.spb.coverage.domain.report.UnitCoverage;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+class SourceUnitIndexTest {
+
+    private static final int MAX_LINE = 70;
+
+    @Test
+    void testNestedLambdasAndClassesAreFoundAsByLinearScan() {
+        var outer = new ClassCoverageImpl("com/example/Outer", 1, false);
+        outer.addMethod(method("<init>", 3));
+        outer.addMethod(method("run", 5, 6, 7, 13, 14));
+        // Lambda of run on lines 7-12, line 7 has code of both
+        outer.addMethod(method("lambda$run$0", 7, 8, 9, 10, 11, 12));
+        // Nested lambdas of one method, the inner one on a line of the outer one
+        outer.addMethod(method("collect", 20, 21, 40));
+        outer.addMethod(method("lambda$collect$1", 22, 23, 30, 31, 32, 33));
+        outer.addMethod(method("lambda$collect$2", 31, 32));
+        outer.addMethod(method("lambda$collect$3", 35, 36));
+        var inner = new ClassCoverageImpl("com/example/Outer$Inner", 2, false);
+        inner.addMethod(method("<init>", 45));
+        inner.addMethod(method("get", 47, 48, 49));
+        // Anonymous class in the middle of a method of the outer class
+        outer.addMethod(method("create", 52, 53, 60));
+        var anonymous = new ClassCoverageImpl("com/example/Outer$1", 3, false);
+        anonymous.addMethod(method("<init>", 54));
+        anonymous.addMethod(method("apply", 55, 56, 57));
+
+        assertSameAsLinearScan(List.of(outer, inner, anonymous));
+    }
+
+    @Test
+    void testRandomRangesAreFoundAsByLinearScan() {
+        var random = new Random(42);
+        var classes = new ArrayList<IClassCoverage>();
+        for (var c = 0; c < 5; c++) {
+            var classCoverage = new ClassCoverageImpl("com/example/C" + c, c, false);
+            for (var m = 0; m < 12; m++) {
+                var firstLine = 1 + random.nextInt(MAX_LINE - 10);
+                var lines = IntStream.rangeClosed(firstLine, firstLine + random.nextInt(10))
+                        .filter(line -> line == firstLine || random.nextInt(3) > 0)
+                        .toArray();
+                classCoverage.addMethod(method("m" + m, lines));
+            }
+            classes.add(classCoverage);
+        }
+
+        assertSameAsLinearScan(classes);
+    }
+
+    @Test
+    void testEmptyIndexFindsNothing() {
+        var index = SourceUnitIndex.of(List.of(new ClassCoverageImpl("com/example/Empty", 1, false)));
+
+        Assertions.assertThat(index).isSameAs(SourceUnitIndex.EMPTY);
+        Assertions.assertThat(index.enclosingMethod(1)).isNull();
+    }
+
+    private static void assertSameAsLinearScan(List<IClassCoverage> classes) {
+        var index = SourceUnitIndex.of(classes);
+        var units = units(classes);
+
+        Assertions.assertThat(index.size()).isEqualTo(units.size());
+        for (var fromLine = 0; fromLine <= MAX_LINE; fromLine++) {
+            for (var toLine = fromLine; toLine <= MAX_LINE; toLine++) {
+                var found = new ArrayList<String>();
+                index.overlapping(fromLine, toLine, unit -> found.add(name(unit.displayName(), unit.node())));
+                Assertions.assertThat(found)
+                        .as("units of lines %d-%d", fromLine, toLine)
+                        .isEqualTo(overlapping(units, fromLine, toLine));
+            }
+            var enclosing = index.enclosingMethod(fromLine);
+            Assertions.assertThat(enclosing == null ? null : name(enclosing.displayName(), enclosing.node()))
+                    .as("method of line %d", fromLine)
+                    .isEqualTo(enclosingMethod(units, fromLine));
+        }
+    }
+
+    /**
+     * @return units in the order of first lines, units of the same first line in the order given to the index
+     */
+    private static List<LinearUnit> units(List<IClassCoverage> classes) {
+        var units = new ArrayList<LinearUnit>();
+        for (var classCoverage : classes) {
+            for (var method : classCoverage.getMethods()) {
+                units.add(new LinearUnit(UnitCoverage.displayName(classCoverage.getName(), method.getName()),
+                        true, method));
+            }
+            units.add(new LinearUnit(UnitCoverage.displayName(classCoverage.getName(), null), false, classCoverage));
+        }
+        units.removeIf(unit -> unit.node().getFirstLine() == ISourceNode.UNKNOWN_LINE);
+        units.sort(Comparator.comparingInt(unit -> unit.node().getFirstLine()));
+        return units;
+    }
+
+    private static List<String> overlapping(List<LinearUnit> units, int fromLine, int toLine) {
+        return units.stream()
+                .filter(unit -> unit.node().getFirstLine() <= toLine && unit.node().getLastLine() >= fromLine)
+                .map(unit -> name(unit.name(), unit.node()))
+                .toList();
+    }
+
+    private static String enclosingMethod(List<LinearUnit> units, int line) {
+        LinearUnit enclosing = null;
+        for (var unit : units) {
+            var node = unit.node();
+            if (unit.method() && node.getFirstLine() <= line && node.getLastLine() >= line
+                    && node.getLine(line).getStatus() != ICounter.EMPTY
+                    && (enclosing == null || lineCount(node) < lineCount(enclosing.node()))) {
+                enclosing = unit;
+            }
+        }
+        return enclosing == null ? null : name(enclosing.name(), enclosing.node());
+    }
+
+    private static int lineCount(ISourceNode node) {
+        return node.getLastLine() - node.getFirstLine() + 1;
+    }
+
+    private static String name(String displayName, ISourceNode node) {
+        return displayName + " " + node.getFirstLine() + "-" + node.getLastLine();
+    }
+
+    /**
+     * @param lines one based lines having code, the first one is the first line of the method
+     */
+    private static MethodCoverageImpl method(String name, int... lines) {
+        var method = new MethodCoverageImpl(name, "()V", null);
+        for (var line : lines) {
+            method.increment(CounterImpl.getInstance(1, 0), CounterImpl.COUNTER_0_0, line);
+        }
+        method.incrementMethodCounter();
+        return method;
+    }
+
+    private record LinearUnit(String name, boolean method, ISourceNode node) {
+    }
+}
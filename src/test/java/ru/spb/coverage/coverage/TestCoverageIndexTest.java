@@ -0,0 +1,96 @@
+package ru.spb.coverage.coverage;
+
+import org.assertj.core.api.Assertions;
+import org.jacoco.core.data.ExecutionData;
+import org.jacoco.core.data.ExecutionDataWriter;
+import org.jacoco.core.data.SessionInfo;
+import org.jacoco.core.internal.data.CRC64;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.spb.coverage.domain.GitDiff;
+
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+class TestCoverageIndexTest {
+
+    private static final String SOURCE = """
+            package %s;
+
+            public class Foo {
+                public int run(int value) {
+                    var result = value * 2;
+                    return result + 1;
+                }
+            }
+            """;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testSessionsAreTestsOfChangedLinesOfTheSameFile() throws IOException {
+        var firstClass = compile("com.a");
+        var secondClass = compile("com.b");
+
+        // Every probe is hit, so every line of the executed class is covered
+        var firstExec = dir.resolve("first.exec");
+        try (var out = Files.newOutputStream(firstExec)) {
+            var writer = new ExecutionDataWriter(out);
+            writer.visitSessionInfo(new SessionInfo("FooBTest", 1, 2));
+            writer.visitClassExecution(executionData(secondClass, "com/b/Foo"));
+            writer.visitSessionInfo(new SessionInfo("FooATest", 3, 4));
+            writer.visitClassExecution(executionData(firstClass, "com/a/Foo"));
+        }
+        // Execution data without a session before it belongs to an unknown test
+        var secondExec = dir.resolve("second.exec");
+        try (var out = Files.newOutputStream(secondExec)) {
+            new ExecutionDataWriter(out).visitClassExecution(executionData(firstClass, "com/a/Foo"));
+        }
+
+        // Lines 5-6 of com/a/Foo.java and line 5 of com/b/Foo.java are changed
+        var index = TestCoverageIndex.build(List.of(firstExec.toFile(), secondExec.toFile()),
+                List.of(firstClass.toFile(), secondClass.toFile()),
+                List.of(diff("com/a", 4, 6), diff("com/b", 4, 5)),
+                2);
+
+        Assertions.assertThat(index.getSessions()).isEqualTo(3);
+        Assertions.assertThat(index.fileTests("com/a/Foo.java")).containsOnlyKeys(5, 6)
+                .allSatisfy((line, tests) -> Assertions.assertThat(tests).containsExactly("FooATest", "unknown"));
+        Assertions.assertThat(index.fileTests("com/b/Foo.java")).containsOnlyKeys(5)
+                .allSatisfy((line, tests) -> Assertions.assertThat(tests).containsExactly("FooBTest"));
+        Assertions.assertThat(index.allTests()).containsExactly("FooATest", "FooBTest", "unknown");
+    }
+
+    private Path compile(String packageName) throws IOException {
+        var sourceDir = dir.resolve("src").resolve(packageName.replace('.', '/'));
+        Files.createDirectories(sourceDir);
+        var source = sourceDir.resolve("Foo.java");
+        Files.writeString(source, SOURCE.formatted(packageName));
+
+        var classesDir = dir.resolve("classes");
+        var result = ToolProvider.getSystemJavaCompiler()
+                .run(null, null, null, "-d", classesDir.toString(), source.toString());
+        Assertions.assertThat(result).isZero();
+        return classesDir.resolve(packageName.replace('.', '/')).resolve("Foo.class");
+    }
+
+    private static ExecutionData executionData(Path classFile, String className) throws IOException {
+        var probes = new boolean[8];
+        Arrays.fill(probes, true);
+        return new ExecutionData(CRC64.classId(Files.readAllBytes(classFile)), className, probes);
+    }
+
+    private static GitDiff diff(String packageDir, int beginChanges, int endChanges) {
+        return GitDiff.builder()
+                .filePath("src/main/java/" + packageDir + "/Foo.java")
+                .changedFileName("Foo.java")
+                .beginChanges(beginChanges)
+                .endChanges(endChanges)
+                .build();
+    }
+}
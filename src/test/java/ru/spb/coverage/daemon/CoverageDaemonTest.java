@@ -0,0 +1,94 @@
+package ru.spb.coverage.daemon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.spb.coverage.coverage.CoverageTaskException;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Properties;
+
+class CoverageDaemonTest {
+
+    @TempDir
+    Path dir;
+
+    CoverageDaemon daemon;
+    Thread server;
+
+    @BeforeEach
+    void startDaemon() throws IOException {
+        daemon = new CoverageDaemon(0, dir, 200);
+        server = new Thread(daemon::serve);
+        server.start();
+    }
+
+    @AfterEach
+    void stopDaemon() throws IOException, InterruptedException {
+        daemon.close();
+        server.join(10_000);
+    }
+
+    @Test
+    void testRequestsWithoutTokenAreRejected() throws IOException, InterruptedException {
+        var tokenFile = CoverageDaemon.tokenFile(dir, daemon.getPort());
+        Assertions.assertThat(Files.getPosixFilePermissions(tokenFile))
+                .containsExactlyInAnyOrder(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+
+        var request = new Properties();
+        request.setProperty(DaemonProtocol.COMMAND, DaemonProtocol.COMMAND_SHUTDOWN);
+        request.setProperty(DaemonProtocol.TOKEN, "guess");
+        Assertions.assertThat(send(request).getProperty(DaemonProtocol.STATUS)).isEqualTo(DaemonProtocol.STATUS_ERROR);
+
+        // A client with a wrong token is told so and the daemon keeps running
+        var otherDir = Files.createDirectory(dir.resolve("other"));
+        Files.writeString(CoverageDaemon.tokenFile(otherDir, daemon.getPort()), "guess");
+        Assertions.assertThatThrownBy(() -> new CoverageDaemonClient(daemon.getPort(), otherDir).shutdown())
+                .isInstanceOf(CoverageTaskException.class)
+                .hasMessageContaining("Invalid coverage daemon token");
+        Assertions.assertThat(server.isAlive()).isTrue();
+
+        new CoverageDaemonClient(daemon.getPort(), dir).shutdown();
+        server.join(10_000);
+        Assertions.assertThat(server.isAlive()).isFalse();
+        daemon.close();
+        Assertions.assertThat(tokenFile).doesNotExist();
+    }
+
+    @Test
+    void testIdleAndMalformedRequestsDoNotStopTheDaemon() throws IOException, InterruptedException {
+        try (var idle = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+            Assertions.assertThat(DaemonProtocol.read(idle.getInputStream()).getProperty(DaemonProtocol.STATUS))
+                    .isEqualTo(DaemonProtocol.STATUS_ERROR);
+        }
+
+        Properties response;
+        try (var socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+            socket.getOutputStream().write("token=\\uZZZZ\n".getBytes(StandardCharsets.UTF_8));
+            socket.shutdownOutput();
+            response = DaemonProtocol.read(socket.getInputStream());
+        }
+        Assertions.assertThat(response.getProperty(DaemonProtocol.STATUS)).isEqualTo(DaemonProtocol.STATUS_ERROR);
+        Assertions.assertThat(response.getProperty(DaemonProtocol.MESSAGE)).startsWith("Malformed");
+
+        new CoverageDaemonClient(daemon.getPort(), dir).shutdown();
+        server.join(10_000);
+        Assertions.assertThat(server.isAlive()).isFalse();
+    }
+
+    private Properties send(Properties request) throws IOException {
+        try (var socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+            DaemonProtocol.write(request, socket.getOutputStream());
+            socket.shutdownOutput();
+            return DaemonProtocol.read(socket.getInputStream());
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package ru.spb.coverage.daemon;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.spb.coverage.domain.CoverageSettings;
+import ru.spb.coverage.domain.DiffMode;
+import ru.spb.coverage.domain.ModuleLayout;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+class DaemonProtocolTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testEverySettingIsSentToTheDaemon() throws IllegalAccessException {
+        var settings = CoverageSettings.builder()
+                .targetBranch("develop")
+                .headRevision("feature")
+                .diffMode(DiffMode.STAGED)
+                .modules(List.of(ModuleLayout.builder()
+                        .name(":app")
+                        .classesDirs(List.of(file("classes")))
+                        .sourceDirs(List.of(file("src"), file("generated")))
+                        .execFiles(List.of(file("test.exec")))
+                        .build()))
+                .additionalExecFiles(List.of(file("it.exec")))
+                .gitDir(file(".git"))
+                .workDir(file("work"))
+                .analysisWorkers(3)
+                .evaluationWorkers(5)
+                .fullScan(true)
+                .analysisCache(false)
+                .diffAgainstMergeBase(true)
+                .diffCache(false)
+                .affectedTestsFile(file("affected.txt"))
+                .baselineClassesDirs(List.of(file("baseline/classes")))
+                .baselineExecFiles(List.of(file("baseline/test.exec")))
+                .build();
+        // A setting left at its default would pass the round trip even if it is never sent
+        var defaults = CoverageSettings.builder().build();
+        for (var field : CoverageSettings.class.getDeclaredFields()) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                continue;
+            }
+            field.setAccessible(true);
+            Assertions.assertThat(field.get(settings)).as(field.getName()).isNotEqualTo(field.get(defaults));
+        }
+
+        var request = DaemonProtocol.evaluateRequest(settings, dir.resolve("report.txt"), Map.of(), null, null);
+
+        Assertions.assertThat(DaemonProtocol.readSettings(request)).isEqualTo(settings);
+    }
+
+    @Test
+    void testLongMessagesAreRejectedBeforeParsing() {
+        var message = new byte[DaemonProtocol.MAX_MESSAGE_BYTES + 1];
+        Arrays.fill(message, (byte) 'a');
+
+        Assertions.assertThatIOException()
+                .isThrownBy(() -> DaemonProtocol.read(new ByteArrayInputStream(message)))
+                .withMessageContaining("longer than");
+    }
+
+    private File file(String path) {
+        return dir.resolve(path).toFile();
+    }
+}
@@ -0,0 +1,96 @@
+package ru.spb.coverage.history;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.spb.coverage.domain.report.CodeLine;
+import ru.spb.coverage.domain.report.CoverageChange;
+import ru.spb.coverage.domain.report.HistoryEntry;
+import ru.spb.coverage.domain.report.ReportTotals;
+
+import java.nio.file.Path;
+import java.util.List;
+
+class CoverageHistoryTest {
+
+    @TempDir
+    Path historyDir;
+
+    @Test
+    void testTrendsFollowRunsOfFile() {
+        var history = new CoverageHistory(historyDir);
+        history.append(run("c1", 10), List.of(file("A.java", 4), file("B.java", 6)));
+        history.append(run("c2", 20), List.of(file("B.java", 8)));
+        history.append(run("c3", 30), List.of(file("A.java", 5)));
+
+        Assertions.assertThat(history.trend(2))
+                .extracting(HistoryEntry::getCommitId)
+                .containsExactly("c3", "c2");
+        Assertions.assertThat(history.fileTrend("A.java", 10))
+                .extracting(HistoryEntry::getCommitId, HistoryEntry::getCoveredLines)
+                .containsExactly(Assertions.tuple("c3", 5), Assertions.tuple("c1", 4));
+        Assertions.assertThat(history.commitFiles("c1"))
+                .extracting(HistoryEntry::getFileName)
+                .containsExactly("A.java", "B.java");
+    }
+
+    @Test
+    void testReopenedHistoryReadsRecordsAppendedByOthers() {
+        var history = new CoverageHistory(historyDir);
+        history.append(run("c1", 10), List.of(file("A.java", 4)));
+
+        var other = new CoverageHistory(historyDir);
+        other.append(run("c2", 20), List.of(file("A.java", 7)));
+
+        Assertions.assertThat(history.fileTrend("A.java", 10))
+                .extracting(HistoryEntry::getCommitId, HistoryEntry::getTimestamp)
+                .containsExactly(Assertions.tuple("c2", 20L), Assertions.tuple("c1", 10L));
+        Assertions.assertThat(new CoverageHistory(historyDir).trend(10))
+                .hasSize(2);
+    }
+
+    @Test
+    void testRecorderKeepsTotalsOfEveryChangedFile() {
+        var history = new CoverageHistory(historyDir);
+        var recorder = new CoverageHistoryRecorder(history, "c1");
+
+        // A.java has one reported hunk out of its changed lines, B.java is fully covered and has none
+        recorder.accept(CoverageChange.builder()
+                .fileName("A.java")
+                .acceptableLinesForCovering(2)
+                .uncoveredCodeLines(List.of(CodeLine.builder().lineNumber(3).build()))
+                .build());
+        recorder.acceptFileTotals("A.java", totals(6, 5));
+        recorder.acceptFileTotals("B.java", totals(3, 3));
+        recorder.acceptFileTotals("C.java", totals(0, 0));
+        recorder.finish(totals(9, 8));
+
+        Assertions.assertThat(history.commitFiles("c1"))
+                .extracting(HistoryEntry::getFileName, HistoryEntry::getAllLines, HistoryEntry::getCoveredLines)
+                .containsExactly(Assertions.tuple("A.java", 6, 5), Assertions.tuple("B.java", 3, 3));
+    }
+
+    private static ReportTotals totals(int allLines, int coveredLines) {
+        return ReportTotals.builder()
+                .allLines(allLines)
+                .coveredLines(coveredLines)
+                .build();
+    }
+
+    private static HistoryEntry run(String commitId, long timestamp) {
+        return HistoryEntry.builder()
+                .commitId(commitId)
+                .timestamp(timestamp)
+                .allLines(10)
+                .coveredLines(5)
+                .build();
+    }
+
+    private static HistoryEntry file(String fileName, int coveredLines) {
+        return HistoryEntry.builder()
+                .fileName(fileName)
+                .allLines(10)
+                .coveredLines(coveredLines)
+                .build();
+    }
+}